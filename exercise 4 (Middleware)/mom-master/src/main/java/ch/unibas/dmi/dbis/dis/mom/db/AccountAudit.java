@@ -0,0 +1,364 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * Reconciles the accounts of a bank with its in-flight transfers.
+ * <br>
+ * The partitions of an {@link AccountSnapshot} are scanned in parallel on a {@link ForkJoinPool}.
+ * Every partition is summed into primitive accumulators with compensated (Neumaier) summation,
+ * and the partial sums are merged pairwise while the fork/join tree is joined.
+ * The audit reports accounts with a negative or invalid balance and in-flight transfers
+ * with an invalid amount or an account that is not in the snapshot.
+ * <br>
+ * Money is conserved if the sum of {@link Report#getHoldings()} over all banks stays the same,
+ * see {@link #checkConservation(double, double, Report...)}.
+ */
+public class AccountAudit {
+	/**
+	 * Maximum number of discrepancies that are described in a report, all of them are counted.
+	 */
+	public static final int MAX_REPORTED = 100;
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates an audit that runs on the common fork/join pool.
+	 */
+	public AccountAudit() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param pool pool that scans the partitions
+	 */
+	public AccountAudit(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Audits the accounts of a snapshot against the in-flight transfers of a transaction table.
+	 * The table is read after the snapshot, transfers that change in between show up as discrepancies.
+	 *
+	 * @param snapshot unread snapshot of the accounts
+	 * @param transactionTable transaction table of the same bank
+	 * @return the report
+	 */
+	public Report audit(AccountSnapshot snapshot, ITransactionTable transactionTable) {
+		return audit(snapshot, transactionTable.list());
+	}
+
+	/**
+	 * Audits the accounts of a snapshot against in-flight transfers.
+	 * Transactions with an amount of zero are balance requests and are ignored.
+	 *
+	 * @param snapshot unread snapshot of the accounts
+	 * @param transactions entries of the transaction table, taken at the same time as the snapshot
+	 * @return the report
+	 */
+	public Report audit(AccountSnapshot snapshot, Set<Entry<String, Transaction>> transactions) {
+		long start = System.currentTimeMillis();
+		Report report = new Report();
+
+		// Accounts of in-flight transfers have to be in the snapshot
+		Map<String, List<String>> inFlight = new HashMap<String, List<String>>();
+		for (Entry<String, Transaction> e : transactions) {
+			Transaction tx = e.getValue();
+			if (tx.amount == 0) {
+				continue;
+			}
+			if (!(tx.amount > 0) || Double.isInfinite(tx.amount)) {
+				report.addDiscrepancy("Transaction " + e.getKey() + " has an invalid amount: " + tx);
+				continue;
+			}
+			report.inFlightCount++;
+			report.inFlight.add(tx.amount);
+			inFlight.computeIfAbsent(tx.iban, iban -> new ArrayList<String>()).add(e.getKey());
+		}
+
+		Set<String> found = ConcurrentHashMap.newKeySet();
+		Totals totals = pool.invoke(new Scan(snapshot, 0, snapshot.getPartitionCount(), inFlight, found));
+		report.accounts = totals.accounts;
+		report.total = totals.sum;
+		report.discrepancyCount += totals.discrepancyCount;
+		for (String discrepancy : totals.discrepancies) {
+			report.addDescription(discrepancy);
+		}
+
+		for (Entry<String, List<String>> e : inFlight.entrySet()) {
+			if (!found.contains(e.getKey())) {
+				for (String id : e.getValue()) {
+					report.addDiscrepancy("Transaction " + id + " withdrew from unknown account " + e.getKey());
+				}
+			}
+		}
+
+		report.elapsedMillis = System.currentTimeMillis() - start;
+		return report;
+	}
+
+	/**
+	 * Checks that the holdings of all banks add up to the money that was put into the system.
+	 *
+	 * @param expectedTotal money in the system
+	 * @param tolerance accepted rounding error
+	 * @param reports reports of all banks, taken while no transfer was acknowledged
+	 * @return description of the discrepancy or an empty list if the money is conserved
+	 */
+	public static List<String> checkConservation(double expectedTotal, double tolerance, Report... reports) {
+		Sum holdings = new Sum();
+		for (Report report : reports) {
+			holdings.add(report.getHoldings());
+		}
+
+		double difference = holdings.get() - expectedTotal;
+		if (Math.abs(difference) <= tolerance) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList("Holdings of " + holdings.get() + " differ by " + difference
+				+ " from the expected total of " + expectedTotal);
+	}
+
+	/**
+	 * Result of an audit.
+	 */
+	public static class Report {
+		private long accounts;
+		private double total;
+		private long inFlightCount;
+		private final Sum inFlight = new Sum();
+		private long discrepancyCount;
+		private final List<String> discrepancies = new ArrayList<String>();
+		private long elapsedMillis;
+
+		/**
+		 * @return number of accounts
+		 */
+		public long getAccounts() {
+			return accounts;
+		}
+
+		/**
+		 * @return sum of all account balances
+		 */
+		public double getTotal() {
+			return total;
+		}
+
+		/**
+		 * @return number of in-flight transfers
+		 */
+		public long getInFlightCount() {
+			return inFlightCount;
+		}
+
+		/**
+		 * @return money that was withdrawn by in-flight transfers
+		 */
+		public double getInFlight() {
+			return inFlight.get();
+		}
+
+		/**
+		 * @return money the bank is responsible for, the balances plus the in-flight transfers
+		 */
+		public double getHoldings() {
+			return total + inFlight.get();
+		}
+
+		/**
+		 * @return number of discrepancies
+		 */
+		public long getDiscrepancyCount() {
+			return discrepancyCount;
+		}
+
+		/**
+		 * @return descriptions of the first {@value AccountAudit#MAX_REPORTED} discrepancies
+		 */
+		public List<String> getDiscrepancies() {
+			return Collections.unmodifiableList(discrepancies);
+		}
+
+		/**
+		 * @return true, if no discrepancy was found
+		 */
+		public boolean isConsistent() {
+			return discrepancyCount == 0;
+		}
+
+		/**
+		 * @return duration of the audit in milliseconds
+		 */
+		public long getElapsedMillis() {
+			return elapsedMillis;
+		}
+
+		private void addDiscrepancy(String description) {
+			discrepancyCount++;
+			addDescription(description);
+		}
+
+		private void addDescription(String description) {
+			if (discrepancies.size() < MAX_REPORTED) {
+				discrepancies.add(description);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return accounts + " accounts with a total of " + total + ", " + inFlightCount + " in-flight transfers of "
+					+ inFlight.get() + ", " + discrepancyCount + " discrepancies (" + elapsedMillis + " ms)";
+		}
+	}
+
+	/**
+	 * Compensated sum that keeps the rounding error of large totals below a cent.
+	 */
+	private static class Sum {
+		private double sum;
+		private double compensation;
+
+		void add(double value) {
+			double t = sum + value;
+			if (Math.abs(sum) >= Math.abs(value)) {
+				compensation += (sum - t) + value;
+			}
+			else {
+				compensation += (value - t) + sum;
+			}
+			sum = t;
+		}
+
+		double get() {
+			return sum + compensation;
+		}
+	}
+
+	/**
+	 * Partial result of a range of partitions.
+	 */
+	private static class Totals implements AccountSnapshot.Visitor {
+		private final Map<String, List<String>> inFlight;
+		private final Set<String> found;
+		private double sum;
+		private double compensation;
+		private long accounts;
+		private long discrepancyCount;
+		private List<String> discrepancies = Collections.emptyList();
+
+		Totals(Map<String, List<String>> inFlight, Set<String> found) {
+			this.inFlight = inFlight;
+			this.found = found;
+		}
+
+		@Override
+		public void visit(String iban, double balance) {
+			accounts++;
+			// Inlined Sum#add, this runs once per account
+			double t = sum + balance;
+			if (Math.abs(sum) >= Math.abs(balance)) {
+				compensation += (sum - t) + balance;
+			}
+			else {
+				compensation += (balance - t) + sum;
+			}
+			sum = t;
+
+			if (!(balance >= 0) || Double.isInfinite(balance)) {
+				discrepancy("Account " + iban + " has an invalid balance of " + balance);
+			}
+			if (!inFlight.isEmpty() && inFlight.containsKey(iban)) {
+				found.add(iban);
+			}
+		}
+
+		/**
+		 * Finishes the sum of this partition.
+		 */
+		Totals finish() {
+			sum += compensation;
+			compensation = 0;
+			return this;
+		}
+
+		/**
+		 * Merges the totals of the following partitions into these.
+		 */
+		Totals merge(Totals other) {
+			Sum merged = new Sum();
+			merged.add(sum);
+			merged.add(other.sum);
+			sum = merged.get();
+			accounts += other.accounts;
+			discrepancyCount += other.discrepancyCount;
+			for (String description : other.discrepancies) {
+				addDescription(description);
+			}
+			return this;
+		}
+
+		private void discrepancy(String description) {
+			discrepancyCount++;
+			addDescription(description);
+		}
+
+		private void addDescription(String description) {
+			if (discrepancies.size() < MAX_REPORTED) {
+				if (discrepancies.isEmpty()) {
+					discrepancies = new ArrayList<String>();
+				}
+				discrepancies.add(description);
+			}
+		}
+	}
+
+	/**
+	 * Scans a range of partitions, splitting it in halves until a single partition is left.
+	 */
+	private static class Scan extends RecursiveTask<Totals> {
+		private static final long serialVersionUID = 1L;
+
+		private final AccountSnapshot snapshot;
+		private final int from;
+		private final int to;
+		private final Map<String, List<String>> inFlight;
+		private final Set<String> found;
+
+		Scan(AccountSnapshot snapshot, int from, int to, Map<String, List<String>> inFlight, Set<String> found) {
+			this.snapshot = snapshot;
+			this.from = from;
+			this.to = to;
+			this.inFlight = inFlight;
+			this.found = found;
+		}
+
+		@Override
+		protected Totals compute() {
+			if (to - from <= 1) {
+				Totals totals = new Totals(inFlight, found);
+				if (from < to) {
+					snapshot.forEach(from, totals);
+				}
+				return totals.finish();
+			}
+
+			int middle = (from + to) >>> 1;
+			Scan left = new Scan(snapshot, from, middle, inFlight, found);
+			left.fork();
+			Totals right = new Scan(snapshot, middle, to, inFlight, found).compute();
+			return left.join().merge(right);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.unibas.dmi.dbis.dis.mom.server.BankServer;
+
+/**
+ * Loads accounts in bulk from a CSV file with one {@code iban,balance} row per line into an {@link IDatabase}.
+ * <br>
+ * The file is split into chunks at line boundaries. Every chunk is memory-mapped and parsed by its own thread,
+ * which adds the parsed accounts in batches of {@value #BATCH_SIZE} with {@link IDatabase#addAccounts(String[], double[], int)}.
+ * Accounts that exist already are skipped. Lines that cannot be parsed, e.g. a header line, are counted and skipped.
+ * Empty lines and lines starting with '#' are ignored.
+ */
+public class AccountLoader {
+	public static final int BATCH_SIZE = 10000;
+	/**
+	 * Maximum size of a chunk, a mapping cannot exceed 2 GiB.
+	 */
+	private static final long MAX_CHUNK_SIZE = 1L << 30;
+	private static final int MAX_LINE_LENGTH = 256;
+
+	private final IDatabase database;
+	private final int parallelism;
+	private final AtomicLong added = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong malformed = new AtomicLong();
+
+	/**
+	 * Creates a loader that uses one thread per available processor.
+	 *
+	 * @param database database to load the accounts into
+	 */
+	public AccountLoader(IDatabase database) {
+		this(database, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param database database to load the accounts into
+	 * @param parallelism number of parser threads
+	 */
+	public AccountLoader(IDatabase database, int parallelism) {
+		this.database = database;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Loads all accounts of the file and waits until they are added.
+	 *
+	 * @param file CSV file
+	 * @throws IOException If the file cannot be read
+	 */
+	public void load(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			long[] bounds = split(raf, channel.size());
+
+			ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+			try {
+				List<Future<?>> chunks = new ArrayList<Future<?>>();
+				for (int i = 0; i + 1 < bounds.length; i++) {
+					if (bounds[i + 1] > bounds[i]) {
+						MappedByteBuffer chunk = channel.map(MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+						chunks.add(executor.submit(() -> parse(chunk)));
+					}
+				}
+
+				for (Future<?> chunk : chunks) {
+					chunk.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while loading " + file, e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new IOException("Could not load " + file, e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * @return number of accounts added by this loader
+	 */
+	public long getAdded() {
+		return added.get();
+	}
+
+	/**
+	 * @return number of accounts that were skipped because they exist already
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return number of lines that could not be parsed
+	 */
+	public long getMalformed() {
+		return malformed.get();
+	}
+
+	/**
+	 * Splits the file into chunks that start at the beginning of a line.
+	 *
+	 * @return offsets of the chunk boundaries, starting with 0 and ending with the file size
+	 */
+	private long[] split(RandomAccessFile raf, long size) throws IOException {
+		int count = (int) Math.max(parallelism * 4L, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+		long[] bounds = new long[count + 1];
+		bounds[count] = size;
+		for (int i = 1; i < count; i++) {
+			long offset = Math.max(size * i / count, bounds[i - 1]);
+			// Move the boundary behind the next line break
+			raf.seek(offset);
+			int b;
+			while (offset < size && (b = raf.read()) != -1) {
+				offset++;
+				if (b == '\n') {
+					break;
+				}
+			}
+			bounds[i] = offset;
+		}
+		return bounds;
+	}
+
+	private void parse(MappedByteBuffer chunk) {
+		String[] ibans = new String[BATCH_SIZE];
+		double[] balances = new double[BATCH_SIZE];
+		byte[] line = new byte[MAX_LINE_LENGTH];
+		int count = 0;
+
+		int limit = chunk.limit();
+		int position = 0;
+		while (position < limit) {
+			// Copy the line and remember the first comma
+			int length = 0;
+			int comma = -1;
+			boolean tooLong = false;
+			while (position < limit) {
+				byte b = chunk.get(position++);
+				if (b == '\n') {
+					break;
+				}
+				if (length == line.length) {
+					tooLong = true;
+					continue;
+				}
+				if (b == ',' && comma < 0) {
+					comma = length;
+				}
+				line[length++] = b;
+			}
+			if (length > 0 && line[length - 1] == '\r') {
+				length--;
+			}
+
+			if (length == 0 || line[0] == '#') {
+				continue;
+			}
+			if (tooLong || comma <= 0) {
+				malformed.incrementAndGet();
+				continue;
+			}
+
+			try {
+				balances[count] = Double.parseDouble(new String(line, comma + 1, length - comma - 1, StandardCharsets.US_ASCII));
+			} catch (NumberFormatException e) {
+				malformed.incrementAndGet();
+				continue;
+			}
+			ibans[count] = new String(line, 0, comma, StandardCharsets.UTF_8).trim();
+
+			if (++count == BATCH_SIZE) {
+				add(ibans, balances, count);
+				count = 0;
+			}
+		}
+
+		add(ibans, balances, count);
+	}
+
+	private void add(String[] ibans, double[] balances, int count) {
+		if (count == 0) {
+			return;
+		}
+
+		int n;
+		if (database.isThreadSafe()) {
+			n = database.addAccounts(ibans, balances, count);
+		}
+		else {
+			synchronized (database) {
+				n = database.addAccounts(ibans, balances, count);
+			}
+		}
+		added.addAndGet(n);
+		skipped.addAndGet(count - n);
+	}
+
+	/**
+	 * Loads a CSV file into the database of a bank, which is created by
+	 * {@link BankServer#createDatabase(String, com.amazonaws.auth.AWSCredentials)}.
+	 * Select a persistent database with the system property {@value BankServer#DATABASE_PROPERTY}.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Please specify bic and file.");
+			System.out.println("Usage: java -D" + BankServer.DATABASE_PROPERTY + "=<type> AccountLoader <bic> <file>");
+			System.exit(-1);
+		}
+
+		IDatabase database = BankServer.createDatabase(args[0], null);
+		AccountLoader loader = new AccountLoader(database);
+		long start = System.currentTimeMillis();
+		try {
+			loader.load(new File(args[1]));
+		} finally {
+			if (database instanceof Closeable) {
+				((Closeable) database).close();
+			}
+		}
+
+		System.out.println("Added " + loader.getAdded() + " accounts in " + (System.currentTimeMillis() - start) + " ms, skipped "
+				+ loader.getSkipped() + " existing accounts and " + loader.getMalformed() + " malformed lines.");
+	}
+}
@@ -0,0 +1,80 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Consistent point-in-time view of all accounts of an {@link IDatabase}, see {@link IDatabase#snapshot()}.
+ * The database can be changed while the snapshot is read, the snapshot does not see those changes.
+ * <br>
+ * The accounts are split into partitions that can be read by different threads at the same time.
+ * Every partition can be read once. A snapshot should be closed when it is not needed anymore,
+ * because the database may have to preserve old balances for it.
+ */
+public interface AccountSnapshot extends Closeable {
+	/**
+	 * @return number of accounts in the snapshot
+	 */
+	public long size();
+
+	/**
+	 * @return number of partitions
+	 */
+	public int getPartitionCount();
+
+	/**
+	 * Calls the visitor for every account of a partition.
+	 *
+	 * @param partition index of the partition
+	 * @param visitor visitor of the accounts
+	 * @throws IllegalStateException If the partition was read before
+	 */
+	public void forEach(int partition, Visitor visitor);
+
+	/**
+	 * Calls the visitor for every account of the snapshot.
+	 *
+	 * @param visitor visitor of the accounts
+	 */
+	public default void forEach(Visitor visitor) {
+		for (int partition = 0; partition < getPartitionCount(); partition++) {
+			forEach(partition, visitor);
+		}
+	}
+
+	/**
+	 * Writes all accounts as {@code iban,balance} lines, the format read by {@link AccountLoader}.
+	 *
+	 * @param out destination
+	 * @throws IOException If writing fails
+	 */
+	public default void writeTo(Writer out) throws IOException {
+		try {
+			forEach((iban, balance) -> {
+				try {
+					out.write(iban + "," + balance + "\n");
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		out.flush();
+	}
+
+	/**
+	 * Releases the snapshot.
+	 */
+	@Override
+	public void close();
+
+	/**
+	 * Receives the accounts of a snapshot.
+	 */
+	public interface Visitor {
+		public void visit(String iban, double balance);
+	}
+}
@@ -0,0 +1,455 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * Decorator of a persistent {@link IDatabase} that keeps the balances of hot accounts in memory.
+ * <br>
+ * Balances are read through: an account that is not cached is loaded from the store on first access.
+ * Deposits and withdrawals only change the cached balance. The changes are collected per account
+ * and written behind by a background flush, so a frequently used account causes one store update
+ * per flush interval, no matter how many operations it got. Adding and deleting accounts
+ * is written through immediately.
+ * <br>
+ * The cache holds about {@code maxSize} accounts. New accounts enter a small LRU window.
+ * When they leave it, they are only admitted to the main LRU area if they were accessed more often than
+ * the account they would replace (W-TinyLFU), so a scan over many cold accounts does not flush the hot ones.
+ * Accounts with changes that are not written yet are never evicted. If they fill the cache,
+ * the next access flushes them before it loads another account, so the cache does not grow
+ * beyond {@code maxSize} between two background flushes.
+ */
+public class CachingDatabase implements IDatabase, Closeable {
+	public static final long DEFAULT_FLUSH_INTERVAL = 100;
+	/**
+	 * Share of the cache size used for the admission window.
+	 */
+	private static final double WINDOW_SHARE = 0.01;
+
+	private final IDatabase store;
+	private final int maxSize;
+	private final int windowSize;
+	private final int mainSize;
+	private final LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final LinkedHashMap<String, Entry> main = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+	private final ScheduledExecutorService flusher;
+	private final Object flushLock = new Object();
+
+	/**
+	 * Creates a cache that is flushed every {@value #DEFAULT_FLUSH_INTERVAL} ms.
+	 *
+	 * @param store the persistent database
+	 * @param maxSize maximum number of cached accounts
+	 */
+	public CachingDatabase(IDatabase store, int maxSize) {
+		this(store, maxSize, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * @param store the persistent database
+	 * @param maxSize maximum number of cached accounts
+	 * @param flushInterval time in ms between two flushes of the changed balances
+	 */
+	public CachingDatabase(IDatabase store, int maxSize, long flushInterval) {
+		if (maxSize < 2) {
+			throw new IllegalArgumentException("The cache must hold at least two accounts");
+		}
+
+		this.store = store;
+		this.maxSize = maxSize;
+		this.windowSize = Math.max(1, (int) (maxSize * WINDOW_SHARE));
+		this.mainSize = maxSize - windowSize;
+		this.sketch = new FrequencySketch(maxSize);
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "write-behind flusher");
+			t.setDaemon(true);
+			return t;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public double getBalance(String iban) throws UnknownAccountException {
+		makeRoom();
+		synchronized (this) {
+			return load(iban).balance;
+		}
+	}
+
+	@Override
+	public void deposit(String iban, double amount) throws UnknownAccountException {
+		makeRoom();
+		synchronized (this) {
+			Entry entry = load(iban);
+			entry.balance += amount;
+			entry.pending += amount;
+		}
+	}
+
+	@Override
+	public boolean depositIfExists(String iban, double amount) {
+		try {
+			deposit(iban, amount);
+			return true;
+		} catch (UnknownAccountException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public void withdraw(String iban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		makeRoom();
+		synchronized (this) {
+			Entry entry = load(iban);
+			if (entry.balance < amount) {
+				throw new AccountOverdrawException(iban);
+			}
+
+			entry.balance -= amount;
+			entry.pending -= amount;
+		}
+	}
+
+	@Override
+	public void transfer(String fromIban, String toIban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		makeRoom();
+		synchronized (this) {
+			load(toIban);
+			Entry source = load(fromIban);
+			if (source.balance < amount) {
+				throw new AccountOverdrawException(fromIban);
+			}
+
+			source.balance -= amount;
+			source.pending -= amount;
+			// Loaded again, loading the source may have evicted it while it had no pending changes
+			Entry target = load(toIban);
+			target.balance += amount;
+			target.pending += amount;
+		}
+	}
+
+	@Override
+	public synchronized void addAccount(String iban, double balance) throws KnownAccountException {
+		if (window.containsKey(iban) || main.containsKey(iban)) {
+			throw new KnownAccountException(iban);
+		}
+
+		storeAddAccount(iban, balance);
+	}
+
+	@Override
+	public synchronized int addAccounts(String[] ibans, double[] balances, int count) {
+		// Cached accounts exist in the store as well, so the store skips them
+		if (store.isThreadSafe()) {
+			return store.addAccounts(ibans, balances, count);
+		}
+		synchronized (store) {
+			return store.addAccounts(ibans, balances, count);
+		}
+	}
+
+	@Override
+	public void deleteAccount(String iban) throws UnknownAccountException {
+		// Wait for a running flush, so that it cannot write to the account afterwards
+		synchronized (flushLock) {
+			synchronized (this) {
+				// Pending changes are dropped
+				window.remove(iban);
+				main.remove(iban);
+				storeDeleteAccount(iban);
+			}
+		}
+	}
+
+	@Override
+	public synchronized boolean containsAccount(String iban) {
+		return window.containsKey(iban) || main.containsKey(iban) || storeContainsAccount(iban);
+	}
+
+	@Override
+	public Set<String> listAccounts() {
+		// Accounts are added and deleted write-through, so the store knows all of them
+		if (store.isThreadSafe()) {
+			return store.listAccounts();
+		}
+		synchronized (store) {
+			return store.listAccounts();
+		}
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * @return number of cached accounts
+	 */
+	public synchronized int size() {
+		return window.size() + main.size();
+	}
+
+	/**
+	 * Writes all pending changes to the store with one {@link IDatabase#depositAll(Map, java.util.function.BiConsumer)}.
+	 * Changes of the same account are combined into one update.
+	 * If the write fails, the changes that the store did not apply are pending again.
+	 */
+	public void flush() {
+		synchronized (flushLock) {
+			Map<String, Double> amounts = new LinkedHashMap<String, Double>();
+			Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+			synchronized (this) {
+				collectPending(window, amounts, entries);
+				collectPending(main, amounts, entries);
+			}
+
+			Set<String> written = ConcurrentHashMap.newKeySet();
+			try {
+				writeBack(amounts, written);
+			} finally {
+				synchronized (this) {
+					settle(entries, written);
+					evict();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes all pending changes and takes the snapshot of the store, while no account can be changed.
+	 */
+	@Override
+	public AccountSnapshot snapshot() {
+		synchronized (flushLock) {
+			synchronized (this) {
+				Map<String, Double> amounts = new LinkedHashMap<String, Double>();
+				Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+				collectPending(window, amounts, entries);
+				collectPending(main, amounts, entries);
+
+				Set<String> written = ConcurrentHashMap.newKeySet();
+				try {
+					writeBack(amounts, written);
+				} finally {
+					settle(entries, written);
+				}
+
+				if (store.isThreadSafe()) {
+					return store.snapshot();
+				}
+				synchronized (store) {
+					return store.snapshot();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops the background flush, writes all pending changes and closes the store if it is {@link Closeable}.
+	 */
+	@Override
+	public void close() throws IOException {
+		flusher.shutdownNow();
+		flush();
+		if (store instanceof Closeable) {
+			((Closeable) store).close();
+		}
+	}
+
+	/**
+	 * Flushes the pending changes if they keep the cache from evicting enough accounts.
+	 * Called before taking the lock of the cache, because a flush takes the flush lock first.
+	 * If the store fails, the exception is thrown to the caller instead of letting the cache grow further.
+	 */
+	private void makeRoom() {
+		if (size() > maxSize) {
+			flush();
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (RuntimeException e) {
+			System.err.println("Warning: write-behind flush failed: " + e);
+		}
+	}
+
+	private static void collectPending(Map<String, Entry> area, Map<String, Double> amounts, Map<String, Entry> entries) {
+		for (Map.Entry<String, Entry> e : area.entrySet()) {
+			Entry entry = e.getValue();
+			if (entry.pending != 0) {
+				amounts.put(e.getKey(), entry.pending);
+				entries.put(e.getKey(), entry);
+				entry.flushing = entry.pending;
+				entry.pending = 0;
+			}
+		}
+	}
+
+	/**
+	 * Writes the amounts back, the store reports every account whose amount it applied or skipped.
+	 */
+	private void writeBack(Map<String, Double> amounts, Set<String> written) {
+		if (store.isThreadSafe()) {
+			store.depositAll(amounts, (iban, exists) -> written.add(iban));
+			return;
+		}
+		synchronized (store) {
+			store.depositAll(amounts, (iban, exists) -> written.add(iban));
+		}
+	}
+
+	/**
+	 * Finishes the write-back of the collected entries. The changes that were not written are pending again.
+	 */
+	private static void settle(Map<String, Entry> entries, Set<String> written) {
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			Entry entry = e.getValue();
+			if (!written.contains(e.getKey())) {
+				// retried by the next flush
+				entry.pending += entry.flushing;
+			}
+			entry.flushing = 0;
+		}
+	}
+
+	/**
+	 * Returns the cached entry of the account, loading it from the store if necessary.
+	 */
+	private Entry load(String iban) throws UnknownAccountException {
+		sketch.increment(iban);
+
+		Entry entry = window.get(iban);
+		if (entry == null) {
+			entry = main.get(iban);
+		}
+		if (entry == null) {
+			// Accounts that are not cached have no pending changes, so the store is up to date
+			entry = new Entry(storeGetBalance(iban));
+			// Make room first, so that the new entry cannot be evicted before the caller used it
+			evict();
+			window.put(iban, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Moves accounts out of the window and evicts the less frequently used of the candidate
+	 * and the main area's least recently used account. Accounts with pending changes stay.
+	 */
+	private void evict() {
+		while (window.size() >= windowSize) {
+			String candidate = eldestClean(window);
+			if (candidate == null) {
+				return;
+			}
+
+			Entry entry = window.remove(candidate);
+			if (main.size() < mainSize) {
+				main.put(candidate, entry);
+				continue;
+			}
+
+			String victim = eldestClean(main);
+			if (victim != null && sketch.frequency(candidate) > sketch.frequency(victim)) {
+				main.remove(victim);
+				main.put(candidate, entry);
+			}
+		}
+
+		while (main.size() > mainSize) {
+			String victim = eldestClean(main);
+			if (victim == null) {
+				return;
+			}
+			main.remove(victim);
+		}
+	}
+
+	private static String eldestClean(LinkedHashMap<String, Entry> area) {
+		Iterator<Map.Entry<String, Entry>> it = area.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Entry> e = it.next();
+			if (e.getValue().isClean()) {
+				return e.getKey();
+			}
+		}
+		return null;
+	}
+
+	private double storeGetBalance(String iban) throws UnknownAccountException {
+		if (store.isThreadSafe()) {
+			return store.getBalance(iban);
+		}
+		synchronized (store) {
+			return store.getBalance(iban);
+		}
+	}
+
+	private boolean storeContainsAccount(String iban) {
+		if (store.isThreadSafe()) {
+			return store.containsAccount(iban);
+		}
+		synchronized (store) {
+			return store.containsAccount(iban);
+		}
+	}
+
+	private void storeAddAccount(String iban, double balance) throws KnownAccountException {
+		if (store.isThreadSafe()) {
+			store.addAccount(iban, balance);
+			return;
+		}
+		synchronized (store) {
+			store.addAccount(iban, balance);
+		}
+	}
+
+	private void storeDeleteAccount(String iban) throws UnknownAccountException {
+		if (store.isThreadSafe()) {
+			store.deleteAccount(iban);
+			return;
+		}
+		synchronized (store) {
+			store.deleteAccount(iban);
+		}
+	}
+
+	/**
+	 * A cached account.
+	 */
+	private static class Entry {
+		double balance;
+		/**
+		 * Change of the balance that is not written to the store yet.
+		 */
+		double pending;
+		/**
+		 * Change of the balance that is being written to the store.
+		 */
+		double flushing;
+
+		Entry(double balance) {
+			this.balance = balance;
+		}
+
+		boolean isClean() {
+			return pending == 0 && flushing == 0;
+		}
+	}
+}
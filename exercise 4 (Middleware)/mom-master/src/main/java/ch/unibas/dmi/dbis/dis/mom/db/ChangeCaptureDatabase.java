@@ -0,0 +1,127 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeEvent.Type;
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * Decorator of an {@link IDatabase} that publishes every successful change of an account
+ * into a {@link ChangeRing}, so consumers like statements or fraud checks do not have to poll the balances.
+ * <br>
+ * Publishing does not take a lock, subscribers read the ring on their own threads.
+ * The events of one account are in the order of its changes if the changes are ordered by the caller,
+ * e.g. by the lock of a database that is not thread safe.
+ * {@link #depositAll(Map)} and {@link #addAccounts(String[], double[], int)} change the accounts one by one,
+ * so that an event is only published for accounts that were actually changed.
+ */
+public class ChangeCaptureDatabase implements IDatabase, Closeable {
+	private final IDatabase store;
+	private final ChangeRing changes;
+
+	/**
+	 * Creates a ring of {@value ChangeRing#DEFAULT_CAPACITY} events.
+	 *
+	 * @param store the captured database
+	 */
+	public ChangeCaptureDatabase(IDatabase store) {
+		this(store, ChangeRing.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param store the captured database
+	 * @param capacity number of events in the ring, a power of two
+	 */
+	public ChangeCaptureDatabase(IDatabase store, int capacity) {
+		this.store = store;
+		this.changes = new ChangeRing(capacity);
+	}
+
+	/**
+	 * @return the ring to subscribe to
+	 */
+	public ChangeRing getChanges() {
+		return changes;
+	}
+
+	@Override
+	public double getBalance(String iban) throws UnknownAccountException {
+		return store.getBalance(iban);
+	}
+
+	@Override
+	public void deposit(String iban, double amount) throws UnknownAccountException {
+		store.deposit(iban, amount);
+		changes.publish(Type.DEPOSIT, iban, amount);
+	}
+
+	@Override
+	public boolean depositIfExists(String iban, double amount) {
+		if (!store.depositIfExists(iban, amount)) {
+			return false;
+		}
+		changes.publish(Type.DEPOSIT, iban, amount);
+		return true;
+	}
+
+	@Override
+	public void withdraw(String iban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		store.withdraw(iban, amount);
+		changes.publish(Type.WITHDRAW, iban, amount);
+	}
+
+	@Override
+	public void transfer(String fromIban, String toIban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		store.transfer(fromIban, toIban, amount);
+		changes.publish(Type.WITHDRAW, fromIban, amount);
+		changes.publish(Type.DEPOSIT, toIban, amount);
+	}
+
+	@Override
+	public void addAccount(String iban, double balance) throws KnownAccountException {
+		store.addAccount(iban, balance);
+		changes.publish(Type.ADD, iban, balance);
+	}
+
+	@Override
+	public void deleteAccount(String iban) throws UnknownAccountException {
+		store.deleteAccount(iban);
+		changes.publish(Type.DELETE, iban, 0);
+	}
+
+	@Override
+	public Set<String> listAccounts() {
+		return store.listAccounts();
+	}
+
+	@Override
+	public boolean containsAccount(String iban) {
+		return store.containsAccount(iban);
+	}
+
+	@Override
+	public AccountSnapshot snapshot() {
+		return store.snapshot();
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return store.isThreadSafe();
+	}
+
+	/**
+	 * Closes the subscriptions after they handled all events and closes the store if it is {@link Closeable}.
+	 */
+	@Override
+	public void close() throws IOException {
+		changes.close();
+		if (store instanceof Closeable) {
+			((Closeable) store).close();
+		}
+	}
+}
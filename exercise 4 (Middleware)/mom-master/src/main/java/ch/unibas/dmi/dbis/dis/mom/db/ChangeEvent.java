@@ -0,0 +1,71 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+/**
+ * Change of an account published by a {@link ChangeCaptureDatabase}.
+ * <br>
+ * The events are the slots of a {@link ChangeRing} and are reused, a subscriber may only read them
+ * while it handles the batch that contains them.
+ */
+public class ChangeEvent {
+	/**
+	 * Kind of change.
+	 */
+	public enum Type {
+		/**
+		 * Amount was deposited.
+		 */
+		DEPOSIT,
+		/**
+		 * Amount was withdrawn.
+		 */
+		WITHDRAW,
+		/**
+		 * Account was added with the amount as its balance.
+		 */
+		ADD,
+		/**
+		 * Account was deleted, the amount is 0.
+		 */
+		DELETE
+	}
+
+	long sequence;
+	Type type;
+	String iban;
+	double amount;
+	long time;
+
+	/**
+	 * @return position of the event in the stream, starting with 0
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getIban() {
+		return iban;
+	}
+
+	/**
+	 * @return deposited or withdrawn amount or the initial balance of an added account
+	 */
+	public double getAmount() {
+		return amount;
+	}
+
+	/**
+	 * @return time of the change in ms since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + sequence + " " + type + " " + iban + ": " + amount + "]";
+	}
+}
@@ -0,0 +1,136 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeEvent.Type;
+
+/**
+ * {@link ChangeRing.Listener} that appends the events to a binary file.
+ * <br>
+ * Every batch is buffered and written at once. If a batch cannot be written, the part of it that was already
+ * written is cut off again, so that the batch can be retried without duplicating events. A record consists of
+ * the sequence, the time, the type, the amount and the length-prefixed UTF-8 iban of an event.
+ * {@link #read(File, Consumer)} replays a file and ignores a record that was only partially written.
+ */
+public class ChangeLogWriter implements ChangeRing.Listener, Closeable {
+	private static final int HEADER_SIZE = 8 + 8 + 1 + 8 + 2;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final boolean sync;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * Opens the file for appending, it is created if it does not exist.
+	 *
+	 * @param file the change log
+	 * @param sync if true, every batch is forced to the disk before the next one is handled
+	 * @throws IOException If the file cannot be opened
+	 */
+	public ChangeLogWriter(File file, boolean sync) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		this.sync = sync;
+	}
+
+	/**
+	 * @throws UncheckedIOException If the batch cannot be written
+	 */
+	@Override
+	public void onChanges(List<ChangeEvent> events) {
+		long start;
+		try {
+			start = channel.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		try {
+			for (ChangeEvent event : events) {
+				byte[] iban = event.iban.getBytes(StandardCharsets.UTF_8);
+				if (buffer.remaining() < HEADER_SIZE + iban.length) {
+					writeBuffer();
+					if (buffer.capacity() < HEADER_SIZE + iban.length) {
+						buffer = ByteBuffer.allocateDirect(HEADER_SIZE + iban.length);
+					}
+				}
+				buffer.putLong(event.sequence);
+				buffer.putLong(event.time);
+				buffer.put((byte) event.type.ordinal());
+				buffer.putDouble(event.amount);
+				buffer.putShort((short) iban.length);
+				buffer.put(iban);
+			}
+			writeBuffer();
+			if (sync) {
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			buffer.clear();
+			try {
+				channel.truncate(start);
+			} catch (IOException e1) {
+				e.addSuppressed(e1);
+			}
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Reads all complete events of a change log. The event passed to the consumer is reused.
+	 *
+	 * @param file the change log
+	 * @param consumer consumer of the events
+	 * @return number of events read
+	 * @throws IOException If the file cannot be read
+	 */
+	public static long read(File file, Consumer<ChangeEvent> consumer) throws IOException {
+		Type[] types = Type.values();
+		ChangeEvent event = new ChangeEvent();
+		long count = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+			while (true) {
+				try {
+					event.sequence = in.readLong();
+					event.time = in.readLong();
+					event.type = types[in.readByte()];
+					event.amount = in.readDouble();
+					byte[] iban = new byte[in.readUnsignedShort()];
+					in.readFully(iban);
+					event.iban = new String(iban, StandardCharsets.UTF_8);
+				} catch (EOFException e) {
+					// End of the file or a partially written record
+					break;
+				}
+				consumer.accept(event);
+				count++;
+			}
+		}
+		return count;
+	}
+}
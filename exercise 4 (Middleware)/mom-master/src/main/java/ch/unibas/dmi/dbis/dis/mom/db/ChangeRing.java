@@ -0,0 +1,317 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeEvent.Type;
+
+/**
+ * Lock-free ring buffer of {@link ChangeEvent}s with any number of publishers and subscribers.
+ * <br>
+ * A publisher claims the next sequence with one atomic increment, fills the preallocated event of that slot
+ * and marks the slot as published. It never takes a lock and never wakes a subscriber.
+ * It only waits if the ring is full, i.e. the slowest subscriber is a whole ring behind.
+ * <br>
+ * Every subscriber runs on its own thread. It polls the ring and hands all events that are published
+ * in a row to its {@link Listener} as one batch. An idle subscriber sleeps for
+ * {@value #IDLE_NANOS} ns between two polls.
+ * <br>
+ * A batch that the listener fails on is handed to it again, up to {@value #MAX_ATTEMPTS} times with a growing pause.
+ * If it still fails, the subscription stops instead of skipping the events,
+ * {@link Subscription#getFailure()} tells why.
+ */
+public class ChangeRing implements Closeable {
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	private static final long IDLE_NANOS = 100000;
+	private static final int MAX_ATTEMPTS = 5;
+	private static final long RETRY_PAUSE = 100;
+
+	private final ChangeEvent[] events;
+	/**
+	 * Sequence of the event in each slot, once it is completely written.
+	 */
+	private final AtomicLongArray published;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong();
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	/**
+	 * Cached minimum of the sequences handled by the subscribers, publishers can use slots up to a ring ahead of it.
+	 */
+	private volatile long gate = -1;
+
+	/**
+	 * Creates a ring of {@value #DEFAULT_CAPACITY} events.
+	 */
+	public ChangeRing() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity number of events, a power of two
+	 */
+	public ChangeRing(int capacity) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+		}
+
+		this.events = new ChangeEvent[capacity];
+		this.published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			events[i] = new ChangeEvent();
+			published.set(i, -1);
+		}
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Publishes an event.
+	 *
+	 * @param type kind of change
+	 * @param iban changed account
+	 * @param amount amount of the change, see {@link ChangeEvent#getAmount()}
+	 */
+	public void publish(Type type, String iban, double amount) {
+		long sequence = next.getAndIncrement();
+		long wrap = sequence - events.length;
+		if (wrap > gate) {
+			awaitSubscribers(wrap);
+		}
+
+		int index = (int) sequence & mask;
+		ChangeEvent event = events[index];
+		event.sequence = sequence;
+		event.type = type;
+		event.iban = iban;
+		event.amount = amount;
+		event.time = System.currentTimeMillis();
+		// Ordered after the writes of the event
+		published.lazySet(index, sequence);
+	}
+
+	/**
+	 * Subscribes to the events that are published from now on
+	 * with batches of up to {@value #DEFAULT_BATCH_SIZE} events.
+	 *
+	 * @param listener listener of the batches
+	 * @return the subscription
+	 */
+	public Subscription subscribe(Listener listener) {
+		return subscribe(listener, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Subscribes to the events that are published from now on.
+	 * The listener is called by the thread of the subscription and is closed with it if it is {@link Closeable}.
+	 *
+	 * @param listener listener of the batches
+	 * @param batchSize maximum number of events per batch
+	 * @return the subscription
+	 */
+	public Subscription subscribe(Listener listener, int batchSize) {
+		Subscription subscription = new Subscription(listener, Math.min(batchSize, events.length), next.get() - 1);
+		subscriptions.add(subscription);
+		subscription.thread.start();
+		return subscription;
+	}
+
+	/**
+	 * Closes all subscriptions after they handled the published events.
+	 */
+	@Override
+	public void close() {
+		for (Subscription subscription : subscriptions) {
+			subscription.close();
+		}
+	}
+
+	/**
+	 * Waits until all subscribers handled the event that was published a ring before.
+	 */
+	private void awaitSubscribers(long wrap) {
+		while (true) {
+			long min = Long.MAX_VALUE;
+			for (Subscription subscription : subscriptions) {
+				min = Math.min(min, subscription.sequence);
+			}
+			if (min == Long.MAX_VALUE) {
+				// Without subscribers, old events are simply overwritten
+				return;
+			}
+			if (wrap <= min) {
+				gate = min;
+				return;
+			}
+			LockSupport.parkNanos(IDLE_NANOS);
+		}
+	}
+
+	/**
+	 * Receives the published events in batches.
+	 */
+	public interface Listener {
+		/**
+		 * Handles a batch of events in the order they were published.
+		 * The events are reused after this method returns.
+		 * If this method throws, it is called again with the same batch, so it should not leave a partial batch behind.
+		 *
+		 * @param events batch of events
+		 */
+		public void onChanges(List<ChangeEvent> events);
+	}
+
+	/**
+	 * Subscription of a listener with its own thread.
+	 */
+	public class Subscription implements Closeable {
+		private final Listener listener;
+		private final int batchSize;
+		private final Thread thread;
+		private final Batch batch = new Batch();
+		/**
+		 * Sequence of the last handled event.
+		 */
+		private volatile long sequence;
+		private volatile boolean running = true;
+		private volatile RuntimeException failure;
+
+		private Subscription(Listener listener, int batchSize, long sequence) {
+			this.listener = listener;
+			this.batchSize = batchSize;
+			this.sequence = sequence;
+			this.thread = new Thread(this::run, "change subscriber");
+			this.thread.setDaemon(true);
+		}
+
+		/**
+		 * @return sequence of the last event handled by the listener, -1 if there was none
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return the exception the listener failed on, if the subscription stopped because of it, otherwise null
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Stops the subscription after the listener handled all published events
+		 * and closes the listener if it is {@link Closeable}.
+		 */
+		@Override
+		public void close() {
+			running = false;
+			LockSupport.unpark(thread);
+			if (Thread.currentThread() != thread) {
+				boolean interrupted = false;
+				while (thread.isAlive()) {
+					try {
+						thread.join();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			subscriptions.remove(this);
+		}
+
+		private void run() {
+			while (true) {
+				// Read the flag first, so that events published before close are handled
+				boolean stopping = !running;
+				long first = sequence + 1;
+				long last = first - 1;
+				while (last - first + 1 < batchSize && published.get((int) (last + 1) & mask) == last + 1) {
+					last++;
+				}
+
+				if (last < first) {
+					if (stopping) {
+						break;
+					}
+					LockSupport.parkNanos(IDLE_NANOS);
+					continue;
+				}
+
+				batch.first = first;
+				batch.size = (int) (last - first + 1);
+				if (!handle(first, last)) {
+					System.err.println("Error: change listener failed on events " + first + " to " + last
+							+ ", stopping its subscription: " + failure);
+					// Publishers must not wait for a stopped subscriber
+					subscriptions.remove(this);
+					break;
+				}
+				sequence = last;
+			}
+
+			if (listener instanceof Closeable) {
+				try {
+					((Closeable) listener).close();
+				} catch (IOException e) {
+					System.err.println("Warning: could not close change listener: " + e);
+				}
+			}
+		}
+
+		/**
+		 * Hands the batch to the listener until it succeeds or failed {@value #MAX_ATTEMPTS} times.
+		 *
+		 * @return true, if the listener handled the batch
+		 */
+		private boolean handle(long first, long last) {
+			for (int attempt = 1; ; attempt++) {
+				try {
+					listener.onChanges(batch);
+					return true;
+				} catch (RuntimeException e) {
+					if (attempt == MAX_ATTEMPTS) {
+						failure = e;
+						return false;
+					}
+					System.err.println("Warning: change listener failed on events " + first + " to " + last
+							+ ", retrying: " + e);
+					try {
+						Thread.sleep(RETRY_PAUSE << (attempt - 1));
+					} catch (InterruptedException e1) {
+						failure = e;
+						return false;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * View of consecutive slots of the ring.
+	 */
+	private class Batch extends AbstractList<ChangeEvent> {
+		private long first;
+		private int size;
+
+		@Override
+		public ChangeEvent get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return events[(int) (first + index) & mask];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link AccountSnapshot} that holds a copy of all accounts.
+ */
+class CopiedSnapshot implements AccountSnapshot {
+	private static final int PARTITION_SIZE = 1 << 16;
+
+	private final String[] ibans;
+	private final double[] balances;
+	private final int size;
+	private final AtomicIntegerArray visited;
+
+	/**
+	 * @param ibans account identifiers, the arrays are not copied
+	 * @param balances balances of the accounts
+	 * @param size number of accounts in the arrays
+	 */
+	CopiedSnapshot(String[] ibans, double[] balances, int size) {
+		this.ibans = ibans;
+		this.balances = balances;
+		this.size = size;
+		this.visited = new AtomicIntegerArray(Math.max(1, (size + PARTITION_SIZE - 1) / PARTITION_SIZE));
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public int getPartitionCount() {
+		return visited.length();
+	}
+
+	@Override
+	public void forEach(int partition, Visitor visitor) {
+		if (!visited.compareAndSet(partition, 0, 1)) {
+			throw new IllegalStateException("Partition " + partition + " was read before");
+		}
+
+		int end = Math.min(size, (partition + 1) * PARTITION_SIZE);
+		for (int i = partition * PARTITION_SIZE; i < end; i++) {
+			visitor.visit(ibans[i], balances[i]);
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,79 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+/**
+ * Approximate access frequencies of keys (count-min sketch with four rows of small counters),
+ * used by {@link CachingDatabase} to decide which accounts are worth caching (TinyLFU).
+ * <br>
+ * All counters are halved after a number of increments proportional to the cache size,
+ * so that frequencies of the past fade and the sketch follows changing access patterns.
+ * Not thread safe.
+ */
+class FrequencySketch {
+	private static final int ROWS = 4;
+	private static final int MAX_COUNT = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0xb7e15163, 0x9e3779b9, 0xc13fa9a9 };
+
+	private final int[] table;
+	private final int mask;
+	private final int sampleSize;
+	private int increments;
+
+	/**
+	 * @param maxSize number of keys the cache holds
+	 */
+	FrequencySketch(int maxSize) {
+		int width = Integer.highestOneBit(Math.max(maxSize, 16) - 1) << 1;
+		this.table = new int[ROWS * width];
+		this.mask = width - 1;
+		this.sampleSize = 10 * Math.max(maxSize, 16);
+	}
+
+	/**
+	 * @return estimated number of recent accesses of the key, at most {@value #MAX_COUNT}
+	 */
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int row = 0; row < ROWS; row++) {
+			frequency = Math.min(frequency, table[indexOf(hash, row)]);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records an access of the key.
+	 */
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean incremented = false;
+		for (int row = 0; row < ROWS; row++) {
+			int index = indexOf(hash, row);
+			if (table[index] < MAX_COUNT) {
+				table[index]++;
+				incremented = true;
+			}
+		}
+
+		if (incremented && ++increments == sampleSize) {
+			reset();
+		}
+	}
+
+	private void reset() {
+		for (int i = 0; i < table.length; i++) {
+			table[i] >>>= 1;
+		}
+		increments /= 2;
+	}
+
+	private int indexOf(int hash, int row) {
+		int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+		return row * (mask + 1) + ((h ^ (h >>> 16)) & mask);
+	}
+
+	private static int spread(int h) {
+		h ^= h >>> 16;
+		h *= 0x45d9f3b;
+		return h ^ (h >>> 16);
+	}
+}
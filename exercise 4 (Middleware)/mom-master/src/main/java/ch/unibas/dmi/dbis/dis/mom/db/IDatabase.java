@@ -1,6 +1,9 @@
 package ch.unibas.dmi.dbis.dis.mom.db;
 
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.function.BiConsumer;
 
 import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
 import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
@@ -44,6 +47,28 @@ public interface IDatabase {
 	 */
 	public void withdraw( String iban, double amount ) throws UnknownAccountException, AccountOverdrawException;
 	
+	/**
+	 * Moves the amount from one account to another, so that no other operation sees only one of the changes.
+	 * Neither account is changed if the transfer fails.
+	 * The default implementation withdraws and deposits, giving the amount back if the deposit fails.
+	 * It is only atomic if the caller holds the lock of a database that is not thread safe.
+	 * 
+	 * @param fromIban account to withdraw from
+	 * @param toIban account to deposit to
+	 * @param amount amount to transfer
+	 * @throws UnknownAccountException If one of the accounts does not exist
+	 * @throws AccountOverdrawException If {@code fromIban} has less than {@code amount} balance
+	 */
+	public default void transfer( String fromIban, String toIban, double amount ) throws UnknownAccountException, AccountOverdrawException {
+		withdraw(fromIban, amount);
+		try {
+			deposit(toIban, amount);
+		} catch (UnknownAccountException e) {
+			depositIfExists(fromIban, amount);
+			throw e;
+		}
+	}
+	
 	/**
 	 * Adds an account to the database with a given balance.
 	 * 
@@ -53,6 +78,28 @@ public interface IDatabase {
 	 */
 	public void addAccount( String iban, double balance ) throws KnownAccountException;
 	
+	/**
+	 * Adds the first {@code count} accounts of the arrays, skipping accounts that already exist.
+	 * Used to load many accounts at once, implementations may add them in one batch.
+	 * 
+	 * @param ibans account identifiers
+	 * @param balances initial balances of the accounts
+	 * @param count number of accounts to add
+	 * @return number of added accounts
+	 */
+	public default int addAccounts( String[] ibans, double[] balances, int count ) {
+		int added = 0;
+		for (int i = 0; i < count; i++) {
+			try {
+				addAccount(ibans[i], balances[i]);
+				added++;
+			} catch (KnownAccountException e) {
+				// skip
+			}
+		}
+		return added;
+	}
+	
 	/**
 	 * Removes an account from the database.
 	 * 
@@ -65,4 +112,96 @@ public interface IDatabase {
 	 * @return the set of all existing account identifiers
 	 */
 	public Set<String> listAccounts();
+	
+	/**
+	 * Checks if an account exists.
+	 * The default implementation copies all account identifiers,
+	 * implementations should override it with a direct lookup.
+	 * 
+	 * @param iban account identifier
+	 * @return true, if the account exists
+	 */
+	public default boolean containsAccount( String iban ) {
+		return listAccounts().contains(iban);
+	}
+	
+	/**
+	 * Deposits the specified amount on the specified account if the account exists.
+	 * In contrast to checking {@link #containsAccount(String)} before {@link #deposit(String, double)},
+	 * the check and the deposit happen in one step.
+	 * 
+	 * @param iban account identifier
+	 * @param amount amount to deposit
+	 * @return true, if the account exists and the amount was deposited
+	 */
+	public default boolean depositIfExists( String iban, double amount ) {
+		try {
+			deposit(iban, amount);
+			return true;
+		} catch (UnknownAccountException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Adds each amount to the balance of its account without checking for overdraws,
+	 * negative amounts are subtracted. Unknown accounts are skipped.
+	 * Used to write back balance changes that were already checked, e.g. by a cache.
+	 * Implementations may write all changes in one batch.
+	 * 
+	 * @param amounts amount to add per account identifier
+	 */
+	public default void depositAll( Map<String, Double> amounts ) {
+		depositAll(amounts, (iban, exists) -> {});
+	}
+	
+	/**
+	 * Adds each amount to the balance of its account like {@link #depositAll(Map)} and reports every account
+	 * once its amount was added or skipped. If it fails, exactly the reported amounts were applied,
+	 * so the caller can retry the others without adding an amount twice.
+	 * The default implementation deposits the amounts one by one.
+	 * 
+	 * @param amounts amount to add per account identifier
+	 * @param done receives the account identifier and whether the account exists, it may be called by other threads
+	 */
+	public default void depositAll( Map<String, Double> amounts, BiConsumer<String, Boolean> done ) {
+		for (Entry<String, Double> e : amounts.entrySet()) {
+			done.accept(e.getKey(), depositIfExists(e.getKey(), e.getValue()));
+		}
+	}
+	
+	/**
+	 * Takes a consistent point-in-time view of all accounts.
+	 * The default implementation copies all balances one by one, so it is only consistent
+	 * if the database is not changed meanwhile: callers of a database that is not thread safe
+	 * hold its monitor. Implementations override it with a cheaper or concurrent mechanism.
+	 * 
+	 * @return the snapshot
+	 */
+	public default AccountSnapshot snapshot() {
+		Set<String> accounts = listAccounts();
+		String[] ibans = new String[accounts.size()];
+		double[] balances = new double[accounts.size()];
+		int size = 0;
+		for (String iban : accounts) {
+			try {
+				balances[size] = getBalance(iban);
+				ibans[size++] = iban;
+			} catch (UnknownAccountException e) {
+				// deleted meanwhile
+			}
+		}
+		return new CopiedSnapshot(ibans, balances, size);
+	}
+	
+	/**
+	 * Tells whether the database may be used by several threads at the same time
+	 * without external synchronization.
+	 * Callers synchronize on the database object if this returns false.
+	 * 
+	 * @return true, if all methods are thread safe
+	 */
+	public default boolean isThreadSafe() {
+		return false;
+	}
 }
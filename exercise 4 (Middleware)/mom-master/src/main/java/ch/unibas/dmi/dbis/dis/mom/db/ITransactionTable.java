@@ -61,4 +61,19 @@ public interface ITransactionTable {
 	 * @return Set of entries in the table. The set contains all ids and their transaction. 
 	 */
 	public Set<Entry<String, Transaction>> list();
+	
+	/**
+	 * Returns the transactions that started before a point in time, i.e. the ones that expired.
+	 * This is called periodically while many transactions may be in flight,
+	 * so implementations should only create objects for the returned transactions.
+	 * The default implementation filters {@link #list()}.
+	 * 
+	 * @param time time in ms
+	 * @return Set of the ids and transactions whose start time is before {@code time}
+	 */
+	public default Set<Entry<String, Transaction>> listStartedBefore(long time) {
+		Set<Entry<String, Transaction>> entries = list();
+		entries.removeIf(e -> e.getValue().startTime >= time);
+		return entries;
+	}
 }
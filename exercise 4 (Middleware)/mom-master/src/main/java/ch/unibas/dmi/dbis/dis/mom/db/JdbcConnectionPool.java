@@ -0,0 +1,137 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small fixed-size pool of JDBC connections to an embedded database.
+ * All connections are opened up front, callers borrow one for the duration of a {@link SqlCall}.
+ * Every connection keeps its prepared statements, see {@link #prepare(Connection, String)},
+ * so a statement is only parsed and planned once per connection.
+ */
+class JdbcConnectionPool implements Closeable {
+	static final int DEFAULT_SIZE = 4;
+
+	private final List<Connection> connections = new ArrayList<Connection>();
+	private final BlockingQueue<Connection> idle;
+	/**
+	 * Prepared statements per connection, only touched by the caller that borrowed the connection.
+	 */
+	private final Map<Connection, Map<String, PreparedStatement>> statements = new IdentityHashMap<Connection, Map<String, PreparedStatement>>();
+
+	/**
+	 * @param url JDBC url of the database
+	 * @param size number of connections
+	 * @throws SQLException If a connection cannot be opened
+	 */
+	JdbcConnectionPool(String url, int size) throws SQLException {
+		this.idle = new ArrayBlockingQueue<Connection>(size);
+		try {
+			for (int i = 0; i < size; i++) {
+				Connection connection = DriverManager.getConnection(url);
+				connections.add(connection);
+				statements.put(connection, new HashMap<String, PreparedStatement>());
+				idle.add(connection);
+			}
+		} catch (SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the call with a connection of the pool, waiting for a free connection if necessary.
+	 * The connection must be in auto-commit mode again when the call returns.
+	 *
+	 * @param call the statements to run
+	 * @return the result of the call
+	 * @throws SQLException If the call fails or the waiting thread is interrupted
+	 */
+	<R> R execute(SqlCall<R> call) throws SQLException {
+		Connection connection;
+		try {
+			connection = idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+
+		try {
+			return call.apply(connection);
+		} finally {
+			idle.add(connection);
+		}
+	}
+
+	/**
+	 * Returns the prepared statement of a borrowed connection, it is prepared on first use.
+	 * The statement stays open until the pool is closed, so the caller must not close it.
+	 * Its parameters are kept from the previous call and have to be set again.
+	 *
+	 * @param connection connection that was passed to the running {@link SqlCall}
+	 * @param sql the statement
+	 * @return the prepared statement without pending batch
+	 * @throws SQLException If the statement cannot be prepared
+	 */
+	PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+		Map<String, PreparedStatement> prepared = statements.get(connection);
+		PreparedStatement statement = prepared.get(sql);
+		if (statement == null) {
+			statement = connection.prepareStatement(sql);
+			prepared.put(sql, statement);
+		}
+		else {
+			// A call that failed while adding a batch may have left it behind
+			statement.clearBatch();
+		}
+		return statement;
+	}
+
+	/**
+	 * Runs the call within a transaction: it is committed if the call returns and rolled back if it fails.
+	 */
+	<R> R executeInTransaction(SqlCall<R> call) throws SQLException {
+		return execute(connection -> {
+			connection.setAutoCommit(false);
+			try {
+				R result = call.apply(connection);
+				connection.commit();
+				return result;
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+		});
+	}
+
+	/**
+	 * Closes the connections together with their prepared statements.
+	 */
+	@Override
+	public void close() {
+		for (Connection connection : connections) {
+			try {
+				connection.close();
+			} catch (SQLException e) {}
+		}
+	}
+
+	/**
+	 * Statements that run on a borrowed connection.
+	 */
+	interface SqlCall<R> {
+		R apply(Connection connection) throws SQLException;
+	}
+}
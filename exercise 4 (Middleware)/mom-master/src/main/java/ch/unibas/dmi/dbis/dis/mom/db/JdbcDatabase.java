@@ -0,0 +1,349 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.exception.PersistenceException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * {@link IDatabase} that stores the accounts in an embedded SQL database (H2 by default).
+ * <br>
+ * Every operation is a single statement, prepared once per pooled connection, so the checks happen
+ * in the database: a withdraw is one {@code UPDATE ... WHERE balance >= ?} and a deposit on an
+ * unknown account simply updates no row. {@link #depositAll(Map)} and {@link #addAccounts(String[], double[], int)}
+ * write all changes in one JDBC batch.
+ * Storage errors are reported as {@link PersistenceException}.
+ */
+public class JdbcDatabase implements IDatabase, Closeable {
+	private static final String CREATE_TABLE =
+			"CREATE TABLE IF NOT EXISTS accounts (iban VARCHAR(64) PRIMARY KEY, balance DOUBLE NOT NULL)";
+	private static final String SELECT_BALANCE = "SELECT balance FROM accounts WHERE iban = ?";
+	private static final String SELECT_IBANS = "SELECT iban FROM accounts";
+	private static final String SELECT_ALL = "SELECT iban, balance FROM accounts";
+	private static final String DEPOSIT = "UPDATE accounts SET balance = balance + ? WHERE iban = ?";
+	private static final String WITHDRAW = "UPDATE accounts SET balance = balance - ? WHERE iban = ? AND balance >= ?";
+	private static final String INSERT = "INSERT INTO accounts (iban, balance) VALUES (?, ?)";
+	private static final String INSERT_IF_ABSENT = "INSERT INTO accounts (iban, balance) "
+			+ "SELECT ?, ? FROM DUAL WHERE NOT EXISTS (SELECT 1 FROM accounts WHERE iban = ?)";
+	private static final String DELETE = "DELETE FROM accounts WHERE iban = ?";
+	/**
+	 * SQL state class of integrity constraint violations, e.g. a duplicate primary key.
+	 */
+	private static final String CONSTRAINT_VIOLATION = "23";
+	private static final int TRANSFERRED = 0;
+	private static final int NOT_WITHDRAWN = 1;
+	private static final int UNKNOWN_TARGET = 2;
+
+	private final String bic;
+	private final JdbcConnectionPool pool;
+
+	/**
+	 * Returns the url of the embedded H2 database file {@code <bic>.mv.db} in the working directory,
+	 * which holds the accounts and the transactions of a bank.
+	 *
+	 * @param bic bank identifier
+	 * @return JDBC url
+	 */
+	public static String urlOf(String bic) {
+		return "jdbc:h2:./" + bic;
+	}
+
+	/**
+	 * Opens the database and creates the account table if necessary.
+	 *
+	 * @param bic bank identifier, used for exceptions
+	 * @param url JDBC url of the database
+	 * @throws PersistenceException If the database cannot be opened
+	 */
+	public JdbcDatabase(String bic, String url) {
+		this.bic = bic;
+		try {
+			this.pool = new JdbcConnectionPool(url, JdbcConnectionPool.DEFAULT_SIZE);
+			pool.execute(connection -> {
+				try (Statement statement = connection.createStatement()) {
+					return statement.executeUpdate(CREATE_TABLE);
+				}
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not open the database " + url, e);
+		}
+	}
+
+	@Override
+	public double getBalance(String iban) throws UnknownAccountException {
+		Double balance = query(iban);
+		if (balance == null) {
+			throw new UnknownAccountException(this.bic, iban);
+		}
+		return balance;
+	}
+
+	@Override
+	public void deposit(String iban, double amount) throws UnknownAccountException {
+		if (!depositIfExists(iban, amount)) {
+			throw new UnknownAccountException(this.bic, iban);
+		}
+	}
+
+	@Override
+	public boolean depositIfExists(String iban, double amount) {
+		return update(DEPOSIT, amount, iban) == 1;
+	}
+
+	@Override
+	public void depositAll(Map<String, Double> amounts) {
+		depositAll(amounts, (iban, exists) -> {});
+	}
+
+	/**
+	 * The batch runs in one transaction, so the accounts are only reported after it was committed.
+	 */
+	@Override
+	public void depositAll(Map<String, Double> amounts, BiConsumer<String, Boolean> done) {
+		if (amounts.isEmpty()) {
+			return;
+		}
+
+		List<String> ibans = new ArrayList<String>(amounts.keySet());
+		int[] counts;
+		try {
+			counts = pool.executeInTransaction(connection -> {
+				PreparedStatement statement = pool.prepare(connection, DEPOSIT);
+				for (String iban : ibans) {
+					statement.setDouble(1, amounts.get(iban));
+					statement.setString(2, iban);
+					statement.addBatch();
+				}
+				return statement.executeBatch();
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not update " + amounts.size() + " accounts", e);
+		}
+		for (int i = 0; i < counts.length; i++) {
+			// Drivers may report success without a row count
+			done.accept(ibans.get(i), counts[i] != 0);
+		}
+	}
+
+	@Override
+	public void withdraw(String iban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		if (update(WITHDRAW, amount, iban, amount) == 1) {
+			return;
+		}
+
+		// Nothing was updated, find out why
+		if (query(iban) == null) {
+			throw new UnknownAccountException(this.bic, iban);
+		}
+		throw new AccountOverdrawException(iban);
+	}
+
+	/**
+	 * Updates both accounts in one transaction. The rows are updated in the order of their ibans,
+	 * so that opposite transfers cannot deadlock.
+	 */
+	@Override
+	public void transfer(String fromIban, String toIban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		int status;
+		try {
+			status = pool.executeInTransaction(connection -> {
+				PreparedStatement withdraw = pool.prepare(connection, WITHDRAW);
+				PreparedStatement deposit = pool.prepare(connection, DEPOSIT);
+				withdraw.setDouble(1, amount);
+				withdraw.setString(2, fromIban);
+				withdraw.setDouble(3, amount);
+				deposit.setDouble(1, amount);
+				deposit.setString(2, toIban);
+
+				boolean withdrawFirst = fromIban.compareTo(toIban) <= 0;
+				if (withdrawFirst && withdraw.executeUpdate() == 0) {
+					return NOT_WITHDRAWN;
+				}
+				if (deposit.executeUpdate() == 0) {
+					connection.rollback();
+					return UNKNOWN_TARGET;
+				}
+				if (!withdrawFirst && withdraw.executeUpdate() == 0) {
+					connection.rollback();
+					return NOT_WITHDRAWN;
+				}
+				return TRANSFERRED;
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not transfer from " + fromIban + " to " + toIban, e);
+		}
+
+		if (status == UNKNOWN_TARGET) {
+			throw new UnknownAccountException(this.bic, toIban);
+		}
+		if (status == NOT_WITHDRAWN) {
+			if (query(fromIban) == null) {
+				throw new UnknownAccountException(this.bic, fromIban);
+			}
+			throw new AccountOverdrawException(fromIban);
+		}
+	}
+
+	@Override
+	public void addAccount(String iban, double balance) throws KnownAccountException {
+		try {
+			pool.execute(connection -> {
+				PreparedStatement statement = pool.prepare(connection, INSERT);
+				statement.setString(1, iban);
+				statement.setDouble(2, balance);
+				return statement.executeUpdate();
+			});
+		} catch (SQLException e) {
+			if (e.getSQLState() != null && e.getSQLState().startsWith(CONSTRAINT_VIOLATION)) {
+				throw new KnownAccountException(iban);
+			}
+			throw new PersistenceException("Could not add account " + iban, e);
+		}
+	}
+
+	/**
+	 * Adds the accounts with one JDBC batch in one transaction.
+	 */
+	@Override
+	public int addAccounts(String[] ibans, double[] balances, int count) {
+		if (count == 0) {
+			return 0;
+		}
+
+		try {
+			int[] results = pool.executeInTransaction(connection -> {
+				PreparedStatement statement = pool.prepare(connection, INSERT_IF_ABSENT);
+				for (int i = 0; i < count; i++) {
+					statement.setString(1, ibans[i]);
+					statement.setDouble(2, balances[i]);
+					statement.setString(3, ibans[i]);
+					statement.addBatch();
+				}
+				return statement.executeBatch();
+			});
+
+			int added = 0;
+			for (int result : results) {
+				added += result;
+			}
+			return added;
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not add " + count + " accounts", e);
+		}
+	}
+
+	@Override
+	public void deleteAccount(String iban) throws UnknownAccountException {
+		if (update(DELETE, iban) == 0) {
+			throw new UnknownAccountException(this.bic, iban);
+		}
+	}
+
+	@Override
+	public Set<String> listAccounts() {
+		try {
+			return pool.execute(connection -> {
+				Set<String> accounts = new HashSet<String>();
+				try (Statement statement = connection.createStatement();
+						ResultSet rs = statement.executeQuery(SELECT_IBANS)) {
+					while (rs.next()) {
+						accounts.add(rs.getString(1));
+					}
+				}
+				return accounts;
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not list the accounts", e);
+		}
+	}
+
+	/**
+	 * Copies all accounts with a single query, which reads one consistent state of the table.
+	 */
+	@Override
+	public AccountSnapshot snapshot() {
+		try {
+			return pool.execute(connection -> {
+				List<String> ibans = new ArrayList<String>();
+				double[] balances = new double[16];
+				try (Statement statement = connection.createStatement();
+						ResultSet rs = statement.executeQuery(SELECT_ALL)) {
+					while (rs.next()) {
+						if (ibans.size() == balances.length) {
+							balances = Arrays.copyOf(balances, 2 * balances.length);
+						}
+						balances[ibans.size()] = rs.getDouble(2);
+						ibans.add(rs.getString(1));
+					}
+				}
+				return new CopiedSnapshot(ibans.toArray(new String[ibans.size()]), balances, ibans.size());
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not read the accounts", e);
+		}
+	}
+
+	@Override
+	public boolean containsAccount(String iban) {
+		return query(iban) != null;
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	/**
+	 * @return the balance or null if the account does not exist
+	 */
+	private Double query(String iban) {
+		try {
+			return pool.execute(connection -> {
+				PreparedStatement statement = pool.prepare(connection, SELECT_BALANCE);
+				statement.setString(1, iban);
+				try (ResultSet rs = statement.executeQuery()) {
+					return rs.next() ? rs.getDouble(1) : null;
+				}
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not read account " + iban, e);
+		}
+	}
+
+	/**
+	 * Executes an update statement whose parameters are numbers and account identifiers.
+	 *
+	 * @return number of updated rows
+	 */
+	private int update(String sql, Object... parameters) {
+		try {
+			return pool.execute(connection -> {
+				PreparedStatement statement = pool.prepare(connection, sql);
+				for (int i = 0; i < parameters.length; i++) {
+					statement.setObject(i + 1, parameters[i]);
+				}
+				return statement.executeUpdate();
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not execute " + sql, e);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.PersistenceException;
+import ch.unibas.dmi.dbis.dis.mom.exception.TransactionExistsException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownTransactionException;
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * Transaction table that stores the transactions in an embedded SQL database,
+ * usually the same one as the {@link JdbcDatabase} of the bank.
+ * Every operation is a single statement, prepared once per pooled connection.
+ * Storage errors are reported as {@link PersistenceException}.
+ */
+public class JdbcTransactionTable extends TransactionTable implements Closeable {
+	private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS transactions "
+			+ "(id VARCHAR(64) PRIMARY KEY, iban VARCHAR(64), amount DOUBLE NOT NULL, start_time BIGINT NOT NULL)";
+	private static final String SELECT = "SELECT iban, amount, start_time FROM transactions WHERE id = ?";
+	private static final String CREATE_INDEX = "CREATE INDEX IF NOT EXISTS transactions_start ON transactions (start_time)";
+	private static final String SELECT_ALL = "SELECT id, iban, amount, start_time FROM transactions";
+	private static final String SELECT_STARTED_BEFORE = SELECT_ALL + " WHERE start_time < ?";
+	private static final String INSERT = "INSERT INTO transactions (id, iban, amount, start_time) VALUES (?, ?, ?, ?)";
+	private static final String DELETE = "DELETE FROM transactions WHERE id = ?";
+	private static final String CONSTRAINT_VIOLATION = "23";
+
+	private final JdbcConnectionPool pool;
+
+	/**
+	 * Opens the database and creates the table if necessary.
+	 *
+	 * @param bic bank identifier, used to generate transaction ids
+	 * @param url JDBC url of the database, see {@link JdbcDatabase#urlOf(String)}
+	 * @throws PersistenceException If the database cannot be opened
+	 */
+	public JdbcTransactionTable(String bic, String url) {
+		this(bic, configuredNode(bic), url);
+	}
+
+	/**
+	 * Opens the database and creates the table if necessary.
+	 *
+	 * @param bic bank identifier, used to generate transaction ids
+	 * @param node number of this server among the servers of the bank, see {@link TransactionIdGenerator}
+	 * @param url JDBC url of the database, see {@link JdbcDatabase#urlOf(String)}
+	 * @throws PersistenceException If the database cannot be opened
+	 */
+	public JdbcTransactionTable(String bic, int node, String url) {
+		super(bic, node);
+		try {
+			this.pool = new JdbcConnectionPool(url, JdbcConnectionPool.DEFAULT_SIZE);
+			pool.execute(connection -> {
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate(CREATE_TABLE);
+					return statement.executeUpdate(CREATE_INDEX);
+				}
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not open the transaction table " + url, e);
+		}
+	}
+
+	@Override
+	public void put(String id, Transaction tx) throws TransactionExistsException {
+		try {
+			pool.execute(connection -> {
+				PreparedStatement statement = pool.prepare(connection, INSERT);
+				statement.setString(1, id);
+				statement.setString(2, tx.iban);
+				statement.setDouble(3, tx.amount);
+				statement.setLong(4, tx.startTime);
+				return statement.executeUpdate();
+			});
+		} catch (SQLException e) {
+			if (e.getSQLState() != null && e.getSQLState().startsWith(CONSTRAINT_VIOLATION)) {
+				throw new TransactionExistsException(id, query(id));
+			}
+			throw new PersistenceException("Could not insert transaction " + id, e);
+		}
+	}
+
+	@Override
+	public Transaction get(String id) throws UnknownTransactionException {
+		Transaction tx = query(id);
+		if (tx == null) {
+			throw new UnknownTransactionException(id);
+		}
+		return tx;
+	}
+
+	@Override
+	public void remove(String id) throws UnknownTransactionException {
+		int removed;
+		try {
+			removed = pool.execute(connection -> {
+				PreparedStatement statement = pool.prepare(connection, DELETE);
+				statement.setString(1, id);
+				return statement.executeUpdate();
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not remove transaction " + id, e);
+		}
+
+		if (removed == 0) {
+			throw new UnknownTransactionException(id);
+		}
+	}
+
+	@Override
+	public boolean containsId(String id) {
+		return query(id) != null;
+	}
+
+	@Override
+	public Set<Entry<String, Transaction>> list() {
+		try {
+			return pool.execute(connection -> {
+				Set<Entry<String, Transaction>> entries = new HashSet<Entry<String, Transaction>>();
+				try (Statement statement = connection.createStatement();
+						ResultSet rs = statement.executeQuery(SELECT_ALL)) {
+					while (rs.next()) {
+						entries.add(new SimpleImmutableEntry<String, Transaction>(rs.getString(1),
+								toTransaction(rs.getString(2), rs.getDouble(3), rs.getLong(4))));
+					}
+				}
+				return entries;
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not list the transactions", e);
+		}
+	}
+
+	/**
+	 * Selects the transactions by the index on their start time.
+	 */
+	@Override
+	public Set<Entry<String, Transaction>> listStartedBefore(long time) {
+		try {
+			return pool.execute(connection -> {
+				Set<Entry<String, Transaction>> entries = new HashSet<Entry<String, Transaction>>();
+				PreparedStatement statement = pool.prepare(connection, SELECT_STARTED_BEFORE);
+				statement.setLong(1, time);
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						entries.add(new SimpleImmutableEntry<String, Transaction>(rs.getString(1),
+								toTransaction(rs.getString(2), rs.getDouble(3), rs.getLong(4))));
+					}
+				}
+				return entries;
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not list the expired transactions", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	/**
+	 * @return the transaction or null if it does not exist
+	 */
+	private Transaction query(String id) {
+		try {
+			return pool.execute(connection -> {
+				PreparedStatement statement = pool.prepare(connection, SELECT);
+				statement.setString(1, id);
+				try (ResultSet rs = statement.executeQuery()) {
+					return rs.next() ? toTransaction(rs.getString(1), rs.getDouble(2), rs.getLong(3)) : null;
+				}
+			});
+		} catch (SQLException e) {
+			throw new PersistenceException("Could not read transaction " + id, e);
+		}
+	}
+
+	private static Transaction toTransaction(String iban, double amount, long startTime) {
+		Transaction tx = new Transaction(iban, amount);
+		tx.startTime = startTime;
+		return tx;
+	}
+}
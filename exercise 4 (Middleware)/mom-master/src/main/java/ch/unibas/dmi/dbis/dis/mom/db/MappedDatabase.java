@@ -0,0 +1,766 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * {@link IDatabase} that keeps all accounts off the heap in a memory-mapped file.
+ * The file holds an open-addressing hash table of fixed-size slots, one per account,
+ * so the index does not have to be rebuilt when the database is opened again:
+ * a restarted bank server finds its accounts as soon as the file is mapped.
+ * Changes are written directly into the mapped pages and persisted by the operating system,
+ * {@link #close()} forces them to disk.
+ * <br>
+ * Every slot is guarded by one of {@value #STRIPES} striped {@link StampedLock}s, so operations on different accounts
+ * run in parallel. Balances are read optimistically: {@link #getBalance(String)} reads the slot without locking
+ * and only retries under the read lock if a writer changed the stripe meanwhile, so balance queries
+ * do not wait for deposits and withdrawals. Adding and deleting accounts is serialized.
+ * <br>
+ * {@link #snapshot()} works copy-on-write: while a snapshot is open, the first write to a page of
+ * {@value #PAGE_SLOTS} slots copies the page for the snapshot, so writers only pay for pages
+ * that the snapshot did not read yet.
+ * <br>
+ * A deleted account leaves a tombstone, so that the probe sequences of other accounts stay intact.
+ * Tombstones count towards the load factor: when they and the accounts fill it, the table is cleaned in place
+ * by moving every account to the first free slot of its probe sequence and emptying all tombstones,
+ * so that lookups of absent accounts still end at an empty slot after heavy churn.
+ * <br>
+ * The capacity is fixed when the file is created. Account identifiers may be at most
+ * {@value #MAX_IBAN_LENGTH} bytes long in UTF-8.
+ */
+public class MappedDatabase implements IDatabase, Closeable {
+	/**
+	 * Default number of slots of a new database file (64 MiB).
+	 */
+	public static final long DEFAULT_CAPACITY = 1 << 20;
+	public static final int MAX_IBAN_LENGTH = 46;
+	private static final double MAX_LOAD_FACTOR = 0.75;
+	private static final int STRIPES = 1024;
+	private static final int PAGE_SLOTS = 1024;
+
+	private static final int MAGIC = 0x4d4f4d44;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_VERSION = 4;
+	private static final int HEADER_CAPACITY = 8;
+	private static final int HEADER_SIZE_FIELD = 16;
+	private static final int HEADER_TOMBSTONES = 24;
+
+	// Layout of a slot
+	private static final int SLOT_SIZE = 64;
+	private static final int SLOT_STATE = 0;
+	private static final int SLOT_HASH = 4;
+	private static final int SLOT_BALANCE = 8;
+	private static final int SLOT_IBAN_LENGTH = 16;
+	private static final int SLOT_IBAN = 18;
+
+	private static final byte EMPTY = 0;
+	private static final byte USED = 1;
+	private static final byte DELETED = 2;
+
+	/**
+	 * Slots are mapped in segments of 1 GiB because a single mapping is limited to 2 GiB.
+	 */
+	private static final int SEGMENT_SHIFT = 24;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private final String bic;
+	private final RandomAccessFile file;
+	private final MappedByteBuffer header;
+	private final MappedByteBuffer[] segments;
+	private final long capacity;
+	private final long mask;
+	private final StampedLock[] locks = new StampedLock[STRIPES];
+	private final Object structureLock = new Object();
+	/**
+	 * Write locked while the tombstones are purged, which moves accounts between slots.
+	 * A lookup that misses an account validates against it, so it does not miss an account that was being moved.
+	 */
+	private final StampedLock tableLock = new StampedLock();
+	private long size;
+	private long tombstones;
+	private volatile PageSnapshot activeSnapshot;
+
+	/**
+	 * Opens the database file or creates it with the given capacity if it does not exist yet.
+	 *
+	 * @param bic bank identifier, used for exceptions
+	 * @param path database file
+	 * @param capacity number of slots of a new database file, rounded up to a power of two.
+	 * 	Ignored if the file exists already.
+	 * @throws IOException If the file cannot be opened or is no valid database file
+	 */
+	public MappedDatabase(String bic, File path, long capacity) throws IOException {
+		this.bic = bic;
+		boolean exists = path.exists() && path.length() > 0;
+		this.file = new RandomAccessFile(path, "rw");
+
+		try {
+			FileChannel channel = file.getChannel();
+			if (exists) {
+				this.header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+				if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != VERSION) {
+					throw new IOException(path + " is no database file of version " + VERSION);
+				}
+				this.capacity = header.getLong(HEADER_CAPACITY);
+				this.size = header.getLong(HEADER_SIZE_FIELD);
+				this.tombstones = header.getLong(HEADER_TOMBSTONES);
+			}
+			else {
+				this.capacity = Long.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+				file.setLength(HEADER_SIZE + this.capacity * SLOT_SIZE);
+				this.header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+				header.putInt(HEADER_MAGIC, MAGIC);
+				header.putInt(HEADER_VERSION, VERSION);
+				header.putLong(HEADER_CAPACITY, this.capacity);
+				header.putLong(HEADER_SIZE_FIELD, 0);
+				header.putLong(HEADER_TOMBSTONES, 0);
+				this.size = 0;
+			}
+
+			this.mask = this.capacity - 1;
+			int segmentCount = (int) ((this.capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+			this.segments = new MappedByteBuffer[segmentCount];
+			for (int i = 0; i < segmentCount; i++) {
+				long first = (long) i << SEGMENT_SHIFT;
+				long slots = Math.min(this.capacity - first, 1L << SEGMENT_SHIFT);
+				segments[i] = channel.map(MapMode.READ_WRITE, HEADER_SIZE + first * SLOT_SIZE, slots * SLOT_SIZE);
+			}
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new StampedLock();
+		}
+	}
+
+	/**
+	 * @return number of slots, i.e. the maximum number of accounts
+	 */
+	public long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of slots of deleted accounts that were neither reused nor purged yet
+	 */
+	public long getTombstones() {
+		synchronized (structureLock) {
+			return tombstones;
+		}
+	}
+
+	@Override
+	public double getBalance(String iban) throws UnknownAccountException {
+		Key key = new Key(iban);
+		while (true) {
+			long slot = find(key);
+			if (slot < 0) {
+				throw new UnknownAccountException(this.bic, iban);
+			}
+
+			StampedLock lock = lockOf(slot);
+			long stamp = lock.tryOptimisticRead();
+			boolean found = matches(slot, key);
+			double balance = readBalance(slot);
+			if (!lock.validate(stamp)) {
+				// A writer changed the stripe meanwhile, read again while holding the lock
+				stamp = lock.readLock();
+				try {
+					found = matches(slot, key);
+					balance = readBalance(slot);
+				} finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			if (found) {
+				return balance;
+			}
+		}
+	}
+
+	@Override
+	public void deposit(String iban, double amount) throws UnknownAccountException {
+		if (!depositIfExists(iban, amount)) {
+			throw new UnknownAccountException(this.bic, iban);
+		}
+	}
+
+	@Override
+	public boolean depositIfExists(String iban, double amount) {
+		Key key = new Key(iban);
+		while (true) {
+			long slot = find(key);
+			if (slot < 0) {
+				return false;
+			}
+
+			StampedLock lock = lockOf(slot);
+			long stamp = lock.writeLock();
+			try {
+				if (matches(slot, key)) {
+					preserve(slot);
+					writeBalance(slot, readBalance(slot) + amount);
+					return true;
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	@Override
+	public void withdraw(String iban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		Key key = new Key(iban);
+		while (true) {
+			long slot = find(key);
+			if (slot < 0) {
+				throw new UnknownAccountException(this.bic, iban);
+			}
+
+			StampedLock lock = lockOf(slot);
+			long stamp = lock.writeLock();
+			try {
+				if (matches(slot, key)) {
+					double oldBalance = readBalance(slot);
+					if (oldBalance < amount) {
+						throw new AccountOverdrawException(iban);
+					}
+
+					preserve(slot);
+					writeBalance(slot, oldBalance - amount);
+					return;
+				}
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Locks the stripes of both accounts in ascending order, so that opposite transfers cannot deadlock.
+	 */
+	@Override
+	public void transfer(String fromIban, String toIban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		Key from = new Key(fromIban);
+		Key to = new Key(toIban);
+		while (true) {
+			long fromSlot = find(from);
+			if (fromSlot < 0) {
+				throw new UnknownAccountException(this.bic, fromIban);
+			}
+			long toSlot = find(to);
+			if (toSlot < 0) {
+				throw new UnknownAccountException(this.bic, toIban);
+			}
+
+			StampedLock first = lockOf(Math.min(fromSlot & (STRIPES - 1), toSlot & (STRIPES - 1)));
+			StampedLock second = lockOf(Math.max(fromSlot & (STRIPES - 1), toSlot & (STRIPES - 1)));
+			long firstStamp = first.writeLock();
+			long secondStamp = second != first ? second.writeLock() : 0;
+			try {
+				if (matches(fromSlot, from) && matches(toSlot, to)) {
+					double fromBalance = readBalance(fromSlot);
+					if (fromBalance < amount) {
+						throw new AccountOverdrawException(fromIban);
+					}
+
+					preserve(fromSlot);
+					writeBalance(fromSlot, fromBalance - amount);
+					preserve(toSlot);
+					writeBalance(toSlot, readBalance(toSlot) + amount);
+					return;
+				}
+			} finally {
+				if (second != first) {
+					second.unlockWrite(secondStamp);
+				}
+				first.unlockWrite(firstStamp);
+			}
+		}
+	}
+
+	@Override
+	public void addAccount(String iban, double balance) throws KnownAccountException {
+		Key key = new Key(iban);
+		synchronized (structureLock) {
+			if (!insert(key, balance)) {
+				throw new KnownAccountException(iban);
+			}
+		}
+	}
+
+	/**
+	 * Encodes and hashes the identifiers before taking the structure lock once for the whole batch.
+	 */
+	@Override
+	public int addAccounts(String[] ibans, double[] balances, int count) {
+		Key[] keys = new Key[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = new Key(ibans[i]);
+		}
+
+		int added = 0;
+		synchronized (structureLock) {
+			for (int i = 0; i < count; i++) {
+				if (insert(keys[i], balances[i])) {
+					added++;
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Inserts an account, the structure lock must be held.
+	 *
+	 * @return false, if the account exists already
+	 */
+	private boolean insert(Key key, double balance) {
+		if (find(key) >= 0) {
+			return false;
+		}
+		if (size + 1 > capacity * MAX_LOAD_FACTOR) {
+			throw new IllegalStateException("Database of bank " + bic + " is full (capacity " + capacity + ")");
+		}
+		if (size + tombstones + 1 > capacity * MAX_LOAD_FACTOR) {
+			purgeTombstones();
+		}
+
+		// Reuse the first free slot, the account does not exist further down the probe sequence
+		long slot = key.hash & mask;
+		while (state(slot) == USED) {
+			slot = (slot + 1) & mask;
+		}
+		if (state(slot) == DELETED) {
+			header.putLong(HEADER_TOMBSTONES, --tombstones);
+		}
+
+		StampedLock lock = lockOf(slot);
+		long stamp = lock.writeLock();
+		try {
+			MappedByteBuffer segment = segmentOf(slot);
+			int offset = offsetOf(slot);
+			preserve(slot);
+			segment.putInt(offset + SLOT_HASH, key.hash);
+			segment.putLong(offset + SLOT_BALANCE, Double.doubleToRawLongBits(balance));
+			segment.putShort(offset + SLOT_IBAN_LENGTH, (short) key.bytes.length);
+			for (int i = 0; i < key.bytes.length; i++) {
+				segment.put(offset + SLOT_IBAN + i, key.bytes[i]);
+			}
+			// Publish the slot last
+			segment.put(offset + SLOT_STATE, USED);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+
+		header.putLong(HEADER_SIZE_FIELD, ++size);
+		return true;
+	}
+
+	@Override
+	public void deleteAccount(String iban) throws UnknownAccountException {
+		Key key = new Key(iban);
+		synchronized (structureLock) {
+			long slot = find(key);
+			if (slot < 0) {
+				throw new UnknownAccountException(this.bic, iban);
+			}
+
+			StampedLock lock = lockOf(slot);
+			long stamp = lock.writeLock();
+			try {
+				// Keep a tombstone, so that probe sequences running across this slot stay intact
+				preserve(slot);
+				segmentOf(slot).put(offsetOf(slot) + SLOT_STATE, DELETED);
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+
+			header.putLong(HEADER_SIZE_FIELD, --size);
+			header.putLong(HEADER_TOMBSTONES, ++tombstones);
+		}
+	}
+
+	/**
+	 * Moves every account to the first slot of its probe sequence that is not used by another account
+	 * and empties all tombstones afterwards. The structure lock must be held.
+	 * <br>
+	 * The slots are visited in probe order, starting after an empty slot, so an account is only moved into
+	 * a tombstone that precedes it, and the slot it leaves lies behind all accounts that were visited before.
+	 * Afterwards, the probe sequence of every account consists of used slots only, so no tombstone is needed anymore.
+	 * An account is copied to its new slot before its old slot becomes a tombstone, so it can always be found.
+	 */
+	private void purgeTombstones() {
+		long tableStamp = tableLock.writeLock();
+		long[] stamps = lockAllStripes();
+		try {
+			long start = 0;
+			while (start < mask && state(start) != EMPTY) {
+				start++;
+			}
+
+			for (long i = 1; i <= capacity; i++) {
+				long slot = (start + i) & mask;
+				if (state(slot) != USED) {
+					continue;
+				}
+
+				long target = segmentOf(slot).getInt(offsetOf(slot) + SLOT_HASH) & mask;
+				while (target != slot && state(target) == USED) {
+					target = (target + 1) & mask;
+				}
+				if (target != slot) {
+					move(slot, target);
+				}
+			}
+
+			for (long slot = 0; slot < capacity; slot++) {
+				if (state(slot) == DELETED) {
+					preserve(slot);
+					segmentOf(slot).put(offsetOf(slot) + SLOT_STATE, EMPTY);
+				}
+			}
+			header.putLong(HEADER_TOMBSTONES, tombstones = 0);
+		} finally {
+			unlockAllStripes(stamps);
+			tableLock.unlockWrite(tableStamp);
+		}
+	}
+
+	/**
+	 * Copies an account into a tombstone and leaves a tombstone in its old slot.
+	 */
+	private void move(long from, long to) {
+		preserve(from);
+		preserve(to);
+		MappedByteBuffer source = segmentOf(from);
+		MappedByteBuffer target = segmentOf(to);
+		int sourceOffset = offsetOf(from);
+		int targetOffset = offsetOf(to);
+		for (int i = SLOT_STATE + 1; i < SLOT_SIZE; i++) {
+			target.put(targetOffset + i, source.get(sourceOffset + i));
+		}
+		target.put(targetOffset + SLOT_STATE, USED);
+		source.put(sourceOffset + SLOT_STATE, DELETED);
+	}
+
+	@Override
+	public Set<String> listAccounts() {
+		Set<String> accounts = new HashSet<String>();
+		for (long slot = 0; slot < capacity; slot++) {
+			if (state(slot) != USED) {
+				continue;
+			}
+
+			StampedLock lock = lockOf(slot);
+			long stamp = lock.readLock();
+			try {
+				if (state(slot) == USED) {
+					accounts.add(readIban(slot));
+				}
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return accounts;
+	}
+
+	@Override
+	public boolean containsAccount(String iban) {
+		return find(new Key(iban)) >= 0;
+	}
+
+	/**
+	 * Opens a copy-on-write snapshot. Only one snapshot can be open at a time.
+	 * Every page of the snapshot is one partition.
+	 *
+	 * @throws IllegalStateException If another snapshot is open
+	 */
+	@Override
+	public AccountSnapshot snapshot() {
+		synchronized (structureLock) {
+			if (activeSnapshot != null) {
+				throw new IllegalStateException("Another snapshot of bank " + bic + " is open");
+			}
+
+			// Wait for running writers, all later writers see the snapshot
+			long[] stamps = lockAllStripes();
+			try {
+				activeSnapshot = new PageSnapshot(size);
+			} finally {
+				unlockAllStripes(stamps);
+			}
+			return activeSnapshot;
+		}
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * Waits for running writers, forces all changes to disk and closes the file.
+	 * The mapping itself is only released when the buffers are garbage-collected.
+	 * The database must not be used afterwards.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (structureLock) {
+			long tableStamp = tableLock.writeLock();
+			long[] stamps = lockAllStripes();
+			try {
+				header.force();
+				for (MappedByteBuffer segment : segments) {
+					segment.force();
+				}
+				file.close();
+			} finally {
+				unlockAllStripes(stamps);
+				tableLock.unlockWrite(tableStamp);
+			}
+		}
+	}
+
+	private long[] lockAllStripes() {
+		long[] stamps = new long[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stamps[i] = locks[i].writeLock();
+		}
+		return stamps;
+	}
+
+	private void unlockAllStripes(long[] stamps) {
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i].unlockWrite(stamps[i]);
+		}
+	}
+
+	/**
+	 * Copies the page of the slot for the open snapshot if it was not copied or read yet.
+	 * Must be called while holding the slot's write lock, before the slot is changed.
+	 */
+	private void preserve(long slot) {
+		PageSnapshot snapshot = activeSnapshot;
+		if (snapshot != null) {
+			snapshot.preserve((int) (slot / snapshot.pageSlots));
+		}
+	}
+
+	/**
+	 * Searches the slot of an account without locking.
+	 * The result has to be verified with {@link #matches(long, Key)} while holding the slot's lock
+	 * or within a validated optimistic read.
+	 *
+	 * @return the slot or -1 if the account does not exist
+	 */
+	private long find(Key key) {
+		long stamp = tableLock.tryOptimisticRead();
+		long slot = probe(key);
+		if (slot < 0 && !tableLock.validate(stamp)) {
+			// The tombstones were purged meanwhile, the account may have been moved past the probe
+			stamp = tableLock.readLock();
+			try {
+				slot = probe(key);
+			} finally {
+				tableLock.unlockRead(stamp);
+			}
+		}
+		return slot;
+	}
+
+	private long probe(Key key) {
+		long slot = key.hash & mask;
+		for (long probes = 0; probes < capacity; probes++) {
+			byte state = state(slot);
+			if (state == EMPTY) {
+				return -1;
+			}
+			if (state == USED && matches(slot, key)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares a slot with an account identifier.
+	 * Safe to call on a slot that is being written: the comparison never reads past the slot.
+	 */
+	private boolean matches(long slot, Key key) {
+		MappedByteBuffer segment = segmentOf(slot);
+		int offset = offsetOf(slot);
+		if (segment.get(offset + SLOT_STATE) != USED
+				|| segment.getInt(offset + SLOT_HASH) != key.hash
+				|| segment.getShort(offset + SLOT_IBAN_LENGTH) != key.bytes.length) {
+			return false;
+		}
+
+		for (int i = 0; i < key.bytes.length; i++) {
+			if (segment.get(offset + SLOT_IBAN + i) != key.bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte state(long slot) {
+		return segmentOf(slot).get(offsetOf(slot) + SLOT_STATE);
+	}
+
+	private double readBalance(long slot) {
+		return Double.longBitsToDouble(segmentOf(slot).getLong(offsetOf(slot) + SLOT_BALANCE));
+	}
+
+	private void writeBalance(long slot, double balance) {
+		segmentOf(slot).putLong(offsetOf(slot) + SLOT_BALANCE, Double.doubleToRawLongBits(balance));
+	}
+
+	private String readIban(long slot) {
+		MappedByteBuffer segment = segmentOf(slot);
+		int offset = offsetOf(slot);
+		byte[] bytes = new byte[segment.getShort(offset + SLOT_IBAN_LENGTH)];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = segment.get(offset + SLOT_IBAN + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private StampedLock lockOf(long slot) {
+		return locks[(int) (slot & (STRIPES - 1))];
+	}
+
+	private MappedByteBuffer segmentOf(long slot) {
+		return segments[(int) (slot >>> SEGMENT_SHIFT)];
+	}
+
+	private static int offsetOf(long slot) {
+		return (int) (slot & SEGMENT_MASK) * SLOT_SIZE;
+	}
+
+	/**
+	 * Snapshot that reads the pages of the mapped file, or their copies if they were changed after the snapshot was taken.
+	 */
+	private class PageSnapshot implements AccountSnapshot {
+		/**
+		 * Marks pages that were read and do not have to be copied anymore.
+		 */
+		private final ByteBuffer visited = ByteBuffer.allocate(0);
+		private final long accounts;
+		private final int pageSlots = (int) Math.min(PAGE_SLOTS, capacity);
+		private final AtomicReferenceArray<ByteBuffer> pages = new AtomicReferenceArray<ByteBuffer>((int) (capacity / pageSlots));
+		private final Object[] pageLocks = new Object[STRIPES];
+
+		PageSnapshot(long accounts) {
+			this.accounts = accounts;
+			for (int i = 0; i < STRIPES; i++) {
+				pageLocks[i] = new Object();
+			}
+		}
+
+		void preserve(int page) {
+			if (pages.get(page) == null) {
+				synchronized (pageLocks[page & (STRIPES - 1)]) {
+					if (pages.get(page) == null) {
+						pages.set(page, copy(page));
+					}
+				}
+			}
+		}
+
+		private ByteBuffer copy(int page) {
+			long first = (long) page * pageSlots;
+			ByteBuffer source = segmentOf(first).duplicate();
+			source.position(offsetOf(first));
+			source.limit(offsetOf(first) + pageSlots * SLOT_SIZE);
+
+			ByteBuffer copy = ByteBuffer.allocate(pageSlots * SLOT_SIZE);
+			copy.put(source);
+			return copy;
+		}
+
+		@Override
+		public long size() {
+			return accounts;
+		}
+
+		@Override
+		public int getPartitionCount() {
+			return pages.length();
+		}
+
+		@Override
+		public void forEach(int partition, Visitor visitor) {
+			ByteBuffer page;
+			synchronized (pageLocks[partition & (STRIPES - 1)]) {
+				page = pages.get(partition);
+				if (page == visited) {
+					throw new IllegalStateException("Partition " + partition + " was read before");
+				}
+				if (page == null) {
+					page = copy(partition);
+				}
+				pages.set(partition, visited);
+			}
+
+			for (int offset = 0; offset < page.capacity(); offset += SLOT_SIZE) {
+				if (page.get(offset + SLOT_STATE) == USED) {
+					byte[] bytes = new byte[page.getShort(offset + SLOT_IBAN_LENGTH)];
+					for (int i = 0; i < bytes.length; i++) {
+						bytes[i] = page.get(offset + SLOT_IBAN + i);
+					}
+					visitor.visit(new String(bytes, StandardCharsets.UTF_8),
+							Double.longBitsToDouble(page.getLong(offset + SLOT_BALANCE)));
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			synchronized (structureLock) {
+				if (activeSnapshot == this) {
+					activeSnapshot = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The encoded account identifier and its hash.
+	 */
+	private static class Key {
+		final byte[] bytes;
+		final int hash;
+
+		Key(String iban) {
+			this.bytes = iban.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > MAX_IBAN_LENGTH) {
+				throw new IllegalArgumentException("Account identifier " + iban + " is longer than " + MAX_IBAN_LENGTH + " bytes");
+			}
+
+			int h = iban.hashCode();
+			this.hash = (h ^ (h >>> 16)) * 0x9E3779B9;
+		}
+	}
+}
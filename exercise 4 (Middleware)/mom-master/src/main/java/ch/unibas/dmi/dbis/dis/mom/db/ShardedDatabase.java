@@ -0,0 +1,512 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * In-memory {@link IDatabase} whose accounts are hash-partitioned into shards.
+ * Every shard is owned by a single thread, which is the only one that touches the shard's accounts.
+ * Callers do not lock anything: they append commands to the shard's lock-free command queue
+ * and the owner executes them one after the other.
+ * <br>
+ * The asynchronous methods ({@link #depositAsync(String, double)} and the like) return immediately,
+ * their futures are completed on the owner thread, so callbacks attached to them must not block.
+ * The methods of {@link IDatabase} wait for the result of their command.
+ * <br>
+ * Commands that need several shards at once, a transfer between shards and {@link #snapshot()}, pause the owners
+ * of all their shards at a barrier. They are enqueued in the same order on every shard, so two of them never wait for each other.
+ */
+public class ShardedDatabase implements IDatabase, Closeable {
+	private final String bic;
+	private final Shard[] shards;
+	/**
+	 * Held while the commands of a barrier are enqueued on their shards.
+	 */
+	private final Object barriers = new Object();
+
+	/**
+	 * Creates a database with one shard per available processor.
+	 *
+	 * @param bic bank identifier, used for exceptions
+	 */
+	public ShardedDatabase(String bic) {
+		this(bic, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param bic bank identifier, used for exceptions
+	 * @param shardCount number of shards and owner threads
+	 */
+	public ShardedDatabase(String bic, int shardCount) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("At least one shard is required");
+		}
+
+		this.bic = bic;
+		this.shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(new SimpleDatabase(bic), "shard " + i + " of " + bic);
+		}
+	}
+
+	/**
+	 * @param iban account identifier
+	 * @return index of the shard that owns the account
+	 */
+	public int shardOf(String iban) {
+		int h = iban.hashCode();
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % shards.length;
+	}
+
+	/**
+	 * @return number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Deposits the amount if the account exists.
+	 *
+	 * @param iban account identifier
+	 * @param amount amount to deposit
+	 * @return future that completes with true, if the account exists and the amount was deposited
+	 */
+	public CompletableFuture<Boolean> depositAsync(String iban, double amount) {
+		return submit(iban, db -> db.depositIfExists(iban, amount));
+	}
+
+	/**
+	 * Withdraws the amount.
+	 *
+	 * @param iban account identifier
+	 * @param amount amount to withdraw
+	 * @return future that completes with the new balance or exceptionally with an
+	 * 	{@link UnknownAccountException} or {@link AccountOverdrawException}
+	 */
+	public CompletableFuture<Double> withdrawAsync(String iban, double amount) {
+		return submit(iban, db -> {
+			db.withdraw(iban, amount);
+			return db.getBalance(iban);
+		});
+	}
+
+	/**
+	 * @param iban account identifier
+	 * @return future that completes with the balance or exceptionally with an {@link UnknownAccountException}
+	 */
+	public CompletableFuture<Double> getBalanceAsync(String iban) {
+		return submit(iban, db -> db.getBalance(iban));
+	}
+
+	@Override
+	public double getBalance(String iban) throws UnknownAccountException {
+		try {
+			return await(getBalanceAsync(iban));
+		} catch (CompletionException e) {
+			throwIf(e, UnknownAccountException.class);
+			throw unexpected(e);
+		}
+	}
+
+	@Override
+	public void deposit(String iban, double amount) throws UnknownAccountException {
+		if (!depositIfExists(iban, amount)) {
+			throw new UnknownAccountException(this.bic, iban);
+		}
+	}
+
+	@Override
+	public boolean depositIfExists(String iban, double amount) {
+		try {
+			return await(depositAsync(iban, amount));
+		} catch (CompletionException e) {
+			throw unexpected(e);
+		}
+	}
+
+	@Override
+	public void withdraw(String iban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		try {
+			await(withdrawAsync(iban, amount));
+		} catch (CompletionException e) {
+			throwIf(e, UnknownAccountException.class);
+			throwIf(e, AccountOverdrawException.class);
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * A transfer between accounts of the same shard is one command.
+	 * Between shards, the owner of the target shard is paused at a barrier
+	 * while the owner of the source shard changes both accounts, so no other command sees only one of the changes.
+	 */
+	@Override
+	public void transfer(String fromIban, String toIban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		int from = shardOf(fromIban);
+		int to = shardOf(toIban);
+		try {
+			if (from == to) {
+				await(shards[from].submit(db -> {
+					db.transfer(fromIban, toIban, amount);
+					return null;
+				}));
+				return;
+			}
+
+			CountDownLatch paused = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(1);
+			IDatabase target = shards[to].accounts;
+			CompletableFuture<Void> result;
+			synchronized (barriers) {
+				CompletableFuture<Void> pause = shards[to].submit(db -> {
+					paused.countDown();
+					done.await();
+					return null;
+				});
+				// Releases the source owner if the target shard is closed
+				pause.whenComplete((r, e) -> paused.countDown());
+				result = shards[from].submit(db -> {
+					try {
+						paused.await();
+						if (pause.isCompletedExceptionally()) {
+							pause.join();
+						}
+						if (!target.containsAccount(toIban)) {
+							throw new UnknownAccountException(this.bic, toIban);
+						}
+						db.withdraw(fromIban, amount);
+						target.deposit(toIban, amount);
+						return null;
+					} finally {
+						done.countDown();
+					}
+				});
+			}
+			try {
+				await(result);
+			} finally {
+				// Releases the target owner if the command of the source shard failed without running
+				done.countDown();
+			}
+		} catch (CompletionException e) {
+			throwIf(e, UnknownAccountException.class);
+			throwIf(e, AccountOverdrawException.class);
+			throw unexpected(e);
+		}
+	}
+
+	@Override
+	public void addAccount(String iban, double balance) throws KnownAccountException {
+		try {
+			await(submit(iban, db -> {
+				db.addAccount(iban, balance);
+				return null;
+			}));
+		} catch (CompletionException e) {
+			throwIf(e, KnownAccountException.class);
+			throw unexpected(e);
+		}
+	}
+
+	/**
+	 * Splits the accounts by shard and adds each part with one command.
+	 */
+	@Override
+	public int addAccounts(String[] ibans, double[] balances, int count) {
+		int[] sizes = new int[shards.length];
+		int[] owners = new int[count];
+		for (int i = 0; i < count; i++) {
+			owners[i] = shardOf(ibans[i]);
+			sizes[owners[i]]++;
+		}
+
+		String[][] shardIbans = new String[shards.length][];
+		double[][] shardBalances = new double[shards.length][];
+		for (int s = 0; s < shards.length; s++) {
+			shardIbans[s] = new String[sizes[s]];
+			shardBalances[s] = new double[sizes[s]];
+			sizes[s] = 0;
+		}
+		for (int i = 0; i < count; i++) {
+			int s = owners[i];
+			shardIbans[s][sizes[s]] = ibans[i];
+			shardBalances[s][sizes[s]++] = balances[i];
+		}
+
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Integer>[] results = new CompletableFuture[shards.length];
+		for (int s = 0; s < shards.length; s++) {
+			String[] part = shardIbans[s];
+			double[] partBalances = shardBalances[s];
+			results[s] = shards[s].submit(db -> db.addAccounts(part, partBalances, part.length));
+		}
+
+		int added = 0;
+		try {
+			for (CompletableFuture<Integer> result : results) {
+				added += await(result);
+			}
+		} catch (CompletionException e) {
+			throw unexpected(e);
+		}
+		return added;
+	}
+
+	@Override
+	public void depositAll(Map<String, Double> amounts) {
+		depositAll(amounts, (iban, exists) -> {});
+	}
+
+	/**
+	 * Splits the amounts by shard and deposits each part with one command.
+	 * The accounts are reported by the owner threads of their shards.
+	 */
+	@Override
+	public void depositAll(Map<String, Double> amounts, BiConsumer<String, Boolean> done) {
+		List<Map<String, Double>> parts = new ArrayList<Map<String, Double>>(shards.length);
+		for (int s = 0; s < shards.length; s++) {
+			parts.add(new HashMap<String, Double>());
+		}
+		for (Entry<String, Double> e : amounts.entrySet()) {
+			parts.get(shardOf(e.getKey())).put(e.getKey(), e.getValue());
+		}
+
+		List<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+		for (int s = 0; s < shards.length; s++) {
+			Map<String, Double> part = parts.get(s);
+			if (!part.isEmpty()) {
+				results.add(shards[s].submit(db -> {
+					db.depositAll(part, done);
+					return null;
+				}));
+			}
+		}
+
+		try {
+			for (CompletableFuture<Void> result : results) {
+				await(result);
+			}
+		} catch (CompletionException e) {
+			throw unexpected(e);
+		}
+	}
+
+	@Override
+	public void deleteAccount(String iban) throws UnknownAccountException {
+		try {
+			await(submit(iban, db -> {
+				db.deleteAccount(iban);
+				return null;
+			}));
+		} catch (CompletionException e) {
+			throwIf(e, UnknownAccountException.class);
+			throw unexpected(e);
+		}
+	}
+
+	@Override
+	public boolean containsAccount(String iban) {
+		try {
+			return await(submit(iban, db -> db.containsAccount(iban)));
+		} catch (CompletionException e) {
+			throw unexpected(e);
+		}
+	}
+
+	@Override
+	public Set<String> listAccounts() {
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Set<String>>[] lists = new CompletableFuture[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			lists[i] = shards[i].submit(IDatabase::listAccounts);
+		}
+
+		Set<String> accounts = new HashSet<String>();
+		try {
+			for (CompletableFuture<Set<String>> list : lists) {
+				accounts.addAll(await(list));
+			}
+		} catch (CompletionException e) {
+			throw unexpected(e);
+		}
+		return accounts;
+	}
+
+	/**
+	 * Stops all shards at a barrier, so that every shard copies its accounts at the same point in the command streams.
+	 * Afterwards the shards continue while the snapshot is read.
+	 */
+	@Override
+	public AccountSnapshot snapshot() {
+		CountDownLatch barrier = new CountDownLatch(shards.length);
+		@SuppressWarnings("unchecked")
+		CompletableFuture<AccountSnapshot>[] parts = new CompletableFuture[shards.length];
+		synchronized (barriers) {
+			for (int i = 0; i < shards.length; i++) {
+				parts[i] = shards[i].submit(db -> {
+					barrier.countDown();
+					barrier.await();
+					return db.snapshot();
+				});
+			}
+		}
+
+		List<String> ibans = new ArrayList<String>();
+		double[] balances = new double[0];
+		try {
+			for (CompletableFuture<AccountSnapshot> part : parts) {
+				AccountSnapshot snapshot = await(part);
+				int offset = ibans.size();
+				balances = Arrays.copyOf(balances, offset + (int) snapshot.size());
+				double[] target = balances;
+				snapshot.forEach((iban, balance) -> {
+					target[ibans.size()] = balance;
+					ibans.add(iban);
+				});
+			}
+		} catch (CompletionException e) {
+			throw unexpected(e);
+		}
+		return new CopiedSnapshot(ibans.toArray(new String[ibans.size()]), balances, ibans.size());
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * Stops the owner threads. Commands that were not executed yet fail with an {@link IllegalStateException}.
+	 */
+	@Override
+	public void close() {
+		for (Shard shard : shards) {
+			shard.stop();
+		}
+	}
+
+	private <R> CompletableFuture<R> submit(String iban, Operation<R> operation) {
+		return shards[shardOf(iban)].submit(operation);
+	}
+
+	private static <R> R await(CompletableFuture<R> future) {
+		return future.join();
+	}
+
+	private static <E extends Exception> void throwIf(CompletionException e, Class<E> type) throws E {
+		if (type.isInstance(e.getCause())) {
+			throw type.cast(e.getCause());
+		}
+	}
+
+	private static RuntimeException unexpected(CompletionException e) {
+		if (e.getCause() instanceof RuntimeException) {
+			return (RuntimeException) e.getCause();
+		}
+		return e;
+	}
+
+	/**
+	 * A command executed by the owner of a shard on the shard's accounts.
+	 */
+	private interface Operation<R> {
+		R apply(IDatabase accounts) throws Exception;
+	}
+
+	private static class Command<R> {
+		final Operation<R> operation;
+		final CompletableFuture<R> result = new CompletableFuture<R>();
+
+		Command(Operation<R> operation) {
+			this.operation = operation;
+		}
+
+		void execute(IDatabase accounts) {
+			try {
+				result.complete(operation.apply(accounts));
+			} catch (Exception e) {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * A partition of the accounts with its owner thread and command queue.
+	 */
+	private static class Shard implements Runnable {
+		private final IDatabase accounts;
+		private final ConcurrentLinkedQueue<Command<?>> commands = new ConcurrentLinkedQueue<Command<?>>();
+		private final Thread owner;
+		private volatile boolean running = true;
+
+		Shard(IDatabase accounts, String name) {
+			this.accounts = accounts;
+			this.owner = new Thread(this, name);
+			this.owner.setDaemon(true);
+			this.owner.start();
+		}
+
+		<R> CompletableFuture<R> submit(Operation<R> operation) {
+			Command<R> command = new Command<R>(operation);
+			if (Thread.currentThread() == owner) {
+				// Called from a callback on the owner thread: it may touch the accounts itself
+				command.execute(accounts);
+				return command.result;
+			}
+
+			commands.offer(command);
+			if (!running) {
+				failPending();
+			}
+			else {
+				LockSupport.unpark(owner);
+			}
+			return command.result;
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				Command<?> command = commands.poll();
+				if (command == null) {
+					// A submit after the poll unparks us, so the command is not missed
+					LockSupport.park(this);
+					continue;
+				}
+				command.execute(accounts);
+			}
+			failPending();
+		}
+
+		void stop() {
+			running = false;
+			LockSupport.unpark(owner);
+		}
+
+		private void failPending() {
+			Command<?> command;
+			while ((command = commands.poll()) != null) {
+				command.result.completeExceptionally(new IllegalStateException(owner.getName() + " is closed"));
+			}
+		}
+	}
+}
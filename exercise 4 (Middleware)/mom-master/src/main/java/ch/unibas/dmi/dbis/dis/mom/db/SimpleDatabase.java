@@ -88,5 +88,33 @@ public class SimpleDatabase implements IDatabase {
 	public Set<String> listAccounts() {
 		return new HashSet<String>(this.accounts.keySet());
 	}
+	
+	@Override
+	public boolean containsAccount(String iban) {
+		return this.accounts.containsKey(iban);
+	}
+	
+	@Override
+	public AccountSnapshot snapshot() {
+		String[] ibans = new String[this.accounts.size()];
+		double[] balances = new double[this.accounts.size()];
+		int i = 0;
+		for (Map.Entry<String, Double> e : this.accounts.entrySet()) {
+			ibans[i] = e.getKey();
+			balances[i++] = e.getValue();
+		}
+		return new CopiedSnapshot(ibans, balances, i);
+	}
+	
+	@Override
+	public boolean depositIfExists(String iban, double amount) {
+		Double oldBalance = this.accounts.get(iban);
+		if (oldBalance == null) {
+			return false;
+		}
+		
+		this.accounts.put(iban, oldBalance + amount);
+		return true;
+	}
 
 }
@@ -17,12 +17,15 @@ import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
  */
 public class SimpleTransactionTable extends TransactionTable {
 	private Hashtable<String, Transaction> table = new Hashtable<String, Transaction>();
-	private Integer idCounter = new Integer(0);
 	
 	public SimpleTransactionTable(String bic) {
 		super(bic);
 	}
 	
+	public SimpleTransactionTable(String bic, int node) {
+		super(bic, node);
+	}
+	
 	@Override
 	public void put(String id, Transaction tx) throws TransactionExistsException {
 		synchronized (table) {
@@ -63,18 +66,4 @@ public class SimpleTransactionTable extends TransactionTable {
 		
 		table.remove(id);
 	}
-
-	@Override
-	protected void putIdCounter(int idCounter) {
-		synchronized (this.idCounter) {
-			this.idCounter = new Integer(idCounter);
-		}
-	}
-
-	@Override
-	protected int getIdCounter() {
-		synchronized (idCounter) {
-			return this.idCounter.intValue();
-		}		
-	}
 }
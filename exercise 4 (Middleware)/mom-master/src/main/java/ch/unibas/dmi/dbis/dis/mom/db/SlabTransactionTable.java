@@ -0,0 +1,315 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.TransactionExistsException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownTransactionException;
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * In-memory transaction table that stores the transactions in primitive arrays instead of objects,
+ * so that many in-flight transfers cause almost no garbage collection work.
+ * <br>
+ * The transactions live in slots of slabs of {@value #SLAB_SIZE} parallel arrays (amount, start time, iban, id).
+ * Slabs are allocated when all slots are used and are never copied; removed slots are reused through a free list.
+ * Generated ids ({@code <bic>_<number>}) are indexed by their number in an open-addressing hash table of
+ * primitive longs, so neither putting nor looking up a generated id allocates an object.
+ * Only ids that were passed explicitly and are not of that form use a regular map.
+ * {@link #get(String)} and {@link #list()} create new {@link Transaction} objects,
+ * {@link #listStartedBefore(long)} scans the start times and only creates objects for the transactions it returns.
+ */
+public class SlabTransactionTable extends TransactionTable {
+	public static final int SLAB_SIZE = 1 << 12;
+	private static final int INITIAL_INDEX_CAPACITY = 1 << 12;
+	private static final long EMPTY = -1;
+	/**
+	 * Id of a slot that is indexed by the map of explicit ids.
+	 */
+	private static final long EXPLICIT = -2;
+
+	private final String prefix;
+	private double[][] amounts = new double[0][];
+	private long[][] startTimes = new long[0][];
+	private String[][] ibans = new String[0][];
+	/**
+	 * Number of the id of each used slot, {@link #EXPLICIT} or the next free slot of the free list.
+	 */
+	private long[][] ids = new long[0][];
+	private int freeSlot = -1;
+	private int size;
+
+	private long[] indexKeys;
+	private int[] indexSlots;
+	private int indexSize;
+	private final Map<String, Integer> explicitIds = new HashMap<String, Integer>();
+
+	public SlabTransactionTable(String bic) {
+		this(bic, configuredNode(bic));
+	}
+
+	public SlabTransactionTable(String bic, int node) {
+		super(bic, node);
+		this.prefix = bic + "_";
+		this.indexKeys = new long[INITIAL_INDEX_CAPACITY];
+		this.indexSlots = new int[INITIAL_INDEX_CAPACITY];
+		Arrays.fill(indexKeys, EMPTY);
+	}
+
+	@Override
+	public synchronized void put(String id, Transaction tx) throws TransactionExistsException {
+		long number = numberOf(id);
+		int existing = number >= 0 ? find(number) : explicitSlot(id);
+		if (existing >= 0) {
+			throw new TransactionExistsException(id, toTransaction(existing));
+		}
+
+		int slot = allocate();
+		amounts[slot / SLAB_SIZE][slot % SLAB_SIZE] = tx.amount;
+		startTimes[slot / SLAB_SIZE][slot % SLAB_SIZE] = tx.startTime;
+		ibans[slot / SLAB_SIZE][slot % SLAB_SIZE] = tx.iban;
+		if (number >= 0) {
+			ids[slot / SLAB_SIZE][slot % SLAB_SIZE] = number;
+			insert(number, slot);
+		}
+		else {
+			ids[slot / SLAB_SIZE][slot % SLAB_SIZE] = EXPLICIT;
+			explicitIds.put(id, slot);
+		}
+		size++;
+	}
+
+	@Override
+	public synchronized Transaction get(String id) throws UnknownTransactionException {
+		int slot = slotOf(id);
+		if (slot < 0) {
+			throw new UnknownTransactionException(id);
+		}
+		return toTransaction(slot);
+	}
+
+	@Override
+	public synchronized void remove(String id) throws UnknownTransactionException {
+		long number = numberOf(id);
+		int slot;
+		if (number >= 0) {
+			slot = delete(number);
+		}
+		else {
+			Integer explicit = explicitIds.remove(id);
+			slot = explicit == null ? -1 : explicit;
+		}
+		if (slot < 0) {
+			throw new UnknownTransactionException(id);
+		}
+
+		// Release the iban and put the slot on the free list
+		ibans[slot / SLAB_SIZE][slot % SLAB_SIZE] = null;
+		ids[slot / SLAB_SIZE][slot % SLAB_SIZE] = freeSlot;
+		freeSlot = slot;
+		size--;
+	}
+
+	@Override
+	public synchronized boolean containsId(String id) {
+		return slotOf(id) >= 0;
+	}
+
+	@Override
+	public synchronized Set<Entry<String, Transaction>> list() {
+		Set<Entry<String, Transaction>> entries = new HashSet<Entry<String, Transaction>>();
+		for (int i = 0; i < indexKeys.length; i++) {
+			if (indexKeys[i] != EMPTY) {
+				entries.add(new SimpleImmutableEntry<String, Transaction>(prefix + indexKeys[i], toTransaction(indexSlots[i])));
+			}
+		}
+		for (Entry<String, Integer> e : explicitIds.entrySet()) {
+			entries.add(new SimpleImmutableEntry<String, Transaction>(e.getKey(), toTransaction(e.getValue())));
+		}
+		return entries;
+	}
+
+	@Override
+	public synchronized Set<Entry<String, Transaction>> listStartedBefore(long time) {
+		Set<Entry<String, Transaction>> entries = new HashSet<Entry<String, Transaction>>();
+		for (int i = 0; i < indexKeys.length; i++) {
+			if (indexKeys[i] != EMPTY && startTimes[indexSlots[i] / SLAB_SIZE][indexSlots[i] % SLAB_SIZE] < time) {
+				entries.add(new SimpleImmutableEntry<String, Transaction>(prefix + indexKeys[i], toTransaction(indexSlots[i])));
+			}
+		}
+		for (Entry<String, Integer> e : explicitIds.entrySet()) {
+			int slot = e.getValue();
+			if (startTimes[slot / SLAB_SIZE][slot % SLAB_SIZE] < time) {
+				entries.add(new SimpleImmutableEntry<String, Transaction>(e.getKey(), toTransaction(slot)));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return number of transactions in the table
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of allocated slots
+	 */
+	public synchronized int capacity() {
+		return amounts.length * SLAB_SIZE;
+	}
+
+	/**
+	 * Parses the number of a generated id of this bank in place.
+	 * Only the canonical form without leading zeros is accepted, so that the id can be restored from the number.
+	 *
+	 * @return the number or -1 for any other id
+	 */
+	private long numberOf(String id) {
+		int length = id.length() - prefix.length();
+		if (length <= 0 || !id.startsWith(prefix) || length > 1 && id.charAt(prefix.length()) == '0') {
+			return -1;
+		}
+
+		long number = 0;
+		for (int i = prefix.length(); i < id.length(); i++) {
+			int digit = id.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || number > (Long.MAX_VALUE - digit) / 10) {
+				return -1;
+			}
+			number = number * 10 + digit;
+		}
+		return number;
+	}
+
+	private int slotOf(String id) {
+		long number = numberOf(id);
+		return number >= 0 ? find(number) : explicitSlot(id);
+	}
+
+	private int explicitSlot(String id) {
+		Integer slot = explicitIds.get(id);
+		return slot == null ? -1 : slot;
+	}
+
+	private Transaction toTransaction(int slot) {
+		Transaction tx = new Transaction(ibans[slot / SLAB_SIZE][slot % SLAB_SIZE], amounts[slot / SLAB_SIZE][slot % SLAB_SIZE]);
+		tx.startTime = startTimes[slot / SLAB_SIZE][slot % SLAB_SIZE];
+		return tx;
+	}
+
+	/**
+	 * Takes a slot from the free list, allocates a new slab if the list is empty.
+	 */
+	private int allocate() {
+		if (freeSlot < 0) {
+			int slabs = amounts.length;
+			amounts = Arrays.copyOf(amounts, slabs + 1);
+			startTimes = Arrays.copyOf(startTimes, slabs + 1);
+			ibans = Arrays.copyOf(ibans, slabs + 1);
+			ids = Arrays.copyOf(ids, slabs + 1);
+			amounts[slabs] = new double[SLAB_SIZE];
+			startTimes[slabs] = new long[SLAB_SIZE];
+			ibans[slabs] = new String[SLAB_SIZE];
+			ids[slabs] = new long[SLAB_SIZE];
+
+			// Chain the new slots, the first one ends up at the head
+			for (int i = SLAB_SIZE - 1; i >= 0; i--) {
+				ids[slabs][i] = freeSlot;
+				freeSlot = slabs * SLAB_SIZE + i;
+			}
+		}
+
+		int slot = freeSlot;
+		freeSlot = (int) ids[slot / SLAB_SIZE][slot % SLAB_SIZE];
+		return slot;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ h >>> 32);
+	}
+
+	/**
+	 * @return slot of the id number or -1
+	 */
+	private int find(long number) {
+		int mask = indexKeys.length - 1;
+		for (int i = hash(number) & mask; indexKeys[i] != EMPTY; i = (i + 1) & mask) {
+			if (indexKeys[i] == number) {
+				return indexSlots[i];
+			}
+		}
+		return -1;
+	}
+
+	private void insert(long number, int slot) {
+		if (2 * (indexSize + 1) > indexKeys.length) {
+			resizeIndex();
+		}
+
+		int mask = indexKeys.length - 1;
+		int i = hash(number) & mask;
+		while (indexKeys[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		indexKeys[i] = number;
+		indexSlots[i] = slot;
+		indexSize++;
+	}
+
+	/**
+	 * Removes an id number from the index by shifting the following entries back, so no tombstones are needed.
+	 *
+	 * @return slot of the id number or -1
+	 */
+	private int delete(long number) {
+		int mask = indexKeys.length - 1;
+		int i = hash(number) & mask;
+		while (indexKeys[i] != number) {
+			if (indexKeys[i] == EMPTY) {
+				return -1;
+			}
+			i = (i + 1) & mask;
+		}
+		int slot = indexSlots[i];
+
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (indexKeys[j] == EMPTY) {
+				break;
+			}
+			// Move the entry into the gap if its home position is not between the gap and itself
+			int home = hash(indexKeys[j]) & mask;
+			if (j > i ? (home <= i || home > j) : (home <= i && home > j)) {
+				indexKeys[i] = indexKeys[j];
+				indexSlots[i] = indexSlots[j];
+				i = j;
+			}
+		}
+		indexKeys[i] = EMPTY;
+		indexSize--;
+		return slot;
+	}
+
+	private void resizeIndex() {
+		long[] oldKeys = indexKeys;
+		int[] oldSlots = indexSlots;
+		indexKeys = new long[2 * oldKeys.length];
+		indexSlots = new int[2 * oldSlots.length];
+		Arrays.fill(indexKeys, EMPTY);
+		indexSize = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				insert(oldKeys[i], oldSlots[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package ch.unibas.dmi.dbis.dis.mom.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique 64-bit transaction ids without a lookup or persistent counter (Snowflake ids).
+ * <br>
+ * An id consists of the milliseconds since {@value #EPOCH} (41 bits), the node (10 bits) and a sequence
+ * within the millisecond (12 bits). Ids of one generator strictly increase. If more than 4096 ids are
+ * requested within a millisecond or the clock goes back, the generator continues with the next millisecond
+ * of its own instead of waiting, so ids stay unique across restarts as long as the clock was not set back
+ * by more than the ids borrowed from the future.
+ * Generators on different nodes never create the same id.
+ */
+public class TransactionIdGenerator {
+	/**
+	 * Start of the time stamps, 2018-01-01T00:00:00Z.
+	 */
+	public static final long EPOCH = 1514764800000L;
+	public static final int NODE_BITS = 10;
+	public static final int SEQUENCE_BITS = 12;
+	public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	private static final int TIME_SHIFT = NODE_BITS + SEQUENCE_BITS;
+
+	private final long nodeBits;
+	private final AtomicLong last = new AtomicLong();
+
+	/**
+	 * @param node number of the node between 0 and {@value #MAX_NODE}
+	 */
+	public TransactionIdGenerator(int node) {
+		if (node < 0 || node > MAX_NODE) {
+			throw new IllegalArgumentException("The node must be between 0 and " + MAX_NODE + ": " + node);
+		}
+		this.nodeBits = (long) node << SEQUENCE_BITS;
+	}
+
+	/**
+	 * @return a new id, greater than all ids generated before by this generator
+	 */
+	public long nextId() {
+		while (true) {
+			long previous = last.get();
+			long time = System.currentTimeMillis() - EPOCH;
+			long previousTime = previous >>> TIME_SHIFT;
+
+			long id;
+			if (time > previousTime) {
+				id = time << TIME_SHIFT | nodeBits;
+			}
+			else if ((previous & SEQUENCE_MASK) < SEQUENCE_MASK) {
+				id = previous + 1;
+			}
+			else {
+				id = (previousTime + 1) << TIME_SHIFT | nodeBits;
+			}
+
+			if (last.compareAndSet(previous, id)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * @param id generated id
+	 * @return creation time of the id in ms since the epoch
+	 */
+	public static long getTime(long id) {
+		return (id >>> TIME_SHIFT) + EPOCH;
+	}
+
+	/**
+	 * @param id generated id
+	 * @return node that generated the id
+	 */
+	public static int getNode(long id) {
+		return (int) (id >>> SEQUENCE_BITS) & MAX_NODE;
+	}
+
+	/**
+	 * Derives a node from a name, e.g. the bank identifier, if no node was configured explicitly.
+	 *
+	 * @param name name of the node
+	 * @return number of the node between 0 and {@value #MAX_NODE}
+	 */
+	public static int nodeOf(String name) {
+		int h = name.hashCode();
+		return (h ^ h >>> 16) & MAX_NODE;
+	}
+}
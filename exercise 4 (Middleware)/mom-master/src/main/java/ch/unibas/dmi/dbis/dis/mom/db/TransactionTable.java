@@ -10,8 +10,15 @@ import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
  * @author Lukas Beck, HS 2012
  */
 public abstract class TransactionTable implements ITransactionTable {
+	/**
+	 * System property with the node number of this bank server, see {@link TransactionIdGenerator}.
+	 * It has to be set if several servers share a bank identifier, otherwise the node is derived from the bank identifier.
+	 */
+	public static final String NODE_PROPERTY = "mom.node";
 	private static final long TRANSACTION_TIMEOUT = 60000;
+	private static final char ID_SEPARATOR = '_';
 	private String bic;
+	private final TransactionIdGenerator idGenerator;
 
 	/**
 	 * Constructs a new {@link TransactionTable} with a given bank identifier.
@@ -20,19 +27,27 @@ public abstract class TransactionTable implements ITransactionTable {
 	 * @param bic bank identifier
 	 */
 	public TransactionTable(String bic) {
-		this.bic = bic;
+		this(bic, configuredNode(bic));
 	}
 
 	/**
-	 * Makes the value of the id counter persistent. 
-	 * @param idCounter value of the id counter
+	 * Constructs a new {@link TransactionTable} with a given bank identifier and node.
+	 * 
+	 * @param bic bank identifier
+	 * @param node number of this server among the servers of the bank, see {@link TransactionIdGenerator}
 	 */
-	protected abstract void putIdCounter(int idCounter);
+	public TransactionTable(String bic, int node) {
+		this.bic = bic;
+		this.idGenerator = new TransactionIdGenerator(node);
+	}
 	
 	/**
-	 * @return value of the persistent id counter
+	 * @param bic bank identifier
+	 * @return the node of {@value #NODE_PROPERTY} or the node derived from the bank identifier if it is not set
 	 */
-	protected abstract int getIdCounter();
+	public static int configuredNode(String bic) {
+		return Integer.getInteger(NODE_PROPERTY, TransactionIdGenerator.nodeOf(bic));
+	}
 	
 	/**
 	 * @return bank identifier assigned to this transaction table
@@ -52,20 +67,32 @@ public abstract class TransactionTable implements ITransactionTable {
 		return id;
 	}
 
+	/**
+	 * Generates an id of the form {@code <bic>_<number>}, the number is a {@link TransactionIdGenerator} id.
+	 * It is unique without a lookup in the table.
+	 */
 	private String generateTransactionId() {
-		String id = bic + "_" + incrementAndReturnCounter();
-		
-		while (this.containsId(id)) {
-			id = bic + "_" + incrementAndReturnCounter();
-		}
-		
-		return id;
+		return bic + ID_SEPARATOR + idGenerator.nextId();
 	}
 
-	private synchronized int incrementAndReturnCounter() {
-		int _return = this.getIdCounter();
-		this.putIdCounter(++_return);
-		return _return;
+	/**
+	 * Extracts the 64-bit number of a generated transaction id, e.g. to key on a primitive.
+	 * 
+	 * @param id transaction id
+	 * @return number of the id or -1 if the id was not generated by a transaction table
+	 */
+	public static long parseTransactionId(String id) {
+		int separator = id.lastIndexOf(ID_SEPARATOR);
+		if (separator < 0) {
+			return -1;
+		}
+
+		try {
+			long number = Long.parseLong(id.substring(separator + 1));
+			return number >= 0 ? number : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
 	}
 
 	/**
@@ -76,6 +103,17 @@ public abstract class TransactionTable implements ITransactionTable {
 	 * @return true, if the given transaction expired
 	 */
 	public static boolean isTransactionExpired(Transaction tx) {
-		return System.currentTimeMillis() - tx.startTime > TRANSACTION_TIMEOUT;
+		return isTransactionExpired(tx, TRANSACTION_TIMEOUT);
+	}
+
+	/**
+	 * Checks, if a given {@link Transaction} expired.
+	 * 
+	 * @param tx transaction
+	 * @param timeout time in ms after which the transaction expires
+	 * @return true, if the given transaction expired
+	 */
+	public static boolean isTransactionExpired(Transaction tx, long timeout) {
+		return System.currentTimeMillis() - tx.startTime > timeout;
 	}
 }
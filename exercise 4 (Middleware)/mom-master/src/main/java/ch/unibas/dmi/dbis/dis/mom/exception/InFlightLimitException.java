@@ -0,0 +1,26 @@
+package ch.unibas.dmi.dbis.dis.mom.exception;
+
+/**
+ * Exception to throw when a transfer is rejected because too many transfers to the target bank are in flight.
+ * Nothing was withdrawn, the transfer can be retried later.
+ * It is an {@link IllegalOperationException}, so callers of a transfer do not have to handle it separately.
+ */
+public class InFlightLimitException extends IllegalOperationException {
+	private static final long serialVersionUID = 4618264372930542381L;
+	private final String bic;
+	private final int limit;
+
+	public InFlightLimitException(String bic, int limit) {
+		super(limit + " transfers to bic " + bic + " are in flight");
+		this.bic = bic;
+		this.limit = limit;
+	}
+
+	public String getBic() {
+		return bic;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+}
@@ -0,0 +1,13 @@
+package ch.unibas.dmi.dbis.dis.mom.exception;
+
+/**
+ * Exception that is thrown if the storage of a database or transaction table fails,
+ * e.g. because its SQL engine reported an error.
+ */
+public class PersistenceException extends RuntimeException {
+	private static final long serialVersionUID = -2750921637463311458L;
+
+	public PersistenceException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -26,6 +26,14 @@ public class BalanceRequestMessage extends RequestMessage {
 		return iban;
 	}
 	
+	/**
+	 * A balance request sees all deposits to the account that were sent before it.
+	 */
+	@Override
+	public String getGroupId() {
+		return iban;
+	}
+	
 	protected BalanceRequestMessage(MessageData data) {
 		super(data.txId);
 		checkIfParameterIsSet(data.parameters, "iban");
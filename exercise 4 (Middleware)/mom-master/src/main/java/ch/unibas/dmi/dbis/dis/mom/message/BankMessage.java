@@ -34,6 +34,17 @@ public abstract class BankMessage {
 		this.receiptHandle = receiptHandle;
 	}
 	
+	/**
+	 * Returns the message group of this message in a FIFO {@link ch.unibas.dmi.dbis.dis.mom.queue.Queue Queue}.
+	 * Messages of the same group are delivered in order, messages of different groups may be handled in parallel.
+	 * By default every transaction is a group of its own.
+	 * 
+	 * @return the message group id
+	 */
+	public String getGroupId() {
+		return this.txId;
+	}
+	
 	/** 
 	 * Returns the string representation of the message containing:
 	 * <ul>
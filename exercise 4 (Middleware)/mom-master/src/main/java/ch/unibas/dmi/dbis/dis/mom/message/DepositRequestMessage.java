@@ -40,6 +40,14 @@ public class DepositRequestMessage extends RequestMessage {
 		return amount;
 	}
 	
+	/**
+	 * The deposits to one account are kept in order.
+	 */
+	@Override
+	public String getGroupId() {
+		return iban;
+	}
+	
 	protected DepositRequestMessage(MessageData data) {
 		super(data.txId);		
 		checkIfParameterIsSet(data.parameters, "bic");
@@ -0,0 +1,122 @@
+package ch.unibas.dmi.dbis.dis.mom.message;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A {@link RequestMessage} to request the deposits of several transfers at once.
+ * It has one line item per target account with the netted amount of all transfers to that account.
+ * The transaction id is the id of the settlement.
+ */
+public class SettlementRequestMessage extends RequestMessage {
+	private String bic;
+	private Map<String, Double> amounts;
+
+	/**
+	 * Constructs a new {@link SettlementRequestMessage}.
+	 *
+	 * @param settlementId settlement id
+	 * @param bic target bank identifier which the accounts are located on
+	 * @param amounts amount to deposit per target account
+	 */
+	public SettlementRequestMessage(String settlementId, String bic, Map<String, Double> amounts) {
+		super(settlementId);
+		this.bic = bic;
+		this.amounts = Collections.unmodifiableMap(new LinkedHashMap<String, Double>(amounts));
+	}
+
+	public String getBic() {
+		return bic;
+	}
+
+	/**
+	 * @return amount to deposit per target account
+	 */
+	public Map<String, Double> getAmounts() {
+		return amounts;
+	}
+	
+	/**
+	 * A settlement deposits to many accounts, so the settlements to one bank are kept in order among themselves.
+	 */
+	@Override
+	public String getGroupId() {
+		return bic;
+	}
+
+	protected SettlementRequestMessage(MessageData data) {
+		super(data.txId);
+		checkIfParameterIsSet(data.parameters, "bic");
+		checkIfParameterIsSet(data.parameters, "lines");
+		this.bic = data.parameters.get("bic");
+
+		Map<String, Double> amounts = new LinkedHashMap<String, Double>();
+		int lines = Integer.parseInt(data.parameters.get("lines"));
+		for (int i = 0; i < lines; i++) {
+			checkIfParameterIsSet(data.parameters, "iban" + i);
+			checkIfParameterIsSet(data.parameters, "amount" + i);
+			String s = data.parameters.get("amount" + i);
+			try {
+				amounts.put(data.parameters.get("iban" + i), Double.parseDouble(s));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Value " + s + " of key 'amount" + i + "' is no valid number");
+			}
+		}
+		this.amounts = Collections.unmodifiableMap(amounts);
+	}
+
+	@Override
+	protected Map<String, String> getParameters() {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("bic", bic);
+		parameters.put("lines", String.valueOf(amounts.size()));
+		int i = 0;
+		for (Entry<String, Double> e : amounts.entrySet()) {
+			parameters.put("iban" + i, e.getKey());
+			parameters.put("amount" + i, String.valueOf(e.getValue()));
+			i++;
+		}
+		return parameters;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + ((amounts == null) ? 0 : amounts.hashCode());
+		result = prime * result + ((bic == null) ? 0 : bic.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!super.equals(obj)) {
+			return false;
+		}
+		if (!(obj instanceof SettlementRequestMessage)) {
+			return false;
+		}
+		SettlementRequestMessage other = (SettlementRequestMessage) obj;
+		if (bic == null) {
+			if (other.bic != null) {
+				return false;
+			}
+		} else if (!bic.equals(other.bic)) {
+			return false;
+		}
+		if (amounts == null) {
+			if (other.amounts != null) {
+				return false;
+			}
+		} else if (!amounts.equals(other.amounts)) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,95 @@
+package ch.unibas.dmi.dbis.dis.mom.message;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link ResultMessage} that acknowledges all line items of a previous {@link SettlementRequestMessage}.
+ * Only the accounts whose deposit failed are listed.
+ */
+public class SettlementResultMessage extends ResultMessage {
+	private Set<String> failedIbans;
+
+	/**
+	 * Constructs a new {@link SettlementResultMessage}.
+	 *
+	 * @param settlementId settlement id
+	 * @param failedIbans target accounts whose deposit failed
+	 */
+	public SettlementResultMessage(String settlementId, Set<String> failedIbans) {
+		super(settlementId);
+		this.failedIbans = Collections.unmodifiableSet(new LinkedHashSet<String>(failedIbans));
+	}
+
+	/**
+	 * @param iban target account of a line item
+	 * @return true, if the deposit to the account was successful
+	 */
+	public boolean hasSucceded(String iban) {
+		return !failedIbans.contains(iban);
+	}
+
+	/**
+	 * @return target accounts whose deposit failed
+	 */
+	public Set<String> getFailedIbans() {
+		return failedIbans;
+	}
+
+	protected SettlementResultMessage(MessageData data) {
+		super(data.txId);
+		checkIfParameterIsSet(data.parameters, "failed");
+
+		Set<String> failedIbans = new LinkedHashSet<String>();
+		int failed = Integer.parseInt(data.parameters.get("failed"));
+		for (int i = 0; i < failed; i++) {
+			checkIfParameterIsSet(data.parameters, "iban" + i);
+			failedIbans.add(data.parameters.get("iban" + i));
+		}
+		this.failedIbans = Collections.unmodifiableSet(failedIbans);
+	}
+
+	@Override
+	protected Map<String, String> getParameters() {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("failed", String.valueOf(failedIbans.size()));
+		int i = 0;
+		for (String iban : failedIbans) {
+			parameters.put("iban" + i++, iban);
+		}
+		return parameters;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + ((failedIbans == null) ? 0 : failedIbans.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!super.equals(obj)) {
+			return false;
+		}
+		if (!(obj instanceof SettlementResultMessage)) {
+			return false;
+		}
+		SettlementResultMessage other = (SettlementResultMessage) obj;
+		if (failedIbans == null) {
+			if (other.failedIbans != null) {
+				return false;
+			}
+		} else if (!failedIbans.equals(other.failedIbans)) {
+			return false;
+		}
+		return true;
+	}
+}
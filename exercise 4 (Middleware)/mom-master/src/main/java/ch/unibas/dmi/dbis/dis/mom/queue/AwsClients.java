@@ -0,0 +1,118 @@
+package ch.unibas.dmi.dbis.dis.mom.queue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.sns.AmazonSNS;
+import com.amazonaws.services.sns.AmazonSNSClientBuilder;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
+import com.amazonaws.services.sqs.AmazonSQSAsyncClientBuilder;
+
+/**
+ * Factory for the SQS and SNS clients of a process.
+ * Clients are created once per AWS access key with a tuned {@link ClientConfiguration}
+ * and then shared by every {@link Queue}, {@link QueueForSns} and bank server,
+ * so that all of them use the same connection pool.
+ */
+public class AwsClients {
+	public static final String SQS_ENDPOINT = "sqs.eu-central-1.amazonaws.com";
+	public static final String SQS_REGION = "eu-central-1";
+	public static final String SNS_REGION = "eu-west-3";
+
+	/**
+	 * Size of the connection pool, also used as the number of threads of asynchronous clients.
+	 */
+	public static final int MAX_CONNECTIONS = 200;
+	public static final int CONNECTION_TIMEOUT = 5 * 1000;
+	/**
+	 * Must be longer than the longest long poll of a receive request (20 seconds).
+	 */
+	public static final int SOCKET_TIMEOUT = 30 * 1000;
+	/**
+	 * Pooled connections are renewed after this time, so DNS changes of the endpoints are picked up.
+	 */
+	public static final long CONNECTION_TTL = 60 * 1000;
+	public static final int MAX_ERROR_RETRY = 5;
+
+	private static boolean useGzip = false;
+	private static final Map<String, AmazonSQSAsync> sqsClients = new HashMap<String, AmazonSQSAsync>();
+	private static final Map<String, AmazonSNS> snsClients = new HashMap<String, AmazonSNS>();
+
+	private AwsClients() {
+	}
+
+	/**
+	 * Enables or disables gzip compression of the HTTP traffic of clients created afterwards.
+	 * Compression trades CPU time for bandwidth and is disabled by default.
+	 *
+	 * @param useGzip if true, new clients use gzip compression
+	 */
+	public static synchronized void setUseGzip(boolean useGzip) {
+		AwsClients.useGzip = useGzip;
+	}
+
+	/**
+	 * Creates the client configuration that all shared clients use:
+	 * a large connection pool with TCP keep-alive, bounded connect and socket timeouts
+	 * and retries with the SDK's exponential backoff.
+	 *
+	 * @return a new client configuration
+	 */
+	public static synchronized ClientConfiguration createClientConfiguration() {
+		return new ClientConfiguration()
+				.withMaxConnections(MAX_CONNECTIONS)
+				.withTcpKeepAlive(true)
+				.withConnectionTimeout(CONNECTION_TIMEOUT)
+				.withSocketTimeout(SOCKET_TIMEOUT)
+				.withConnectionTTL(CONNECTION_TTL)
+				.withRetryPolicy(new RetryPolicy(PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION,
+						PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, MAX_ERROR_RETRY, true))
+				.withGzip(useGzip);
+	}
+
+	/**
+	 * Returns the shared asynchronous SQS client of the given credentials and creates it if necessary.
+	 *
+	 * @param awsCredentials AWS credentials
+	 * @return the shared SQS client
+	 */
+	public static synchronized AmazonSQSAsync getSQS(AWSCredentials awsCredentials) {
+		AmazonSQSAsync sqs = sqsClients.get(awsCredentials.getAWSAccessKeyId());
+		if (sqs == null) {
+			sqs = AmazonSQSAsyncClientBuilder.standard()
+					.withCredentials(new AWSStaticCredentialsProvider(awsCredentials))
+					.withClientConfiguration(createClientConfiguration())
+					.withExecutorFactory(() -> Executors.newFixedThreadPool(MAX_CONNECTIONS))
+					.withEndpointConfiguration(new EndpointConfiguration(SQS_ENDPOINT, SQS_REGION))
+					.build();
+			sqsClients.put(awsCredentials.getAWSAccessKeyId(), sqs);
+		}
+		return sqs;
+	}
+
+	/**
+	 * Returns the shared SNS client of the given credentials and creates it if necessary.
+	 *
+	 * @param awsCredentials AWS credentials
+	 * @return the shared SNS client
+	 */
+	public static synchronized AmazonSNS getSNS(AWSCredentials awsCredentials) {
+		AmazonSNS sns = snsClients.get(awsCredentials.getAWSAccessKeyId());
+		if (sns == null) {
+			sns = AmazonSNSClientBuilder.standard()
+					.withCredentials(new AWSStaticCredentialsProvider(awsCredentials))
+					.withClientConfiguration(createClientConfiguration())
+					.withRegion(SNS_REGION)
+					.build();
+			snsClients.put(awsCredentials.getAWSAccessKeyId(), sns);
+		}
+		return sns;
+	}
+}
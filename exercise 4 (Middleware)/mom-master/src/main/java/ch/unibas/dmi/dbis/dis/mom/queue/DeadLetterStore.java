@@ -0,0 +1,19 @@
+package ch.unibas.dmi.dbis.dis.mom.queue;
+
+import com.amazonaws.services.sqs.model.Message;
+
+/**
+ * A store for poison messages, i.e. messages that repeatedly could not be parsed.
+ * A {@link Queue} hands such messages to its dead-letter store before deleting them,
+ * so that they no longer get redelivered but are still available for inspection.
+ */
+public interface DeadLetterStore {
+	/**
+	 * Stores a poison message.
+	 * 
+	 * @param queueName name of the queue the message was received from
+	 * @param msg the raw {@link Message SQS message}
+	 * @param cause the exception that occurred while parsing the message
+	 */
+	public void quarantine(String queueName, Message msg, Exception cause);
+}
@@ -0,0 +1,167 @@
+package ch.unibas.dmi.dbis.dis.mom.queue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import ch.unibas.dmi.dbis.dis.mom.message.BankMessage;
+
+/**
+ * Background fetcher that keeps a bounded buffer of received messages of a {@link Queue} filled,
+ * so that consumers can take messages without waiting for a round trip to SQS.
+ * <br>
+ * The fetcher pauses while the buffer cannot take a whole receive batch.
+ * Buffered messages are dropped once their visibility timeout may have expired,
+ * because SQS delivers them to other consumers again at that point,
+ * unless the queue extends their visibility with a {@link VisibilityLeaseManager}.
+ *
+ * @param <T> type of the buffered messages
+ */
+class MessagePrefetcher<T extends BankMessage> implements Runnable {
+	/**
+	 * Long poll duration of the receive requests in seconds.
+	 */
+	private static final int WAIT_TIME = 10;
+	/**
+	 * Time to wait before fetching again after a failed receive.
+	 */
+	private static final long ERROR_BACKOFF = 1000;
+
+	private final Queue<T> queue;
+	private final BlockingQueue<Buffered<T>> buffer;
+	private final int batchSize;
+	private final int visibilityTimeout;
+	private final boolean leased;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	/**
+	 * @param queue the queue to fetch from
+	 * @param capacity number of messages the buffer holds
+	 * @param batchSize maximum number of messages fetched per receive
+	 * @param visibilityTimeout visibility timeout in seconds the messages are received with
+	 * @param leased true, if the visibility of received messages is extended until they are deleted
+	 */
+	MessagePrefetcher(Queue<T> queue, int capacity, int batchSize, int visibilityTimeout, boolean leased) {
+		this.queue = queue;
+		this.buffer = new ArrayBlockingQueue<Buffered<T>>(capacity);
+		this.batchSize = Math.min(batchSize, capacity);
+		this.visibilityTimeout = visibilityTimeout;
+		this.leased = leased;
+		this.thread = new Thread(this, "prefetcher " + queue.getUrl());
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				waitForSpace();
+				buffer(queue.fetch(batchSize, WAIT_TIME, visibilityTimeout));
+			} catch (InterruptedException e) {
+				break;
+			} catch (RuntimeException e) {
+				System.err.println("Warning: prefetching from " + queue.getUrl() + " failed: " + e.getMessage());
+				try {
+					Thread.sleep(ERROR_BACKOFF);
+				} catch (InterruptedException e1) {
+					break;
+				}
+			}
+		}
+	}
+
+	private synchronized void buffer(List<T> msgs) {
+		long now = System.currentTimeMillis();
+		for (T msg : msgs) {
+			if (running) {
+				// Cannot block: only this thread adds and it waited for a whole batch of space
+				buffer.offer(new Buffered<T>(msg, now));
+			}
+			else {
+				queue.releaseLease(msg);
+			}
+		}
+	}
+
+	private synchronized void waitForSpace() throws InterruptedException {
+		while (running && buffer.remainingCapacity() < batchSize) {
+			wait();
+		}
+	}
+
+	/**
+	 * Takes the next buffered message whose visibility timeout has not expired.
+	 *
+	 * @return the next message or {@code null} if the buffer is empty
+	 */
+	T poll() {
+		Buffered<T> next;
+		while ((next = buffer.poll()) != null) {
+			if (!isExpired(next)) {
+				break;
+			}
+		}
+
+		signalSpace();
+		return next == null ? null : next.msg;
+	}
+
+	/**
+	 * Takes all buffered messages whose visibility timeout has not expired.
+	 *
+	 * @return the buffered messages or an empty list
+	 */
+	List<T> drain() {
+		List<Buffered<T>> drained = new ArrayList<Buffered<T>>();
+		buffer.drainTo(drained);
+		signalSpace();
+
+		List<T> _return = new ArrayList<T>(drained.size());
+		for (Buffered<T> b : drained) {
+			if (!isExpired(b)) {
+				_return.add(b.msg);
+			}
+		}
+		return _return;
+	}
+
+	private synchronized void signalSpace() {
+		notifyAll();
+	}
+
+	private boolean isExpired(Buffered<T> b) {
+		// Leave a tenth of the timeout to handle and delete the message
+		return !leased && System.currentTimeMillis() - b.receivedAt > visibilityTimeout * 900L;
+	}
+
+	/**
+	 * Stops fetching. Messages that are still buffered become visible again after their visibility timeout.
+	 */
+	synchronized void stop() {
+		running = false;
+		thread.interrupt();
+		notifyAll();
+
+		List<Buffered<T>> dropped = new ArrayList<Buffered<T>>();
+		buffer.drainTo(dropped);
+		for (Buffered<T> b : dropped) {
+			queue.releaseLease(b.msg);
+		}
+	}
+
+	private static class Buffered<T> {
+		final T msg;
+		final long receivedAt;
+
+		Buffered(T msg, long receivedAt) {
+			this.msg = msg;
+			this.receivedAt = receivedAt;
+		}
+	}
+}
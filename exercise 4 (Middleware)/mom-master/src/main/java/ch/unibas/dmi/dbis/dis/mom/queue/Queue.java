@@ -4,18 +4,31 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
 
 import ch.unibas.dmi.dbis.dis.mom.message.BankMessage;
 import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
 import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
 import com.amazonaws.services.sqs.model.CreateQueueRequest;
 import com.amazonaws.services.sqs.model.CreateQueueResult;
 import com.amazonaws.services.sqs.model.DeleteMessageRequest;
 import com.amazonaws.services.sqs.model.DeleteQueueRequest;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.PurgeQueueInProgressException;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.QueueAttributeName;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
 
 /**
  * A class that wraps the functionality of {@link AmazonSQS SQS} queues.
@@ -25,9 +38,39 @@ import com.amazonaws.services.sqs.model.SendMessageRequest;
  * @param <T> type of {@link BankMessage BankMessages} that should be sent using this queue.
  */
 public class Queue<T extends BankMessage> implements Closeable {
+	/**
+	 * Default number of deliveries after which a message that cannot be parsed is quarantined.
+	 */
+	public static final int DEFAULT_MAX_DELIVERIES = 3;
+	/**
+	 * Default number of asynchronous requests that may be in flight at the same time.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+	/**
+	 * Maximum number of messages SQS returns for one receive request.
+	 */
+	private static final int MAX_RECEIVE_BATCH = 10;
+	/**
+	 * Visibility timeout in seconds of prefetched messages if the queue does not extend them.
+	 */
+	public static final int PREFETCH_VISIBILITY_TIMEOUT = 60;
+	private static final String RECEIVE_COUNT = "ApproximateReceiveCount";
+	/**
+	 * Suffix that SQS requires for the names of FIFO queues.
+	 */
+	public static final String FIFO_SUFFIX = ".fifo";
+	
 	private AmazonSQS sqs;
 	private String queueName;
-	private String url;
+	private volatile String url;
+	private boolean fifo;
+	private ResourceCache resources;
+	private VisibilityLeaseManager leaseManager;
+	private DeadLetterStore deadLetterStore;
+	private int maxDeliveries = DEFAULT_MAX_DELIVERIES;
+	private final QueueMetrics metrics = new QueueMetrics();
+	private Semaphore inFlight = new Semaphore(DEFAULT_MAX_IN_FLIGHT);
+	private MessagePrefetcher<T> prefetcher;
 	
 	/**
 	 * Constructs a new {@link Queue}.
@@ -37,35 +80,399 @@ public class Queue<T extends BankMessage> implements Closeable {
 	 * @param queueName the name of {@link Queue}.
 	 */
 	public Queue(AmazonSQS sqs, String queueName) {
+		this(sqs, queueName, false);
+	}
+	
+	/**
+	 * Constructs a new {@link Queue} that is either a standard or a FIFO queue.
+	 * If the queue does not exist, it will be created.
+	 * 
+	 * A FIFO queue is named {@code queueName} followed by {@value #FIFO_SUFFIX}. Every message is sent
+	 * in the message group {@link BankMessage#getGroupId()}, e.g. the account it concerns, and SQS
+	 * delivers the messages of a group in the order they were sent and hands out the next message of a group
+	 * only after the previous one was deleted. So several consumers may receive from the queue in parallel,
+	 * while the messages to one account are still handled one after the other.
+	 * The transaction id is the deduplication id, so a message that is sent twice within five minutes is delivered once.
+	 * 
+	 * @param sqs the SQS object
+	 * @param queueName the name of {@link Queue}, without {@value #FIFO_SUFFIX}
+	 * @param fifo true, if the queue is a FIFO queue
+	 */
+	public Queue(AmazonSQS sqs, String queueName, boolean fifo) {
+		this(sqs, queueName, fifo, null);
+	}
+	
+	/**
+	 * Constructs a new {@link Queue} whose URL is taken from a {@link ResourceCache} if it is cached.
+	 * Otherwise, the queue is created if it does not exist and its URL is cached.
+	 * The URL is removed from the cache when the queue is deleted by {@link #close()}.
+	 * A cached queue may have been deleted by its owner meanwhile, e.g. the request queue of a remote bank
+	 * that shut down. A send that fails because the queue does not exist creates the queue again and is retried once.
+	 * 
+	 * @param sqs the SQS object
+	 * @param queueName the name of {@link Queue}, without {@value #FIFO_SUFFIX}
+	 * @param fifo true, if the queue is a FIFO queue, see {@link #Queue(AmazonSQS, String, boolean)}
+	 * @param resources cache of the queue URLs or null to always create the queue
+	 * @see #resolveUrl(AmazonSQS, String, boolean, ResourceCache)
+	 */
+	public Queue(AmazonSQS sqs, String queueName, boolean fifo, ResourceCache resources) {
 		this.sqs = sqs;
 		this.queueName = queueName;
-		CreateQueueResult result = this.sqs.createQueue(new CreateQueueRequest(this.queueName));
-		this.url = result.getQueueUrl();
+		this.fifo = fifo;
+		this.resources = resources;
+		this.url = resources == null ? null : resources.getQueueUrl(sqsName(queueName, fifo));
+		if (this.url == null) {
+			CreateQueueResult result = this.sqs.createQueue(createQueueRequest(queueName, fifo));
+			this.url = result.getQueueUrl();
+			if (resources != null) {
+				resources.putQueueUrl(sqsName(queueName, fifo), this.url);
+			}
+		}
+		this.deadLetterStore = new SqsDeadLetterStore(sqs);
+	}
+	
+	/**
+	 * Looks up the URL of a queue in the cache or creates the queue without waiting for SQS to answer,
+	 * so that the URLs of several queues are resolved at the same time. The URL is put into the cache,
+	 * where the constructor {@link #Queue(AmazonSQS, String, boolean, ResourceCache)} takes it from.
+	 * 
+	 * @param sqs the SQS object
+	 * @param queueName the name of the queue, without {@value #FIFO_SUFFIX}
+	 * @param fifo true, if the queue is a FIFO queue
+	 * @param resources cache of the queue URLs
+	 * @return future that completes with the URL of the queue
+	 */
+	public static CompletableFuture<String> resolveUrl(AmazonSQS sqs, String queueName, boolean fifo, ResourceCache resources) {
+		String name = sqsName(queueName, fifo);
+		String cached = resources.getQueueUrl(name);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		
+		CompletableFuture<String> future = new CompletableFuture<String>();
+		try {
+			if (sqs instanceof AmazonSQSAsync) {
+				((AmazonSQSAsync) sqs).createQueueAsync(createQueueRequest(queueName, fifo),
+						new AsyncHandler<CreateQueueRequest, CreateQueueResult>() {
+					@Override
+					public void onError(Exception e) {
+						future.completeExceptionally(e);
+					}
+
+					@Override
+					public void onSuccess(CreateQueueRequest request, CreateQueueResult result) {
+						future.complete(result.getQueueUrl());
+					}
+				});
+			}
+			else {
+				future.complete(sqs.createQueue(createQueueRequest(queueName, fifo)).getQueueUrl());
+			}
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		
+		return future.thenApply(url -> {
+			resources.putQueueUrl(name, url);
+			return url;
+		});
+	}
+	
+	private static String sqsName(String queueName, boolean fifo) {
+		return fifo ? queueName + FIFO_SUFFIX : queueName;
+	}
+	
+	private static CreateQueueRequest createQueueRequest(String queueName, boolean fifo) {
+		CreateQueueRequest request = new CreateQueueRequest(sqsName(queueName, fifo));
+		if (fifo) {
+			request.addAttributesEntry(QueueAttributeName.FifoQueue.toString(), "true");
+		}
+		return request;
 	}
 
+	/**
+	 * Receives messages with the given visibility timeout from now on and keeps every
+	 * received message invisible until it gets deleted, by periodically extending its visibility.
+	 * Use this for queues whose handlers may take longer than the visibility timeout.
+	 * 
+	 * This method has no effect if the lease extension is already enabled.
+	 * 
+	 * @param visibilityTimeout visibility timeout in seconds
+	 * @see VisibilityLeaseManager
+	 */
+	public void enableLeaseExtension(int visibilityTimeout) {
+		if (this.leaseManager == null) {
+			this.leaseManager = new VisibilityLeaseManager(this.sqs, this.url, visibilityTimeout);
+		}
+	}
+	
+	/**
+	 * Starts a background thread that keeps a local buffer of up to {@code capacity} received messages filled.
+	 * From then on, {@link #getMessage()}, {@link #getMessages()} and {@link #receiveAsync()}
+	 * only take messages out of that buffer and never wait for SQS.
+	 * Without {@link #enableLeaseExtension(int) lease extension}, messages are prefetched with a visibility timeout of
+	 * {@value #PREFETCH_VISIBILITY_TIMEOUT} seconds and dropped from the buffer shortly before it expires.
+	 * 
+	 * This method has no effect if prefetching is already enabled.
+	 * 
+	 * @param capacity number of messages the buffer holds
+	 * @throws IllegalArgumentException If {@code capacity} is not positive
+	 */
+	public void enablePrefetching(int capacity) {
+		enablePrefetching(capacity, PREFETCH_VISIBILITY_TIMEOUT);
+	}
+	
+	/**
+	 * Starts prefetching like {@link #enablePrefetching(int)}, with the given visibility timeout
+	 * for messages that are not leased.
+	 * 
+	 * @param capacity number of messages the buffer holds
+	 * @param visibilityTimeout visibility timeout in seconds of prefetched messages without lease extension
+	 * @throws IllegalArgumentException If {@code capacity} or {@code visibilityTimeout} is not positive
+	 */
+	public void enablePrefetching(int capacity, int visibilityTimeout) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (visibilityTimeout < 1) {
+			throw new IllegalArgumentException("visibilityTimeout must be positive");
+		}
+		
+		if (this.prefetcher == null) {
+			boolean leased = this.leaseManager != null;
+			if (leased) {
+				visibilityTimeout = this.leaseManager.getVisibilityTimeout();
+			}
+			this.prefetcher = new MessagePrefetcher<T>(this, capacity, MAX_RECEIVE_BATCH, visibilityTimeout, leased);
+			this.prefetcher.start();
+		}
+	}
+	
+	/**
+	 * Stops prefetching messages. Messages that are still buffered become visible again
+	 * after their visibility timeout and the queue receives directly from SQS again.
+	 */
+	public void stopPrefetching() {
+		if (this.prefetcher != null) {
+			this.prefetcher.stop();
+			this.prefetcher = null;
+		}
+	}
+	
+	/**
+	 * Sets where and when messages that cannot be parsed are quarantined.
+	 * A message is handed to the dead-letter store and deleted from this queue
+	 * once it has been delivered {@code maxDeliveries} times without being parsed successfully.
+	 * By default, poison messages are moved to a {@link SqsDeadLetterStore}
+	 * after {@value #DEFAULT_MAX_DELIVERIES} deliveries.
+	 * 
+	 * @param deadLetterStore store for poison messages
+	 * @param maxDeliveries number of deliveries before a poison message is quarantined
+	 * @throws IllegalArgumentException If {@code maxDeliveries} is not positive
+	 */
+	public void setDeadLetterPolicy(DeadLetterStore deadLetterStore, int maxDeliveries) {
+		if (maxDeliveries < 1) {
+			throw new IllegalArgumentException("maxDeliveries must be positive");
+		}
+		
+		this.deadLetterStore = deadLetterStore;
+		this.maxDeliveries = maxDeliveries;
+	}
+	
+	/**
+	 * Sets the number of asynchronous requests of this queue that may be in flight at the same time.
+	 * Call this before issuing any asynchronous request.
+	 * 
+	 * @param maxInFlight maximum number of concurrent asynchronous requests
+	 * @throws IllegalArgumentException If {@code maxInFlight} is not positive
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		}
+		
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+	
+	/**
+	 * @return the counters of this queue
+	 */
+	public QueueMetrics getMetrics() {
+		return this.metrics;
+	}
+	
 	/**
 	 * Sends a message to this queue.
 	 * 
 	 * @param msg message
 	 */
 	public void sendMessage(T msg) {
-		this.sqs.sendMessage(new SendMessageRequest(url, msg.toString()));
+		String sentTo = this.url;
+		try {
+			this.sqs.sendMessage(createSendRequest(msg));
+		} catch (QueueDoesNotExistException e) {
+			recreate(sentTo);
+			this.sqs.sendMessage(createSendRequest(msg));
+		}
+		this.metrics.incrementSent();
+	}
+	
+	/**
+	 * Creates the queue again after it has been deleted, unless another send already did.
+	 * 
+	 * @param staleUrl URL that the failed request was sent to
+	 */
+	private synchronized void recreate(String staleUrl) {
+		if (!staleUrl.equals(this.url)) {
+			return;
+		}
+		
+		System.err.println("Warning: queue " + this.queueName + " does not exist anymore, creating it again");
+		String name = sqsName(this.queueName, this.fifo);
+		if (this.resources != null) {
+			this.resources.removeQueueUrl(name);
+		}
+		this.url = this.sqs.createQueue(createQueueRequest(this.queueName, this.fifo)).getQueueUrl();
+		if (this.resources != null) {
+			this.resources.putQueueUrl(name, this.url);
+		}
+	}
+	
+	private SendMessageRequest createSendRequest(T msg) {
+		SendMessageRequest request = new SendMessageRequest(url, msg.toString());
+		if (this.fifo) {
+			request.withMessageGroupId(msg.getGroupId()).withMessageDeduplicationId(msg.getTransactionId());
+		}
+		return request;
+	}
+	
+	/**
+	 * @return true, if this is a FIFO queue
+	 */
+	public boolean isFifo() {
+		return this.fifo;
 	}
 	
 	/**
 	 * Returns the next available message.
-	 * Notice that Amazon SQS does not implement a FIFO.
+	 * Notice that Amazon SQS does not implement a FIFO, unless this is a {@link #isFifo() FIFO queue}.
 	 * 
-	 * @return {@code null} if no messages are available yet or the next message
+	 * @return {@code null} if no messages are available yet (or the received message could not be parsed)
+	 * 	or the next message
 	 */
 	public T getMessage() {
-		ReceiveMessageResult result = this.sqs.receiveMessage(new ReceiveMessageRequest(this.url).withMaxNumberOfMessages(1));
+		MessagePrefetcher<T> prefetcher = this.prefetcher;
+		if (prefetcher != null) {
+			return prefetcher.poll();
+		}
+		
+		ReceiveMessageResult result = this.sqs.receiveMessage(createReceiveRequest().withMaxNumberOfMessages(1));
 		List<Message> msgs = result.getMessages();
 		if (msgs.size() < 1) {
 			return null;
 		}
 		
-		return createBankMessage(msgs.get(0));
+		return receive(msgs.get(0));
+	}
+	
+	/**
+	 * Receives messages directly from SQS, bypassing the prefetch buffer.
+	 * 
+	 * @param max maximum number of messages to receive
+	 * @param waitTime seconds to wait for messages to arrive
+	 * @param visibilityTimeout visibility timeout in seconds of the received messages
+	 * @return the received messages that could be parsed
+	 */
+	List<T> fetch(int max, int waitTime, int visibilityTimeout) {
+		ReceiveMessageResult result = this.sqs.receiveMessage(createReceiveRequest()
+				.withMaxNumberOfMessages(max)
+				.withWaitTimeSeconds(waitTime)
+				.withVisibilityTimeout(visibilityTimeout));
+		
+		List<T> _return = new ArrayList<T>();
+		for (Message m : result.getMessages()) {
+			T msg = receive(m);
+			if (msg != null) {
+				_return.add(msg);
+			}
+		}
+		return _return;
+	}
+	
+	/**
+	 * Stops extending the visibility of a received message that will not be deleted, e.g. because its handler failed.
+	 * The message is delivered again after its visibility timeout instead of staying invisible
+	 * (and blocking its message group in a {@link #isFifo() FIFO queue}) for up to 12 hours.
+	 * 
+	 * @param msg received message
+	 */
+	public void releaseLease(T msg) {
+		if (this.leaseManager != null) {
+			this.leaseManager.release(msg.getReceiptHandle());
+		}
+	}
+	
+	private ReceiveMessageRequest createReceiveRequest() {
+		ReceiveMessageRequest request = new ReceiveMessageRequest(this.url).withAttributeNames(RECEIVE_COUNT);
+		if (this.leaseManager != null) {
+			request.withVisibilityTimeout(this.leaseManager.getVisibilityTimeout());
+		}
+		return request;
+	}
+	
+	/**
+	 * Parses a received {@link Message SQS message} and leases it if lease extension is enabled.
+	 * Messages that cannot be parsed are skipped: they are left to be redelivered
+	 * until they reached the maximum number of deliveries, then they are quarantined.
+	 * 
+	 * @param m received message
+	 * @return the parsed message or {@code null} if it could not be parsed
+	 */
+	private T receive(Message m) {
+		this.metrics.incrementReceived();
+		
+		T msg;
+		try {
+			msg = createBankMessage(m);
+		} catch (RuntimeException e) {
+			this.metrics.incrementMalformed();
+			if (getReceiveCount(m) >= this.maxDeliveries) {
+				quarantine(m, e);
+			}
+			return null;
+		}
+		
+		if (this.leaseManager != null) {
+			this.leaseManager.acquire(msg.getReceiptHandle());
+		}
+		return msg;
+	}
+	
+	private static int getReceiveCount(Message m) {
+		String count = m.getAttributes() == null ? null : m.getAttributes().get(RECEIVE_COUNT);
+		if (count == null) {
+			// Without a count, treat every delivery as the last one instead of redelivering forever
+			return Integer.MAX_VALUE;
+		}
+		
+		try {
+			return Integer.parseInt(count);
+		} catch (NumberFormatException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+	
+	private void quarantine(Message m, Exception cause) {
+		try {
+			this.deadLetterStore.quarantine(this.queueName, m, cause);
+		} catch (RuntimeException e) {
+			// Keep the message in this queue, it is quarantined on its next delivery
+			System.err.println("Warning: could not quarantine message " + m.getMessageId() + ": " + e.getMessage());
+			return;
+		}
+		
+		this.sqs.deleteMessage(new DeleteMessageRequest(this.url, m.getReceiptHandle()));
+		this.metrics.incrementQuarantined();
 	}
 	
 	protected T createBankMessage(Message msg) {
@@ -77,14 +484,24 @@ public class Queue<T extends BankMessage> implements Closeable {
 	}
 	
 	/**
+	 * Messages that cannot be parsed are skipped.
+	 * 
 	 * @return all available messages or an empty list
 	 */
 	public List<T> getMessages() {
-		ReceiveMessageResult result = this.sqs.receiveMessage(new ReceiveMessageRequest(this.url));
+		MessagePrefetcher<T> prefetcher = this.prefetcher;
+		if (prefetcher != null) {
+			return prefetcher.drain();
+		}
+		
+		ReceiveMessageResult result = this.sqs.receiveMessage(createReceiveRequest());
 		List<T> _return = new ArrayList<T>();
 		
 		for (Message m : result.getMessages()) {
-			_return.add(createBankMessage(m));
+			T msg = receive(m);
+			if (msg != null) {
+				_return.add(msg);
+			}
 		}
 		
 		return _return;
@@ -96,7 +513,9 @@ public class Queue<T extends BankMessage> implements Closeable {
 	 * @param msg message to be deleted
 	 */
 	public void deleteMessage(T msg) {
+		releaseLease(msg);
 		this.sqs.deleteMessage(new DeleteMessageRequest(this.url, msg.getReceiptHandle()));
+		this.metrics.incrementDeleted();
 	}
 	
 	/**
@@ -110,6 +529,168 @@ public class Queue<T extends BankMessage> implements Closeable {
 		}
 	}
 	
+	/**
+	 * Sends a message to this queue without waiting for SQS to accept it.
+	 * If the queue was deleted, it is created again and the message is sent once more from another thread.
+	 * 
+	 * @param msg message
+	 * @return future that completes when the message was accepted by SQS
+	 * @see #sendMessage(BankMessage)
+	 */
+	public CompletableFuture<Void> sendAsync(T msg) {
+		String sentTo = this.url;
+		return submitSend(msg)
+				.handle((result, e) -> {
+					Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+					if (cause instanceof QueueDoesNotExistException) {
+						// Not on the completion thread, the failed send releases its permit only after this handler
+						return CompletableFuture.supplyAsync(() -> {
+							recreate(sentTo);
+							return submitSend(msg);
+						}).thenCompose(future -> future);
+					}
+					if (cause != null) {
+						throw new CompletionException(cause);
+					}
+					return CompletableFuture.completedFuture(result);
+				})
+				.thenCompose(future -> future)
+				.thenApply(result -> {
+					this.metrics.incrementSent();
+					return null;
+				});
+	}
+	
+	private CompletableFuture<SendMessageResult> submitSend(T msg) {
+		return submit(createSendRequest(msg),
+				(request, handler) -> ((AmazonSQSAsync) this.sqs).sendMessageAsync(request, handler),
+				this.sqs::sendMessage);
+	}
+	
+	/**
+	 * Receives up to ten available messages without waiting for SQS to answer.
+	 * Messages that cannot be parsed are skipped, as in {@link #getMessages()}.
+	 * 
+	 * @return future that completes with the received messages or an empty list
+	 */
+	public CompletableFuture<List<T>> receiveAsync() {
+		MessagePrefetcher<T> prefetcher = this.prefetcher;
+		if (prefetcher != null) {
+			return CompletableFuture.completedFuture(prefetcher.drain());
+		}
+		
+		return submit(createReceiveRequest().withMaxNumberOfMessages(MAX_RECEIVE_BATCH),
+				(request, handler) -> ((AmazonSQSAsync) this.sqs).receiveMessageAsync(request, handler),
+				this.sqs::receiveMessage)
+				.thenApply(result -> {
+					List<T> _return = new ArrayList<T>();
+					for (Message m : result.getMessages()) {
+						T msg = receive(m);
+						if (msg != null) {
+							_return.add(msg);
+						}
+					}
+					return _return;
+				});
+	}
+	
+	/**
+	 * Deletes the given message from the queue without waiting for SQS to answer.
+	 * 
+	 * @param msg message to be deleted
+	 * @return future that completes when the message was deleted
+	 * @see #deleteMessage(BankMessage)
+	 */
+	public CompletableFuture<Void> deleteAsync(T msg) {
+		releaseLease(msg);
+		
+		return submit(new DeleteMessageRequest(this.url, msg.getReceiptHandle()),
+				(request, handler) -> ((AmazonSQSAsync) this.sqs).deleteMessageAsync(request, handler),
+				this.sqs::deleteMessage)
+				.thenApply(result -> {
+					this.metrics.incrementDeleted();
+					return null;
+				});
+	}
+	
+	/**
+	 * Deletes a list of messages without waiting for SQS to answer.
+	 * 
+	 * @param msgs list of messages
+	 * @return future that completes when all messages were deleted
+	 */
+	public CompletableFuture<Void> deleteMessagesAsync(List<T> msgs) {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[msgs.size()];
+		for (int i = 0; i < futures.length; i++) {
+			futures[i] = deleteAsync(msgs.get(i));
+		}
+		return CompletableFuture.allOf(futures);
+	}
+	
+	/**
+	 * Issues a request asynchronously if the SQS object is an {@link AmazonSQSAsync asynchronous client},
+	 * otherwise the request is executed synchronously and an already completed future is returned.
+	 * The caller blocks while the maximum number of requests are in flight.
+	 */
+	private <R extends AmazonWebServiceRequest, S> CompletableFuture<S> submit(R request,
+			AsyncCall<R, S> asyncCall, Function<R, S> syncCall) {
+		CompletableFuture<S> future = new CompletableFuture<S>();
+		Semaphore window = this.inFlight;
+		window.acquireUninterruptibly();
+		future.whenComplete((result, e) -> window.release());
+		
+		try {
+			if (this.sqs instanceof AmazonSQSAsync) {
+				asyncCall.call(request, new AsyncHandler<R, S>() {
+					@Override
+					public void onError(Exception e) {
+						future.completeExceptionally(e);
+					}
+
+					@Override
+					public void onSuccess(R request, S result) {
+						future.complete(result);
+					}
+				});
+			}
+			else {
+				future.complete(syncCall.apply(request));
+			}
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		
+		return future;
+	}
+	
+	/**
+	 * An asynchronous method of {@link AmazonSQSAsync} that reports its result to an {@link AsyncHandler}.
+	 */
+	private interface AsyncCall<R extends AmazonWebServiceRequest, S> {
+		Future<S> call(R request, AsyncHandler<R, S> handler);
+	}
+	
+	/**
+	 * Clears all messages in this queue with one purge request, without waiting for SQS to answer.
+	 * SQS deletes the messages within a minute, a message that is sent while the purge is running may be deleted too.
+	 * Only one purge per minute is allowed, the future completes normally if another purge is still running.
+	 * 
+	 * @return future that completes when SQS accepted the purge
+	 * @see #deleteAllMessages()
+	 */
+	public CompletableFuture<Void> purgeAsync() {
+		return submit(new PurgeQueueRequest(this.url),
+				(request, handler) -> ((AmazonSQSAsync) this.sqs).purgeQueueAsync(request, handler),
+				this.sqs::purgeQueue)
+				.handle((result, e) -> {
+					Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+					if (cause != null && !(cause instanceof PurgeQueueInProgressException)) {
+						throw new CompletionException(cause);
+					}
+					return null;
+				});
+	}
+	
 	/**
 	 * Clears all messages in this queue.
 	 * Because there is sometimes a delay in the message transmission,
@@ -148,6 +729,15 @@ public class Queue<T extends BankMessage> implements Closeable {
 	 */
 	public void close() throws IOException {
 		if (sqs != null) {
+			stopPrefetching();
+			if (leaseManager != null) {
+				leaseManager.close();
+				leaseManager = null;
+			}
+			
+			if (resources != null) {
+				resources.removeQueueUrl(sqsName(this.queueName, this.fifo));
+			}
 			try {
 				sqs.deleteQueue(new DeleteQueueRequest(this.url));
 			} catch (AmazonServiceException e) {
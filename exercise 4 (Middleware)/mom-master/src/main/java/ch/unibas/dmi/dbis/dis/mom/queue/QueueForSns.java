@@ -22,15 +22,30 @@ public class QueueForSns<T extends BankMessage> extends Queue<T> {
         super(sqs, queueName);
     }
 
+    /**
+     * Constructs a new {@link Queue} whose URL is taken from a {@link ResourceCache} if it is cached.
+     *
+     * @param sqs       the SQS object
+     * @param queueName the name of {@link Queue}.
+     * @param resources cache of the queue URLs
+     */
+    public QueueForSns(AmazonSQS sqs, String queueName, ResourceCache resources) {
+        super(sqs, queueName, false, resources);
+    }
+
     @Override
     protected T createBankMessage(Message msg) {
-        String body = null;
+        String body;
 
         try {
             JsonNode actualObj = mapper.readTree(msg.getBody());
-            body = actualObj.get("Message").textValue();
+            JsonNode message = actualObj.get("Message");
+            if (message == null) {
+                throw new IllegalArgumentException("SNS notification has no 'Message' field");
+            }
+            body = message.textValue();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException("Invalid SNS notification: " + e.getMessage());
         }
 
         // We can suppress this warning because we know that
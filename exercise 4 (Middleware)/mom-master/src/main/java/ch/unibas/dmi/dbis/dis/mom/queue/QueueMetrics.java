@@ -0,0 +1,76 @@
+package ch.unibas.dmi.dbis.dis.mom.queue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the traffic that passed through a {@link Queue}.
+ * All counters are cumulative since the creation of the queue object and safe to read from any thread.
+ */
+public class QueueMetrics {
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+	private final AtomicLong malformed = new AtomicLong();
+	private final AtomicLong quarantined = new AtomicLong();
+
+	void incrementSent() {
+		sent.incrementAndGet();
+	}
+
+	void incrementReceived() {
+		received.incrementAndGet();
+	}
+
+	void incrementDeleted() {
+		deleted.incrementAndGet();
+	}
+
+	void incrementMalformed() {
+		malformed.incrementAndGet();
+	}
+
+	void incrementQuarantined() {
+		quarantined.incrementAndGet();
+	}
+
+	/**
+	 * @return number of messages sent to the queue
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * @return number of messages received from the queue, including malformed ones
+	 */
+	public long getReceived() {
+		return received.get();
+	}
+
+	/**
+	 * @return number of messages deleted from the queue after handling them
+	 */
+	public long getDeleted() {
+		return deleted.get();
+	}
+
+	/**
+	 * @return number of deliveries whose body could not be parsed into a message
+	 */
+	public long getMalformed() {
+		return malformed.get();
+	}
+
+	/**
+	 * @return number of messages moved to the dead-letter store
+	 */
+	public long getQuarantined() {
+		return quarantined.get();
+	}
+
+	@Override
+	public String toString() {
+		return "[sent=" + getSent() + ", received=" + getReceived() + ", deleted=" + getDeleted()
+				+ ", malformed=" + getMalformed() + ", quarantined=" + getQuarantined() + "]";
+	}
+}
@@ -10,7 +10,7 @@ import java.io.IOException;
 import java.util.List;
 
 import com.amazonaws.auth.PropertiesCredentials;
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.AmazonSQS;
 import com.amazonaws.services.sqs.model.DeleteQueueRequest;
 import com.amazonaws.services.sqs.model.ListQueuesResult;
 
@@ -22,10 +22,9 @@ import com.amazonaws.services.sqs.model.ListQueuesResult;
 public class QueueUtils {
 	
 	public static void deleteAllQueues(){
-		AmazonSQSClient sqs;
+		AmazonSQS sqs;
 		try {
-			sqs = new AmazonSQSClient(new PropertiesCredentials(QueueUtils.class.getResourceAsStream("AwsCredentials.properties")));
-			sqs.setEndpoint("sqs.eu-west-1.amazonaws.com");
+			sqs = AwsClients.getSQS(new PropertiesCredentials(QueueUtils.class.getResourceAsStream("AwsCredentials.properties")));
 		} catch (IOException e) {
 			e.printStackTrace();
 			return;
@@ -0,0 +1,130 @@
+package ch.unibas.dmi.dbis.dis.mom.queue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Caches the URLs of SQS queues and the ARNs of SNS topics, so that a restarted bank server does not have to
+ * create its queues and topics again before it can handle the first message.
+ * <br>
+ * URLs and ARNs only depend on the account, the region and the name, so an entry stays valid when the queue
+ * or topic is deleted and created again by another server. An entry may still point to a queue that its owner
+ * deleted and nobody created again yet, e.g. the request queue of a remote bank that shut down,
+ * so a {@link Queue} creates a cached queue again when a send finds it missing.
+ * Entries of queues and topics that are deleted by this process are removed. The entries are kept in a properties
+ * file, which is rewritten on every change, or only in memory if no file is given.
+ */
+public class ResourceCache {
+	private static final String QUEUE = "queue.";
+	private static final String TOPIC = "topic.";
+	private static final Map<String, ResourceCache> caches = new HashMap<String, ResourceCache>();
+
+	private final File file;
+	private final Properties entries = new Properties();
+
+	/**
+	 * Constructs a cache that only lives in memory.
+	 */
+	public ResourceCache() {
+		this.file = null;
+	}
+
+	private ResourceCache(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			try (InputStream in = new FileInputStream(file)) {
+				entries.load(in);
+			}
+		}
+	}
+
+	/**
+	 * Returns the cache of a file, which is shared by all servers of this process.
+	 *
+	 * @param file file of the entries, created on the first change
+	 * @return the cache
+	 * @throws IOException If the file cannot be read
+	 */
+	public static synchronized ResourceCache open(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		ResourceCache cache = caches.get(path);
+		if (cache == null) {
+			cache = new ResourceCache(file);
+			caches.put(path, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * @param queueName name of the queue in SQS
+	 * @return the URL of the queue or null if it is not cached
+	 */
+	public synchronized String getQueueUrl(String queueName) {
+		return entries.getProperty(QUEUE + queueName);
+	}
+
+	public synchronized void putQueueUrl(String queueName, String url) {
+		put(QUEUE + queueName, url);
+	}
+
+	public synchronized void removeQueueUrl(String queueName) {
+		remove(QUEUE + queueName);
+	}
+
+	/**
+	 * @param topicName name of the topic in SNS
+	 * @return the ARN of the topic or null if it is not cached
+	 */
+	public synchronized String getTopicArn(String topicName) {
+		return entries.getProperty(TOPIC + topicName);
+	}
+
+	public synchronized void putTopicArn(String topicName, String arn) {
+		put(TOPIC + topicName, arn);
+	}
+
+	public synchronized void removeTopicArn(String topicName) {
+		remove(TOPIC + topicName);
+	}
+
+	private void put(String key, String value) {
+		if (value != null && !value.equals(entries.setProperty(key, value))) {
+			save();
+		}
+	}
+
+	private void remove(String key) {
+		if (entries.remove(key) != null) {
+			save();
+		}
+	}
+
+	/**
+	 * Replaces the file atomically, so that a crash never leaves a partly written cache behind.
+	 * The cache is only an optimization, so a failed write is only reported.
+	 */
+	private void save() {
+		if (file == null) {
+			return;
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			try (OutputStream out = new FileOutputStream(tmp)) {
+				entries.store(out, "URLs of SQS queues and ARNs of SNS topics");
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Warning: could not write the resource cache " + file + ": " + e.getMessage());
+		}
+	}
+}
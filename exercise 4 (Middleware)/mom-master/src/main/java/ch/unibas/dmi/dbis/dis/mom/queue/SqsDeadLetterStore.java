@@ -0,0 +1,39 @@
+package ch.unibas.dmi.dbis.dis.mom.queue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+
+/**
+ * {@link DeadLetterStore} that moves poison messages unchanged into a separate SQS queue
+ * named {@value #PREFIX} followed by the name of the original queue.
+ * The dead-letter queues are created on their first use.
+ */
+public class SqsDeadLetterStore implements DeadLetterStore {
+	public static final String PREFIX = "dead_letter_";
+	
+	private AmazonSQS sqs;
+	private Map<String, String> urls = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * Constructs a new {@link SqsDeadLetterStore}.
+	 * 
+	 * @param sqs the SQS object
+	 */
+	public SqsDeadLetterStore(AmazonSQS sqs) {
+		this.sqs = sqs;
+	}
+
+	@Override
+	public void quarantine(String queueName, Message msg, Exception cause) {
+		String url = urls.computeIfAbsent(queueName,
+				name -> sqs.createQueue(new CreateQueueRequest(PREFIX + name)).getQueueUrl());
+		
+		System.err.println("Warning: quarantining message " + msg.getMessageId() + " of queue " + queueName + ": " + cause.getMessage());
+		sqs.sendMessage(new SendMessageRequest(url, msg.getBody()));
+	}
+}
@@ -0,0 +1,171 @@
+package ch.unibas.dmi.dbis.dis.mom.queue;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+
+/**
+ * Keeps received messages of a {@link Queue} invisible while they are being handled.
+ * Every leased receipt handle is extended periodically by a background heartbeat
+ * that sends batched visibility changes to SQS, until the lease is released
+ * (usually because the message got deleted).
+ * <br>
+ * This allows a short visibility timeout on the queue, so that messages of a crashed
+ * handler reappear quickly, while slow handlers do not get their messages delivered twice.
+ */
+public class VisibilityLeaseManager implements Closeable {
+	/**
+	 * Maximum number of entries SQS accepts in one batch request.
+	 */
+	private static final int MAX_BATCH_SIZE = 10;
+	/**
+	 * SQS does not allow to keep a message invisible for more than 12 hours.
+	 */
+	private static final long MAX_LEASE_DURATION = 12 * 60 * 60 * 1000L;
+
+	private final AmazonSQS sqs;
+	private final String url;
+	private final int visibilityTimeout;
+	/**
+	 * Maps receipt handles to the time their lease was acquired.
+	 */
+	private final Map<String, Long> leases = new ConcurrentHashMap<String, Long>();
+	private final ScheduledExecutorService heartbeat;
+
+	/**
+	 * Constructs a new {@link VisibilityLeaseManager} and starts its heartbeat.
+	 * The heartbeat runs three times per visibility timeout, so a lease survives
+	 * up to two lost heartbeats.
+	 *
+	 * @param sqs the SQS object
+	 * @param url url of the queue whose messages are leased
+	 * @param visibilityTimeout visibility timeout in seconds that every heartbeat sets
+	 * @throws IllegalArgumentException If the visibility timeout is shorter than 3 seconds
+	 */
+	public VisibilityLeaseManager(AmazonSQS sqs, String url, int visibilityTimeout) {
+		if (visibilityTimeout < 3) {
+			throw new IllegalArgumentException("Visibility timeout must be at least 3 seconds");
+		}
+
+		this.sqs = sqs;
+		this.url = url;
+		this.visibilityTimeout = visibilityTimeout;
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lease-heartbeat " + url);
+			t.setDaemon(true);
+			return t;
+		});
+
+		long period = visibilityTimeout * 1000L / 3;
+		this.heartbeat.scheduleWithFixedDelay(this::extendLeases, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the visibility timeout in seconds that is set by every heartbeat
+	 */
+	public int getVisibilityTimeout() {
+		return this.visibilityTimeout;
+	}
+
+	/**
+	 * Starts extending the visibility of the message with the given receipt handle.
+	 *
+	 * @param receiptHandle receipt handle of a received message
+	 */
+	public void acquire(String receiptHandle) {
+		if (receiptHandle != null) {
+			leases.put(receiptHandle, System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Stops extending the visibility of the message with the given receipt handle.
+	 *
+	 * @param receiptHandle receipt handle of a received message
+	 */
+	public void release(String receiptHandle) {
+		if (receiptHandle != null) {
+			leases.remove(receiptHandle);
+		}
+	}
+
+	/**
+	 * @return number of currently held leases
+	 */
+	public int size() {
+		return leases.size();
+	}
+
+	/**
+	 * Extends all held leases by sending batches of up to {@link #MAX_BATCH_SIZE} visibility changes.
+	 * Leases that SQS rejects (e.g. because the message got deleted meanwhile)
+	 * or that exceeded the maximum lease duration are dropped.
+	 */
+	void extendLeases() {
+		long now = System.currentTimeMillis();
+		List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+		Map<String, String> handles = new HashMap<String, String>();
+
+		for (Entry<String, Long> lease : leases.entrySet()) {
+			String receiptHandle = lease.getKey();
+			if (now - lease.getValue() > MAX_LEASE_DURATION) {
+				System.err.println("Warning: lease of a message in " + url + " exceeded the maximum duration, dropping it");
+				leases.remove(receiptHandle);
+				continue;
+			}
+
+			String id = String.valueOf(entries.size());
+			entries.add(new ChangeMessageVisibilityBatchRequestEntry(id, receiptHandle).withVisibilityTimeout(visibilityTimeout));
+			handles.put(id, receiptHandle);
+
+			if (entries.size() == MAX_BATCH_SIZE) {
+				sendBatch(entries, handles);
+				entries = new ArrayList<ChangeMessageVisibilityBatchRequestEntry>();
+				handles = new HashMap<String, String>();
+			}
+		}
+
+		if (!entries.isEmpty()) {
+			sendBatch(entries, handles);
+		}
+	}
+
+	private void sendBatch(List<ChangeMessageVisibilityBatchRequestEntry> entries, Map<String, String> handles) {
+		try {
+			ChangeMessageVisibilityBatchResult result = sqs.changeMessageVisibilityBatch(
+					new ChangeMessageVisibilityBatchRequest(url, entries));
+
+			for (BatchResultErrorEntry failed : result.getFailed()) {
+				leases.remove(handles.get(failed.getId()));
+			}
+		} catch (AmazonClientException e) {
+			// Keep the leases, the next heartbeat retries them
+			System.err.println("Warning: could not extend the visibility of " + entries.size()
+					+ " messages in " + url + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops the heartbeat and drops all leases.
+	 * The leased messages become visible again after their current visibility timeout.
+	 */
+	@Override
+	public void close() {
+		heartbeat.shutdownNow();
+		leases.clear();
+	}
+}
@@ -0,0 +1,204 @@
+package ch.unibas.dmi.dbis.dis.mom.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.InFlightLimitException;
+
+/**
+ * Limits the number of transfers per remote bank that are in flight, i.e. that are recorded in the transaction table.
+ * <br>
+ * Every bank has a window of credits. A transfer takes a credit before it is recorded ({@link #acquire(String)})
+ * and returns it when its record leaves the table ({@link #release(String)}).
+ * If the window is full, a transfer waits up to the configured time for a credit and is rejected afterwards,
+ * with a waiting time of 0 it is rejected immediately.
+ * <br>
+ * The window adapts to the remote bank like the congestion window of TCP: every round of expired transfers
+ * ({@link #decrease(String)}) halves it. A bank that stopped answering therefore only gets a few transfers,
+ * instead of all transfers piling up and expiring at once. The first round of an outage also sets the slow-start
+ * threshold to half of the window before the outage. Below the threshold, every answered transfer
+ * ({@link #increase(String)}) adds a credit, so the window doubles per round trip once the bank answers again.
+ * Above it, the window only grows by one credit per window of answered transfers.
+ */
+public class AdmissionControl {
+	public static final int DEFAULT_LIMIT = 1000;
+	public static final int MIN_LIMIT = 1;
+
+	private final int maxLimit;
+	private final long maxWait;
+	private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+
+	/**
+	 * @param maxLimit maximum number of transfers in flight per bank, the initial window
+	 * @param maxWait time in ms that a transfer waits for a credit, 0 to reject it immediately
+	 */
+	public AdmissionControl(int maxLimit, long maxWait) {
+		if (maxLimit < MIN_LIMIT) {
+			throw new IllegalArgumentException("The limit must be at least " + MIN_LIMIT);
+		}
+		this.maxLimit = maxLimit;
+		this.maxWait = Math.max(0, maxWait);
+	}
+
+	/**
+	 * Takes a credit for a transfer to the bank.
+	 *
+	 * @param bic remote bank
+	 * @throws InFlightLimitException If no credit became available within the waiting time or the thread was interrupted
+	 */
+	public void acquire(String bic) throws InFlightLimitException {
+		if (!window(bic).acquire(maxWait)) {
+			throw new InFlightLimitException(bic, getLimit(bic));
+		}
+	}
+
+	/**
+	 * Returns the credit of a transfer that is not in flight anymore.
+	 *
+	 * @param bic remote bank
+	 */
+	public void release(String bic) {
+		window(bic).release();
+	}
+
+	/**
+	 * Counts transfers that are already in flight without a credit, e.g. the transfers of a persistent
+	 * transaction table that were recorded before a restart. They may exceed the window.
+	 *
+	 * @param bic remote bank
+	 * @param count number of transfers in flight
+	 */
+	public void restore(String bic, int count) {
+		window(bic).restore(count);
+	}
+
+	/**
+	 * Widens the window after the bank answered a transfer.
+	 *
+	 * @param bic remote bank
+	 */
+	public void increase(String bic) {
+		window(bic).increase();
+	}
+
+	/**
+	 * Halves the window after transfers to the bank expired.
+	 *
+	 * @param bic remote bank
+	 */
+	public void decrease(String bic) {
+		window(bic).decrease();
+	}
+
+	/**
+	 * @param bic remote bank
+	 * @return number of transfers that may currently be in flight
+	 */
+	public int getLimit(String bic) {
+		Window window = windows.get(bic);
+		return window == null ? maxLimit : window.getLimit();
+	}
+
+	/**
+	 * @param bic remote bank
+	 * @return number of transfers in flight
+	 */
+	public int getInFlight(String bic) {
+		Window window = windows.get(bic);
+		return window == null ? 0 : window.getInFlight();
+	}
+
+	/**
+	 * @param bic remote bank
+	 * @return window up to which the window grows by one credit per answered transfer
+	 */
+	public int getThreshold(String bic) {
+		Window window = windows.get(bic);
+		return window == null ? maxLimit : window.getThreshold();
+	}
+
+	private Window window(String bic) {
+		return windows.computeIfAbsent(bic, b -> new Window(maxLimit));
+	}
+
+	/**
+	 * Credits of one bank.
+	 */
+	private static class Window {
+		private final int maxLimit;
+		private double limit;
+		private double threshold;
+		// Set by the first round of expiries, further rounds of the same outage do not lower the threshold
+		private boolean recovering;
+		private int inFlight;
+
+		Window(int maxLimit) {
+			this.maxLimit = maxLimit;
+			this.limit = maxLimit;
+			this.threshold = maxLimit;
+		}
+
+		synchronized boolean acquire(long maxWait) {
+			long deadline = System.currentTimeMillis() + maxWait;
+			while (inFlight >= (int) limit) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			inFlight++;
+			return true;
+		}
+
+		synchronized void release() {
+			if (inFlight > 0) {
+				inFlight--;
+				notifyAll();
+			}
+		}
+
+		synchronized void restore(int count) {
+			inFlight += count;
+		}
+
+		synchronized void increase() {
+			int before = (int) limit;
+			if (limit < threshold) {
+				// Slow start
+				limit = Math.min(threshold, limit + 1);
+			}
+			else {
+				recovering = false;
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+			if ((int) limit > before) {
+				notifyAll();
+			}
+		}
+
+		synchronized void decrease() {
+			if (!recovering) {
+				threshold = Math.max(MIN_LIMIT, limit / 2);
+				recovering = true;
+			}
+			limit = Math.max(MIN_LIMIT, limit / 2);
+		}
+
+		synchronized int getThreshold() {
+			return (int) threshold;
+		}
+
+		synchronized int getLimit() {
+			return (int) limit;
+		}
+
+		synchronized int getInFlight() {
+			return inFlight;
+		}
+	}
+}
@@ -1,22 +1,45 @@
 package ch.unibas.dmi.dbis.dis.mom.server;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+import ch.unibas.dmi.dbis.dis.mom.db.AccountAudit;
+import ch.unibas.dmi.dbis.dis.mom.db.AccountSnapshot;
+import ch.unibas.dmi.dbis.dis.mom.db.CachingDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeCaptureDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeLogWriter;
 import ch.unibas.dmi.dbis.dis.mom.db.IDatabase;
 import ch.unibas.dmi.dbis.dis.mom.db.ITransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.db.JdbcDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.JdbcTransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.db.MappedDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.ShardedDatabase;
 import ch.unibas.dmi.dbis.dis.mom.db.SimpleDatabase;
 import ch.unibas.dmi.dbis.dis.mom.db.SimpleTransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.db.SlabTransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.db.TransactionIdGenerator;
 import ch.unibas.dmi.dbis.dis.mom.db.TransactionTable;
 import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
 import ch.unibas.dmi.dbis.dis.mom.exception.IllegalOperationException;
+import ch.unibas.dmi.dbis.dis.mom.exception.InFlightLimitException;
 import ch.unibas.dmi.dbis.dis.mom.exception.TransactionExpiredException;
 import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
 import ch.unibas.dmi.dbis.dis.mom.exception.UnknownBicException;
@@ -27,13 +50,18 @@ import ch.unibas.dmi.dbis.dis.mom.message.BankMessage;
 import ch.unibas.dmi.dbis.dis.mom.message.DepositRequestMessage;
 import ch.unibas.dmi.dbis.dis.mom.message.DepositResultMessage;
 import ch.unibas.dmi.dbis.dis.mom.message.RequestMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.ResultMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementRequestMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementResultMessage;
+import ch.unibas.dmi.dbis.dis.mom.queue.AwsClients;
 import ch.unibas.dmi.dbis.dis.mom.queue.Queue;
+import ch.unibas.dmi.dbis.dis.mom.queue.ResourceCache;
 import ch.unibas.dmi.dbis.dis.mom.test.TestUtilities;
 
 import com.amazonaws.auth.AWSCredentials;
 import com.amazonaws.auth.PropertiesCredentials;
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.AmazonSQSAsync;
 
 /**
  * Message-oriented Bank Server based on Amazon SQS.
@@ -59,9 +87,83 @@ public class BankServer extends Thread {
     protected IDatabase database;
 	// The transaction table which maps transaction IDs to transactions.
     protected ITransactionTable transactionTable;
+	// Round-trip times of the requests to the remote bank, which define when transactions expire
+    protected final RoundTripEstimator roundTrips = new RoundTripEstimator();
+	// Refunds failed and expired transfers in batches
+    protected Compensator compensator;
+	// Nets the deposits to the remote bank, null if every transfer is sent on its own
+    protected DepositNetting netting;
+	// Assigns the partitions of the accounts to the nodes of this bank, null if this server owns all accounts
+    protected ClusterCoordinator cluster;
+	// Number of this server among the nodes of the bank in clustered mode
+    protected int node;
+	// Limits the transfers in flight to the remote bank
+    protected final AdmissionControl admission = new AdmissionControl(
+    		Integer.getInteger(IN_FLIGHT_LIMIT_PROPERTY, AdmissionControl.DEFAULT_LIMIT), Long.getLong(IN_FLIGHT_WAIT_PROPERTY, 0));
 
-    protected static final int GET_BALANCE_EXPIRATION_TRY_INTERVAL = 6000;
-    protected static final int GET_BALANCE_EXPIRATION_TRIES = 10;
+    /**
+     * System property that selects the database implementation, see {@link #createDatabase(String, AWSCredentials)}.
+     */
+    public static final String DATABASE_PROPERTY = "mom.database";
+    /**
+     * System property with the number of accounts that are cached in front of the database, see {@link CachingDatabase}.
+     * No cache is used if it is not set.
+     */
+    public static final String DATABASE_CACHE_PROPERTY = "mom.database.cache";
+    /**
+     * System property that selects the transaction table implementation, see {@link #createTransactionTable(String, AWSCredentials)}.
+     */
+    public static final String TRANSACTION_TABLE_PROPERTY = "mom.transactions";
+    /**
+     * System property with the path of a file that all account changes are appended to, see {@link ChangeCaptureDatabase}.
+     * No changes are captured if it is not set.
+     */
+    public static final String CHANGE_LOG_PROPERTY = "mom.database.changes";
+    /**
+     * System property with the path of a file that all refunds of failed and expired transfers are logged to,
+     * see {@link Compensator}. No refunds are logged if it is not set.
+     */
+    public static final String COMPENSATION_LOG_PROPERTY = "mom.compensations";
+    /**
+     * System property with the maximum number of transfers in flight per remote bank, see {@link AdmissionControl}.
+     */
+    public static final String IN_FLIGHT_LIMIT_PROPERTY = "mom.inflight.limit";
+    /**
+     * System property with the time in ms that a transfer waits if too many transfers are in flight.
+     * By default it is rejected immediately.
+     */
+    public static final String IN_FLIGHT_WAIT_PROPERTY = "mom.inflight.wait";
+    /**
+     * System property with the window in ms over which the deposits to the remote bank are netted,
+     * see {@link DepositNetting}. Every transfer is sent on its own if it is not set.
+     */
+    public static final String NETTING_WINDOW_PROPERTY = "mom.netting.window";
+    /**
+     * System property that makes the request and result queues FIFO queues, in which the messages to one account
+     * keep their order, see {@link Queue#Queue(AmazonSQS, String, boolean)}. Standard queues are used if it is not set.
+     */
+    public static final String QUEUE_FIFO_PROPERTY = "mom.queue.fifo";
+    /**
+     * System property with the number of partitions of the remote bank if it runs clustered, see {@link ClusterCoordinator}.
+     * The requests are then sent to the request queue of the partition of their account
+     * and the results to the response queue of the node that sent the request.
+     * The remote bank has one request and one response queue if it is not set.
+     */
+    public static final String REMOTE_PARTITIONS_PROPERTY = "mom.cluster.remote.partitions";
+    /**
+     * System property with the path of a file that the URLs of the queues and the ARNs of the topics are cached in,
+     * see {@link ResourceCache}. They are only cached in memory if it is not set.
+     */
+    public static final String RESOURCE_CACHE_PROPERTY = "mom.resources";
+    /**
+     * Visibility timeout in seconds of received messages. It is extended while a message is handled,
+     * so it only bounds how long a message stays hidden after its handler died.
+     */
+    protected static final int MESSAGE_VISIBILITY_TIMEOUT = 30;
+    /**
+     * Number of received messages that are buffered per queue ahead of handling them.
+     */
+    protected static final int PREFETCH_CAPACITY = 100;
 
     /**
 	 * The bank server's own request queue. Other servers place requests in this queue.
@@ -70,7 +172,7 @@ public class BankServer extends Thread {
 	/**
 	 * The bank server's own response queue. Other servers place results of this server's requests in this queue.
 	 */
-	Queue<DepositResultMessage> myResponseQueue;
+	Queue<ResultMessage> myResponseQueue;
 	/**
 	 * The remote bank server's request queue. This server places requests in that queue.
 	 */
@@ -78,7 +180,25 @@ public class BankServer extends Thread {
 	/**
 	 * The remote bank server's response queue. This server places results of the remote bank server's requests in that queue.
 	 */
-	Queue<DepositResultMessage> remoteResponseQueue;
+	Queue<ResultMessage> remoteResponseQueue;
+	/**
+	 * The request queues of the partitions in clustered mode, which replace {@link #myRequestQueue}.
+	 * Only the queues of the owned partitions are consumed. Handling their messages holds the monitor of this map,
+	 * so a partition is not handed over to another node in the middle of a batch.
+	 */
+	private final Map<Integer, Queue<RequestMessage>> partitionQueues = new TreeMap<Integer, Queue<RequestMessage>>();
+	private final Set<Integer> ownedPartitions = new TreeSet<Integer>();
+	/**
+	 * The request queues of the remote bank's partitions and the response queues of its nodes, if it runs clustered.
+	 */
+	private final Map<Integer, Queue<RequestMessage>> remotePartitionQueues = new ConcurrentHashMap<Integer, Queue<RequestMessage>>();
+	private final Map<Integer, Queue<ResultMessage>> remoteNodeQueues = new ConcurrentHashMap<Integer, Queue<ResultMessage>>();
+	private int remotePartitions;
+	private boolean fifo;
+	/**
+	 * URLs of the queues, so that they are not created again on every start.
+	 */
+	protected ResourceCache resources;
 
 	/**
 	 * If true, the queues of this bank server get deleted when stopping ({@link #interrupt()}) the bank server.
@@ -145,6 +265,64 @@ public class BankServer extends Thread {
 				
 		this.database = createDatabase(this.bic, this.awsCredentials);
 		this.transactionTable = createTransactionTable(this.bic, this.awsCredentials);
+		this.compensator = createCompensator(this.database);
+		Long nettingWindow = Long.getLong(NETTING_WINDOW_PROPERTY);
+		if (nettingWindow != null) {
+			this.netting = new DepositNetting(this.bic, this.remoteBic, nettingWindow);
+		}
+		restoreInFlight();
+	}
+	
+	/**
+	 * Creates a new BankServer that is one node of a clustered bank, see {@link ClusterCoordinator}.
+	 * The nodes share the database of the bank, but every node has its own transaction table and response queue.
+	 * The server joins the cluster when it is started and leaves it when it is interrupted,
+	 * it only handles the requests of the partitions it owns meanwhile.
+	 * The request queues of the partitions are shared by the cluster, so they are neither cleared nor deleted.
+	 * 
+	 * @param bic identifier of the bank
+	 * @param remoteBic identifier of the remote bank server
+	 * @param cluster coordinator of the nodes of the bank
+	 * @param node number of this server, unique within the bank, see {@link TransactionIdGenerator}
+	 * @param database database of the bank, shared by all nodes
+	 * @param clearQueues if true, the response queue of this node is cleared
+	 * @param deleteQueuesAfterwards if true, the response queue of this node gets deleted after interrupting the bank server
+	 * @throws FileNotFoundException If the AWS credentials file does not exist
+	 * @throws IOException If any problems occur while reading the AWS credentials file
+	 */
+	public BankServer(String bic, String remoteBic, ClusterCoordinator cluster, int node, IDatabase database,
+			boolean clearQueues, boolean deleteQueuesAfterwards) throws FileNotFoundException, IOException {
+		this.bic = bic;
+		this.remoteBic = remoteBic;
+		this.cluster = cluster;
+		this.node = node;
+		this.deleteQueuesAfterwards = deleteQueuesAfterwards;
+		
+		this.awsCredentials = createCredentials(); 
+		this.sqs = createSQS(this.awsCredentials);
+		this.initializeQueues(clearQueues);
+		
+		this.database = database;
+		this.transactionTable = createTransactionTable(this.bic, this.node, this.awsCredentials);
+		this.compensator = createCompensator(this.database, this.node);
+		Long nettingWindow = Long.getLong(NETTING_WINDOW_PROPERTY);
+		if (nettingWindow != null) {
+			this.netting = new DepositNetting(this.bic, this.node, this.remoteBic, nettingWindow);
+		}
+		restoreInFlight();
+	}
+	
+	/**
+	 * Takes the credits of the transfers that were recorded before a restart, they are still in flight.
+	 */
+	private void restoreInFlight() {
+		int inFlight = 0;
+		for (Entry<String, Transaction> e : transactionTable.list()) {
+			if (e.getValue().amount != 0) {
+				inFlight++;
+			}
+		}
+		admission.restore(this.remoteBic, inFlight);
 	}
 	
 	/**
@@ -157,30 +335,152 @@ public class BankServer extends Thread {
 	/**
 	 * This method returns the underlying database that the bank server should use.
 	 * The object returned by this method is tested by DatabaseTest.
-	 * You should adjust this method to return your own persistence database instance.
+	 * The implementation is selected by the system property {@value #DATABASE_PROPERTY}:
+	 * "simple" (default) keeps the accounts in memory,
+	 * "mapped" keeps them in the memory-mapped file {@code <bic>.accounts}, which survives restarts,
+	 * "sharded" keeps them in memory, partitioned into shards that are each owned by one thread,
+	 * "jdbc" keeps them in the embedded SQL database {@code <bic>.mv.db}, see {@link JdbcDatabase}.
+	 * If {@value #DATABASE_CACHE_PROPERTY} is set, the database is wrapped by a {@link CachingDatabase} of that size.
+	 * If {@value #CHANGE_LOG_PROPERTY} is set, the changes of the accounts are appended to that file by a {@link ChangeLogWriter}.
 	 * 
 	 * @param bic bank identifier of the bank server
 	 * @param awsCredentials AWS credentials
 	 * @return database database instance to use for the bank server
 	 */
 	public static IDatabase createDatabase(String bic, AWSCredentials awsCredentials) {
-		//TODO: change to your own implementation, below is a simple one
-		return new SimpleDatabase(bic);
+		IDatabase database;
+		String type = System.getProperty(DATABASE_PROPERTY, "simple");
+		switch (type) {
+		case "simple":
+			database = new SimpleDatabase(bic);
+			break;
+		case "sharded":
+			database = new ShardedDatabase(bic);
+			break;
+		case "jdbc":
+			database = new JdbcDatabase(bic, JdbcDatabase.urlOf(bic));
+			break;
+		case "mapped":
+			try {
+				database = new MappedDatabase(bic, new File(bic + ".accounts"), MappedDatabase.DEFAULT_CAPACITY);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown database type " + type);
+		}
+		
+		Integer cacheSize = Integer.getInteger(DATABASE_CACHE_PROPERTY);
+		if (cacheSize != null) {
+			database = new CachingDatabase(database, cacheSize);
+		}
+		
+		String changeLog = System.getProperty(CHANGE_LOG_PROPERTY);
+		if (changeLog != null) {
+			ChangeCaptureDatabase captured = new ChangeCaptureDatabase(database);
+			try {
+				captured.getChanges().subscribe(new ChangeLogWriter(new File(changeLog), false));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			database = captured;
+		}
+		return database;
+	}
+	
+	/**
+	 * Creates the compensator of the bank server, which logs to the file {@value #COMPENSATION_LOG_PROPERTY} if it is set.
+	 * 
+	 * @param database database to refund to
+	 * @return the compensator
+	 */
+	public static Compensator createCompensator(IDatabase database) {
+		return createCompensator(database, System.getProperty(COMPENSATION_LOG_PROPERTY));
+	}
+	
+	/**
+	 * Creates the compensator of one node of a clustered bank, like {@link #createCompensator(IDatabase)}.
+	 * Every node logs to its own file {@code <log>_<node>}.
+	 * 
+	 * @param database database to refund to
+	 * @param node number of the node
+	 * @return the compensator
+	 */
+	public static Compensator createCompensator(IDatabase database, int node) {
+		String log = System.getProperty(COMPENSATION_LOG_PROPERTY);
+		return createCompensator(database, log == null ? null : log + "_" + node);
+	}
+	
+	private static Compensator createCompensator(IDatabase database, String log) {
+		if (log == null) {
+			return new Compensator(database);
+		}
+		try {
+			return new Compensator(database, new File(log));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Opens the cache of the queue URLs and topic ARNs, which is kept in the file {@value #RESOURCE_CACHE_PROPERTY} if it is set.
+	 * 
+	 * @return the cache
+	 */
+	public static ResourceCache createResourceCache() {
+		String file = System.getProperty(RESOURCE_CACHE_PROPERTY);
+		if (file == null) {
+			return new ResourceCache();
+		}
+		try {
+			return ResourceCache.open(new File(file));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 	
 	/**
 	 * This method returns the underlying database that the bank server should use.
 	 * The object returned by this method is tested by TransactionTableTest.
-	 * You should adjust this method to return your own persistence transaction table instance.
+	 * The implementation is selected by the system property {@value #TRANSACTION_TABLE_PROPERTY}:
+	 * "simple" (default) keeps the transactions in memory,
+	 * "slab" keeps them in memory in primitive arrays, see {@link SlabTransactionTable},
+	 * "jdbc" keeps them in the embedded SQL database {@code <bic>.mv.db}, see {@link JdbcTransactionTable}.
 	 * 
 	 * @param bic bank identifier of the bank server
 	 * @param awsCredentials AWS credentials
 	 * @return database persistence transaction table instance to use for the bank server
 	 */
 	public static ITransactionTable createTransactionTable(String bic, AWSCredentials awsCredentials) {
-		
-		//TODO: change to your own implementation, below is a simple one
-		return new SimpleTransactionTable(bic);		
+		return createTransactionTable(bic, TransactionTable.configuredNode(bic), JdbcDatabase.urlOf(bic));
+	}
+	
+	/**
+	 * Returns the transaction table of one node of a clustered bank, like {@link #createTransactionTable(String, AWSCredentials)}.
+	 * Every node keeps its own transactions, "jdbc" keeps them in the embedded SQL database {@code <bic>_<node>.mv.db}.
+	 * 
+	 * @param bic bank identifier of the bank server
+	 * @param node number of the node
+	 * @param awsCredentials AWS credentials
+	 * @return transaction table instance to use for the node
+	 */
+	public static ITransactionTable createTransactionTable(String bic, int node, AWSCredentials awsCredentials) {
+		return createTransactionTable(bic, node, JdbcDatabase.urlOf(bic + "_" + node));
+	}
+	
+	private static ITransactionTable createTransactionTable(String bic, int node, String url) {
+		String type = System.getProperty(TRANSACTION_TABLE_PROPERTY, "simple");
+		switch (type) {
+		case "simple":
+			return new SimpleTransactionTable(bic, node);
+		case "slab":
+			return new SlabTransactionTable(bic, node);
+		case "jdbc":
+			return new JdbcTransactionTable(bic, node, url);
+		default:
+			throw new IllegalArgumentException("Unknown transaction table type " + type);
+		}
 	}
 	
 	/**
@@ -203,8 +503,11 @@ public class BankServer extends Thread {
 	}
 	
 	/** 
-	 * Creates the Amazon SQS object from the credentials object and
-	 * sets the end point to the central European region.
+	 * Returns the asynchronous Amazon SQS object of the credentials object,
+	 * whose end point is set to the central European region.
+	 * The returned object can be used both synchronously and asynchronously,
+	 * see {@link Queue#sendAsync(BankMessage)} and the like.
+	 * It is shared by all bank servers and queues of this process, see {@link AwsClients}.
 	 *  
 	 * @param awsCredentials AWS credentials
 	 * @return the newly created Amazon SQS object
@@ -212,39 +515,210 @@ public class BankServer extends Thread {
 	 * @throws FileNotFoundException If the AWS credentials file does not exist
 	 * @throws IOException If any problems occur while reading the AWS credentials file
 	 */
-	public static AmazonSQS createSQS(AWSCredentials awsCredentials) throws FileNotFoundException, IOException {
+	public static AmazonSQSAsync createSQS(AWSCredentials awsCredentials) throws FileNotFoundException, IOException {
 		System.out.print("Instantiating SQS client...");
-		AmazonSQS sqs = new AmazonSQSClient(awsCredentials);
+		AmazonSQSAsync sqs = AwsClients.getSQS(awsCredentials);
 		System.out.println(" Done!");
 		
-		// set it to the central European region end point. Not necessary, but closer to Switzerland :)
-		sqs.setEndpoint("sqs.eu-central-1.amazonaws.com");
 		return sqs;
 	}
 	
 	/**
 	 * Sets up the appropriate queues and clears their content.
+	 * The URLs of all queues are resolved at the same time and cached, see {@link #createResourceCache()},
+	 * and each queue is cleared with one purge.
+	 * They are FIFO queues if {@value #QUEUE_FIFO_PROPERTY} is set to true.
+	 * In clustered mode, the request queues of the partitions are set up when they are assigned to this node.
 	 */
     void initializeQueues(boolean clearQueues) {
 		System.out.print("Initializing queues...");
-		myRequestQueue = new Queue<RequestMessage>(sqs, REQUEST_PREFIX + bic);
-		myResponseQueue = new Queue<DepositResultMessage>(sqs, RESULT_PREFIX + bic);
-		remoteRequestQueue = new Queue<RequestMessage>(sqs, REQUEST_PREFIX + remoteBic);
-		remoteResponseQueue = new Queue<DepositResultMessage>(sqs, RESULT_PREFIX + remoteBic);
+		fifo = Boolean.getBoolean(QUEUE_FIFO_PROPERTY);
+		remotePartitions = Integer.getInteger(REMOTE_PARTITIONS_PROPERTY, 0);
+		resources = createResourceCache();
+		String myRequestName = cluster == null ? REQUEST_PREFIX + bic : null;
+		String myResponseName = cluster == null ? RESULT_PREFIX + bic : RESULT_PREFIX + bic + "_" + node;
+		String remoteRequestName = remotePartitions == 0 ? REQUEST_PREFIX + remoteBic : null;
+		String remoteResponseName = remotePartitions == 0 ? RESULT_PREFIX + remoteBic : null;
+		resolveQueueUrls(myRequestName, myResponseName, remoteRequestName, remoteResponseName);
+		
+		if (myRequestName != null) {
+			myRequestQueue = new Queue<RequestMessage>(sqs, myRequestName, fifo, resources);
+			myRequestQueue.enableLeaseExtension(MESSAGE_VISIBILITY_TIMEOUT);
+		}
+		myResponseQueue = new Queue<ResultMessage>(sqs, myResponseName, fifo, resources);
+		myResponseQueue.enableLeaseExtension(MESSAGE_VISIBILITY_TIMEOUT);
+		if (remotePartitions == 0) {
+			remoteRequestQueue = new Queue<RequestMessage>(sqs, remoteRequestName, fifo, resources);
+			remoteResponseQueue = new Queue<ResultMessage>(sqs, remoteResponseName, fifo, resources);
+		}
 		System.out.println(" Done!");
 		
 		if (clearQueues) {
-			System.out.print("Deleting all remaining messages...");
-			myRequestQueue.deleteAllMessages();
-			myResponseQueue.deleteAllMessages();		
+			System.out.print("Purging all remaining messages...");
+			purge(myRequestQueue, myResponseQueue);
 			System.out.println(" Done!");
 		}
+		
+		// Only start prefetching now, so that we do not buffer messages that are going to be deleted
+		if (myRequestQueue != null) {
+			myRequestQueue.enablePrefetching(PREFETCH_CAPACITY);
+		}
+		myResponseQueue.enablePrefetching(PREFETCH_CAPACITY);
+	}
+	
+	/**
+	 * Resolves the URLs of queues at the same time, so that the queues find them in {@link #resources}.
+	 * A queue whose URL could not be resolved is created again by its constructor, which reports the error.
+	 * 
+	 * @param queueNames names of the queues, null entries are skipped
+	 */
+	protected void resolveQueueUrls(String... queueNames) {
+		List<CompletableFuture<String>> urls = new ArrayList<CompletableFuture<String>>();
+		for (String queueName : queueNames) {
+			if (queueName != null) {
+				urls.add(Queue.resolveUrl(sqs, queueName, fifo, resources));
+			}
+		}
+		try {
+			CompletableFuture.allOf(urls.toArray(new CompletableFuture<?>[urls.size()])).join();
+		} catch (CompletionException e) {
+			System.err.println("Warning: could not resolve queue urls: " + e.getCause());
+		}
+	}
+	
+	/**
+	 * Purges queues at the same time and waits until SQS accepted the purges.
+	 * 
+	 * @param queues queues to clear, null entries are skipped
+	 */
+	@SafeVarargs
+	protected static void purge(Queue<? extends BankMessage>... queues) {
+		List<CompletableFuture<Void>> purges = new ArrayList<CompletableFuture<Void>>();
+		for (Queue<? extends BankMessage> queue : queues) {
+			if (queue != null) {
+				purges.add(queue.purgeAsync());
+			}
+		}
+		try {
+			CompletableFuture.allOf(purges.toArray(new CompletableFuture<?>[purges.size()])).join();
+		} catch (CompletionException e) {
+			System.err.println("Warning: could not purge queues: " + e.getCause());
+		}
+	}
+	
+	/**
+	 * Returns the request queue of the remote bank that a request goes to.
+	 * If the remote bank runs clustered, it is the queue of the partition of the request's {@link BankMessage#getGroupId() group},
+	 * i.e. of its account.
+	 * 
+	 * @param msg request to the remote bank
+	 * @return the queue
+	 */
+	protected Queue<RequestMessage> remoteRequestQueue(RequestMessage msg) {
+		if (remotePartitions == 0) {
+			return remoteRequestQueue;
+		}
+		int partition = ClusterCoordinator.partitionOf(msg.getGroupId(), remotePartitions);
+		return remotePartitionQueues.computeIfAbsent(partition,
+				p -> new Queue<RequestMessage>(sqs, REQUEST_PREFIX + remoteBic + "_" + p, fifo, resources));
+	}
+	
+	/**
+	 * Returns the response queue of the remote bank that a result goes to.
+	 * If the remote bank runs clustered, it is the queue of the node that generated the transaction id of the result.
+	 * 
+	 * @param msg result for the remote bank
+	 * @return the queue
+	 */
+	protected Queue<ResultMessage> remoteResponseQueue(ResultMessage msg) {
+		if (remotePartitions == 0) {
+			return remoteResponseQueue;
+		}
+		long id = TransactionTable.parseTransactionId(msg.getTransactionId());
+		int remoteNode = id < 0 ? TransactionIdGenerator.nodeOf(remoteBic) : TransactionIdGenerator.getNode(id);
+		return remoteNodeQueues.computeIfAbsent(remoteNode,
+				n -> new Queue<ResultMessage>(sqs, RESULT_PREFIX + remoteBic + "_" + n, fifo, resources));
+	}
+	
+	/**
+	 * Starts consuming the request queues of the partitions that were assigned to this node.
+	 */
+	private void partitionsAssigned(Set<Integer> partitions) {
+		List<String> newQueues = new ArrayList<String>();
+		for (int partition : partitions) {
+			newQueues.add(REQUEST_PREFIX + bic + "_" + partition);
+		}
+		resolveQueueUrls(newQueues.toArray(new String[newQueues.size()]));
+		
+		synchronized (partitionQueues) {
+			for (int partition : partitions) {
+				Queue<RequestMessage> queue = partitionQueues.computeIfAbsent(partition, p -> {
+					Queue<RequestMessage> q = new Queue<RequestMessage>(sqs, REQUEST_PREFIX + bic + "_" + p, fifo, resources);
+					q.enableLeaseExtension(MESSAGE_VISIBILITY_TIMEOUT);
+					return q;
+				});
+				queue.enablePrefetching(PREFETCH_CAPACITY);
+				ownedPartitions.add(partition);
+			}
+			System.out.println("Node " + node + " of bank '" + bic + "' owns partitions " + ownedPartitions);
+		}
+	}
+	
+	/**
+	 * Stops consuming the request queues of the partitions that were handed to another node.
+	 * Waits for the batch that is currently handled, the buffered messages become visible to the new owner.
+	 */
+	private void partitionsRevoked(Set<Integer> partitions) {
+		synchronized (partitionQueues) {
+			for (int partition : partitions) {
+				ownedPartitions.remove(partition);
+				partitionQueues.get(partition).stopPrefetching();
+			}
+		}
 	}
 
 	public IDatabase getDatabase() {
 		return this.database;
 	}
 	
+	/**
+	 * Takes a consistent snapshot of all local accounts while the server keeps running.
+	 * The caller has to close the snapshot.
+	 * 
+	 * @return the snapshot
+	 */
+	public AccountSnapshot snapshotDatabase() {
+		if (this.database.isThreadSafe()) {
+			return this.database.snapshot();
+		}
+		synchronized (database) {
+			return this.database.snapshot();
+		}
+	}
+	
+	/**
+	 * Audits the local accounts against the in-flight transfers, see {@link AccountAudit}.
+	 * The snapshot and the transactions are taken between two remote transfers.
+	 * Local transfers do not need to be excluded, every database changes both accounts atomically, see {@link IDatabase#transfer(String, String, double)}.
+	 * The scan runs while the server keeps running.
+	 * 
+	 * @return the report
+	 */
+	public AccountAudit.Report audit() {
+		AccountSnapshot snapshot;
+		Set<Entry<String, Transaction>> transactions;
+		synchronized (this) {
+			synchronized (transactionTable) {
+				snapshot = snapshotDatabase();
+				transactions = transactionTable.list();
+			}
+		}
+		
+		try (AccountSnapshot s = snapshot) {
+			return new AccountAudit().audit(s, transactions);
+		}
+	}
+	
 	public void setDeleteQueuesAfterwards(boolean deleteQueuesAfterwards) {
 		this.deleteQueuesAfterwards = deleteQueuesAfterwards;
 	}
@@ -257,20 +731,50 @@ public class BankServer extends Thread {
 	@Override
 	public void run() {
 		System.out.println("Starting bank server with BIC '"+this.bic+"'.");
+		if (cluster != null) {
+			cluster.join(node, new ClusterCoordinator.Listener() {
+				@Override
+				public void revoked(Set<Integer> partitions) {
+					partitionsRevoked(partitions);
+				}
 
-		while (true) {
-			// Check and handle new request
-			RequestMessage requestMessage = myRequestQueue.getMessage();
+				@Override
+				public void assigned(Set<Integer> partitions) {
+					partitionsAssigned(partitions);
+				}
+			});
+		}
 
-			if (requestMessage != null) {				
-				handleRequest(requestMessage);
-				myRequestQueue.deleteMessage(requestMessage);
+		while (true) {
+			// Poll both queues at the same time
+			CompletableFuture<List<ResultMessage>> results = myResponseQueue.receiveAsync();
+			
+			// Check and handle new requests, deletes run in the background
+			if (cluster == null) {
+				handleRequests(myRequestQueue);
+			}
+			else {
+				synchronized (partitionQueues) {
+					for (int partition : ownedPartitions) {
+						handleRequests(partitionQueues.get(partition));
+					}
+				}
 			}
 			
 			// Check and handle all results
-			List<DepositResultMessage> resultMessages = myResponseQueue.getMessages();
-			handleResults(resultMessages);
-			myResponseQueue.deleteMessages(resultMessages);
+			List<ResultMessage> resultMessages = awaitMessages(results);
+			try {
+				handleResults(resultMessages);
+			} catch (RuntimeException e) {
+				for (ResultMessage resultMessage : resultMessages) {
+					myResponseQueue.releaseLease(resultMessage);
+				}
+				throw e;
+			}
+			myResponseQueue.deleteMessagesAsync(resultMessages);
+			
+			// Send the deposits of the closed netting window before they can expire
+			sendSettlements();
 			
 			// Check for expired transactions
 			checkAndCompensateExpiredTransactions();
@@ -284,11 +788,22 @@ public class BankServer extends Thread {
 		}
 		
 		System.out.print("Stopping bank server");		
+		if (cluster != null) {
+			// Hands the partitions over to the remaining nodes
+			cluster.leave(node);
+		}
+		else {
+			myRequestQueue.stopPrefetching();
+		}
+		myResponseQueue.stopPrefetching();
+		closeStores();
 		if (deleteQueuesAfterwards) {
 			System.out.print(" and deleting our queues...");
-			try {
-				myRequestQueue.close();
-			} catch (IOException e) {}
+			if (myRequestQueue != null) {
+				try {
+					myRequestQueue.close();
+				} catch (IOException e) {}
+			}
 			try {
 				myResponseQueue.close();
 			} catch (IOException e) {}
@@ -300,8 +815,66 @@ public class BankServer extends Thread {
 	}
 	
 	/**
-	 * Delegates the handling of the request message to either {@link #handleBalanceRequest(BalanceRequestMessage)}
-	 * or {@link #handleDepositRequest(DepositRequestMessage)}.
+	 * Closes the compensation log, the transaction table and the database if they are {@link Closeable},
+	 * so that their files are forced to the disk and their threads end.
+	 * The database of a cluster is shared by its nodes, it is closed by its creator.
+	 */
+	protected void closeStores() {
+		try {
+			compensator.close();
+		} catch (IOException e) {}
+		if (transactionTable instanceof Closeable) {
+			try {
+				((Closeable) transactionTable).close();
+			} catch (IOException e) {
+				System.err.println("Warning: could not close the transaction table: " + e.getMessage());
+			}
+		}
+		if (cluster == null && database instanceof Closeable) {
+			try {
+				((Closeable) database).close();
+			} catch (IOException e) {
+				System.err.println("Warning: could not close the database: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Handles the available requests of a request queue, deletes run in the background.
+	 * 
+	 * @param queue request queue
+	 */
+	private void handleRequests(Queue<RequestMessage> queue) {
+		for (RequestMessage requestMessage : awaitMessages(queue.receiveAsync())) {
+			try {
+				handleRequest(requestMessage);
+			} catch (RuntimeException e) {
+				// Let the request be delivered again instead of keeping it invisible
+				queue.releaseLease(requestMessage);
+				throw e;
+			}
+			queue.deleteAsync(requestMessage);
+		}
+	}
+	
+	/**
+	 * Waits for the messages of an asynchronous receive.
+	 * 
+	 * @param messages future of the received messages
+	 * @return the received messages or an empty list if the receive failed
+	 */
+	protected static <M> List<M> awaitMessages(CompletableFuture<List<M>> messages) {
+		try {
+			return messages.join();
+		} catch (CompletionException e) {
+			System.err.println("Warning: could not receive messages: " + e.getCause());
+			return Collections.emptyList();
+		}
+	}
+	
+	/**
+	 * Delegates the handling of the request message to either {@link #handleBalanceRequest(BalanceRequestMessage)},
+	 * {@link #handleDepositRequest(DepositRequestMessage)} or {@link #handleSettlementRequest(SettlementRequestMessage)}.
 	 * Gives out a warning, if the request message is of an unknown type.
 	 * 
 	 * @param requestMessage to be handled request message
@@ -313,6 +886,9 @@ public class BankServer extends Thread {
 		else if (requestMessage instanceof DepositRequestMessage) {			
 			handleDepositRequest((DepositRequestMessage) requestMessage);
 		}
+		else if (requestMessage instanceof SettlementRequestMessage) {
+			handleSettlementRequest((SettlementRequestMessage) requestMessage);
+		}
 		else {
 			System.err.println("Warning: recieved unknown request message: " + requestMessage.getClass() + ", ignoring it.");
 		}
@@ -341,9 +917,43 @@ public class BankServer extends Thread {
 			// Wrong bank
 		}
 		
-		// Sends the result back
+		// Sends the result back, synchronously because the request gets deleted afterwards
 		DepositResultMessage result = new DepositResultMessage(depositRequest.getTransactionId(), success);
-		remoteResponseQueue.sendMessage(result);
+		remoteResponseQueue(result).sendMessage(result);
+	}
+	
+	/**
+	 * Handles a settlement request by depositing every line item locally and
+	 * acknowledges all line items with one result, which lists the failed deposits.
+	 * 
+	 * @param settlementRequest to be handled settlement request
+	 */
+	public void handleSettlementRequest(SettlementRequestMessage settlementRequest) {
+		Set<String> failed = new HashSet<String>();
+		if (this.bic.equals(settlementRequest.getBic())) {
+			for (Entry<String, Double> line : settlementRequest.getAmounts().entrySet()) {
+				try {
+					this.localDeposit(line.getKey(), line.getValue());
+				} catch (Exception e) {
+					failed.add(line.getKey());
+				}
+			}
+		}
+		else {
+			// Wrong bank
+			failed.addAll(settlementRequest.getAmounts().keySet());
+		}
+		
+		sendSettlementResult(new SettlementResultMessage(settlementRequest.getTransactionId(), failed));
+	}
+	
+	/**
+	 * Sends the result of a settlement back, synchronously because the request gets deleted afterwards.
+	 * 
+	 * @param result the result
+	 */
+	protected void sendSettlementResult(SettlementResultMessage result) {
+		remoteResponseQueue(result).sendMessage(result);
 	}
 
 	/**
@@ -363,7 +973,7 @@ public class BankServer extends Thread {
 			result = new BalanceResultMessage(txId, e);
 		}
 		
-		// Send message to temporary queue
+		// Send message to temporary queue, synchronously because the request gets deleted afterwards
 		// We don't close it here, because we don't own it
 		@SuppressWarnings("resource")
 		Queue<BalanceResultMessage> tempQueue = new Queue<>(sqs, txId);
@@ -372,78 +982,202 @@ public class BankServer extends Thread {
 
 	/**
 	 * Handles all results of deposit requests by compensating if a deposit failed.
-	 * Prints a warning if there is a result of a unknown transaction
+	 * The failed deposits of all results are refunded in one batch.
+	 * Results of transactions that were refunded already are reconciled by {@link #handleLateResult(String, boolean)}.
 	 * 
 	 * @param resultMessages to be handled result messages
 	 */
-	private void handleResults(List<DepositResultMessage> resultMessages) {
-		for (DepositResultMessage msg : resultMessages) {
+	private void handleResults(List<ResultMessage> resultMessages) {
+		for (ResultMessage resultMessage : resultMessages) {
+			if (resultMessage instanceof SettlementResultMessage) {
+				handleSettlementResult((SettlementResultMessage) resultMessage);
+				continue;
+			}
+			
+			DepositResultMessage msg = (DepositResultMessage) resultMessage;
 			String txId = msg.getTransactionId();
 			
-			if (!transactionTable.containsId(txId)) {
-				System.err.println("Warning: Received result of unknown transaction: " + txId
-						+ ", contents of table: " + transactionTable);
+			Transaction trx;
+			try {
+				trx = transactionTable.get(txId);
+			} catch (UnknownTransactionException e) {
+				handleLateResult(txId, msg.hasSucceded());
 				continue;
 			}
+			roundTrips.sample(remoteBic, System.currentTimeMillis() - trx.startTime);
+			admission.increase(remoteBic);
 			
-			// If deposit failed, compensate it
+			// If deposit failed, compensate it, the transaction is removed after the refund
 			if (!msg.hasSucceded()) {
-				try {
-					compensate(transactionTable.get(txId));
-				} catch (UnknownTransactionException e) {
-					System.err.println("Warning: could not find account while trying to compensate a failed transfer...");
-				}
+				compensator.add(txId, trx);
 			}
-
-			try {
-				transactionTable.remove(txId);
-			} catch (UnknownTransactionException e) {
-				System.err.println("Warning: could not remove transaction id '" + txId + "' from table");
+			else {
+				// An expired transaction may still wait for its refund, because the last batch failed
+				compensator.cancel(txId);
+				removeTransaction(txId);
+				admission.release(remoteBic);
 			}
 		}
+		compensate();
+	}
+	
+	/**
+	 * Handles the result of a transaction that is not in the table anymore.
+	 * If the transaction expired and was refunded, but the remote bank deposited the amount after all,
+	 * the refund is taken back, otherwise the amount would exist twice. See {@link Compensator#reverse(String)}.
+	 * Prints a warning if the transaction is unknown.
+	 * 
+	 * @param txId transaction id
+	 * @param deposited true, if the remote bank deposited the amount
+	 */
+	protected void handleLateResult(String txId, boolean deposited) {
+		if (!deposited) {
+			if (!compensator.isRefunded(txId)) {
+				System.err.println("Warning: Received result of unknown transaction: " + txId
+						+ ", contents of table: " + transactionTable);
+			}
+			return;
+		}
+		
+		try {
+			if (compensator.reverse(txId) == null) {
+				System.err.println("Warning: Received result of unknown transaction: " + txId
+						+ ", contents of table: " + transactionTable);
+			}
+		} catch (UnknownAccountException | AccountOverdrawException e) {
+			System.err.println("Error: could not take back the refund of transaction " + txId
+					+ ", which was deposited after it expired: " + e.getMessage());
+		}
 	}
 
+	/**
+	 * Handles the result of a settlement: the transactions of the successful line items are removed,
+	 * the transactions of the failed ones are added to the {@link Compensator}. The caller refunds them with {@link #compensate()}.
+	 * Transactions that expired and were refunded before the result arrived are reconciled
+	 * by {@link #handleLateResult(String, boolean)}.
+	 * Prints a warning if the settlement is unknown, e.g. because it was sent longer than {@link Compensator#RETENTION} ms ago.
+	 * 
+	 * @param result the settlement result
+	 */
+	protected void handleSettlementResult(SettlementResultMessage result) {
+		DepositNetting.Outcome outcome = netting == null ? null : netting.complete(result);
+		if (outcome == null) {
+			System.err.println("Warning: Received result of unknown settlement: " + result.getTransactionId());
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		for (String txId : outcome.deposited) {
+			if (settled(txId, now)) {
+				compensator.cancel(txId);
+				removeTransaction(txId);
+				admission.release(remoteBic);
+			}
+			else {
+				handleLateResult(txId, true);
+			}
+		}
+		for (String txId : outcome.failed) {
+			if (settled(txId, now)) {
+				try {
+					compensator.add(txId, transactionTable.get(txId));
+				} catch (UnknownTransactionException e) {}
+			}
+			else {
+				handleLateResult(txId, false);
+			}
+		}
+	}
+	
+	/**
+	 * Samples the round trip of a transaction of a settlement.
+	 * 
+	 * @return false, if the transaction is not in the table anymore, because it expired and was refunded
+	 */
+	private boolean settled(String txId, long now) {
+		try {
+			Transaction trx = transactionTable.get(txId);
+			roundTrips.sample(remoteBic, now - trx.startTime);
+			admission.increase(remoteBic);
+			return true;
+		} catch (UnknownTransactionException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Sends the settlement of the netting window if it is due
+	 * and forgets settlements whose result cannot arrive anymore.
+	 * Settlements are kept as long as the refunds of their transactions can be taken back, see {@link Compensator#RETENTION}.
+	 */
+	protected void sendSettlements() {
+		if (netting == null) {
+			return;
+		}
+		
+		long now = System.currentTimeMillis();
+		SettlementRequestMessage settlement = netting.poll(now);
+		if (settlement != null) {
+			sendSettlement(settlement);
+		}
+		netting.prune(Compensator.RETENTION, now);
+	}
+	
+	/**
+	 * Sends a settlement to the remote bank.
+	 * 
+	 * @param settlement the settlement
+	 */
+	protected void sendSettlement(SettlementRequestMessage settlement) {
+		// If sending fails, the transactions expire and get compensated
+		remoteRequestQueue(settlement).sendAsync(settlement).exceptionally(e -> {
+			System.err.println("Warning: could not send settlement " + settlement.getTransactionId() + ": " + e);
+			return null;
+		});
+	}
+	
 	/**
 	 * Checks for any expired transactions which are compensated
 	 * and removed from the table.
+	 * Transactions expire after the timeout of the remote bank, see {@link RoundTripEstimator},
+	 * which is doubled if any transfer expired.
+	 * All expired transfers are refunded in one batch.
 	 */
 	protected void checkAndCompensateExpiredTransactions() {
+		long timeout = roundTrips.getTimeout(remoteBic);
+		boolean expired = false;
 		synchronized (transactionTable) {
-			// Check for each transaction
-			for (Entry<String, Transaction> e : transactionTable.list()) {
-				String id = e.getKey();
+			// Only the expired transactions are read, the table scans the others without creating objects
+			for (Entry<String, Transaction> e : transactionTable.listStartedBefore(System.currentTimeMillis() - timeout)) {
 				Transaction trx = e.getValue();
 
-				// Check if transaction is expired
-				if (TransactionTable.isTransactionExpired(trx)) {
-					this.compensate(trx);
-					try {
-						transactionTable.remove(id);
-					} catch (UnknownTransactionException e1) {}
+				// Balance requests back off by themselves
+				expired |= trx.amount != 0;
+				if (trx.amount != 0) {
+					compensator.add(e.getKey(), trx);
+				}
+				else {
+					removeTransaction(e.getKey());
 				}
 			}
+			compensate();
+		}
+		
+		if (expired) {
+			roundTrips.backoff(remoteBic);
+			admission.decrease(remoteBic);
 		}
 	}
 	
 	/**
-	 * Compensates a failed transaction by doing a local deposit.
-	 *
-	 * @param trx the transaction
+	 * Refunds the transactions that were added to the {@link Compensator} in one batch and removes them from the table.
+	 * If the refund fails, the transactions that were not refunded stay in the table
+	 * and the compensator retries them with its next batch.
 	 */
-	protected void compensate(Transaction trx) {
-		if (trx.amount == 0) {
-			// if amount is zero, nothing to do
-			return;
-		}
-		
-		try {
-			localDeposit(trx.iban, trx.amount);
-		} catch (UnknownAccountException e) {
-			// Should never happen, because we already successfully executed withdraw
-			System.err.println("Warning: trying to compensate a failed transaction on an unknown account.");
-		} catch (IllegalOperationException e) {
-			// Should never happen, because we already successfully executed withdraw
-			System.err.println("Warning: trying to compensate a failed transaction with a negative amount.");
+	protected void compensate() {
+		for (String trId : compensator.flush()) {
+			removeTransaction(trId);
+			admission.release(remoteBic);
 		}
 	}
 	
@@ -458,18 +1192,94 @@ public class BankServer extends Thread {
 	 * @throws UnknownAccountException If local account is unknown
 	 * @throws AccountOverdrawException If local account has insufficient funds
 	 * @throws IllegalOperationException If the amount is negative or zero
+	 * 	or if too many transfers to {@code toBic} are in flight ({@link InFlightLimitException})
 	 * @throws UnknownBicException If {@code toBic} is unknown
 	 */
-	public synchronized void transfer(String toBic, String fromIban, String toIban, double amount)
+	public void transfer(String toBic, String fromIban, String toIban, double amount)
 			throws IllegalOperationException, UnknownAccountException, AccountOverdrawException, UnknownBicException {
 
 		if (amount <= 0) {
 			throw new IllegalOperationException("The amount to transfer must be > 0!");
 		}
 
-		String trId = transactionTable.put(new Transaction(fromIban, amount));
-		withdraw(fromIban, amount);
-		deposit(trId, toBic, toIban, amount);
+		if (this.bic.equals(toBic)) {
+			localTransfer(fromIban, toIban, amount);
+		}
+		else {
+			remoteTransfer(toBic, fromIban, toIban, amount);
+		}
+	}
+	
+	/**
+	 * Transfers between two local accounts with one atomic database operation.
+	 * There is no result to wait for, so no transaction is recorded.
+	 * 
+	 * @param fromIban local account to withdraw from
+	 * @param toIban local account to deposit to
+	 * @param amount transfer amount
+	 * @throws UnknownAccountException If one of the accounts is unknown
+	 * @throws AccountOverdrawException If {@code fromIban} has insufficient funds
+	 */
+	protected void localTransfer(String fromIban, String toIban, double amount) throws UnknownAccountException, AccountOverdrawException {
+		if (this.database.isThreadSafe()) {
+			this.database.transfer(fromIban, toIban, amount);
+		}
+		else {
+			synchronized (database) {
+				this.database.transfer(fromIban, toIban, amount);
+			}
+		}
+	}
+	
+	/**
+	 * Withdraws locally and sends the deposit to the remote bank.
+	 * The transaction is recorded until its result arrives or it expires and is compensated.
+	 * In netting mode, the deposit is sent with the settlement of the current window, see {@link DepositNetting}.
+	 * It takes a credit of the remote bank's in-flight window first, see {@link AdmissionControl}.
+	 * 
+	 * @throws InFlightLimitException If too many transfers to the remote bank are in flight, nothing was withdrawn
+	 */
+	protected void remoteTransfer(String toBic, String fromIban, String toIban, double amount)
+			throws IllegalOperationException, UnknownAccountException, AccountOverdrawException, UnknownBicException {
+		if (!remoteBic.equals(toBic)) {
+			throw new UnknownBicException(toBic);
+		}
+		
+		// Wait for a credit without holding the monitor, results keep returning credits meanwhile
+		admission.acquire(toBic);
+		synchronized (this) {
+			String trId = null;
+			try {
+				trId = transactionTable.put(new Transaction(fromIban, amount));
+				withdraw(fromIban, amount);
+			} catch (IllegalOperationException | UnknownAccountException | AccountOverdrawException | RuntimeException e) {
+				// Nothing was withdrawn, so the transaction must not be compensated when it expires
+				if (trId != null) {
+					removeTransaction(trId);
+				}
+				admission.release(toBic);
+				throw e;
+			}
+			if (netting != null) {
+				netting.add(trId, toIban, amount);
+			}
+			else {
+				deposit(trId, toBic, toIban, amount);
+			}
+		}
+	}
+	
+	/**
+	 * Removes a transaction that does not need to be compensated anymore.
+	 * 
+	 * @param trId transaction id
+	 */
+	protected void removeTransaction(String trId) {
+		try {
+			transactionTable.remove(trId);
+		} catch (UnknownTransactionException e) {
+			System.err.println("Warning: could not remove transaction id '" + trId + "' from table");
+		}
 	}
 	
 	/**
@@ -490,14 +1300,13 @@ public class BankServer extends Thread {
 		}
 		
 		// local withdraw		
-		synchronized (database) {
-			// check account balance first
-			double balance = getLocalBalance(iban);
-			if (balance >= amount) {
-				// then withdraw
+		// the database checks the balance in the same step
+		if (this.database.isThreadSafe()) {
+			this.database.withdraw(iban, amount);
+		}
+		else {
+			synchronized (database) {
 				this.database.withdraw(iban, amount);
-			} else {
-				throw new AccountOverdrawException(iban);
 			}
 		}
 
@@ -527,16 +1336,29 @@ public class BankServer extends Thread {
 			throw new UnknownBicException(bic);
 		}
 
-		// Local transfer, non existing iban
-		if (this.bic.equals(bic) && !this.database.listAccounts().contains(iban)) {
-			throw new UnknownAccountException(bic, iban);
-		}
-
 		// Either local deposit or remote
 		if (this.bic.equals(bic)) {
-			localDeposit(iban, amount);
+			boolean deposited;
+			if (this.database.isThreadSafe()) {
+				deposited = this.database.depositIfExists(iban, amount);
+			}
+			else {
+				synchronized (database) {
+					deposited = this.database.depositIfExists(iban, amount);
+				}
+			}
+			
+			// Local transfer, non existing iban
+			if (!deposited) {
+				throw new UnknownAccountException(bic, iban);
+			}
 		} else {
-			remoteRequestQueue.sendMessage(new DepositRequestMessage(trxId, bic, iban, amount));
+			// If sending fails, the transaction expires and gets compensated
+			DepositRequestMessage request = new DepositRequestMessage(trxId, bic, iban, amount);
+			remoteRequestQueue(request).sendAsync(request).exceptionally(e -> {
+				System.err.println("Warning: could not send deposit request of transaction " + trxId + ": " + e);
+				return null;
+			});
 		}
 	}
 
@@ -553,9 +1375,14 @@ public class BankServer extends Thread {
 			throw new IllegalOperationException("The amount to deposit must be positive");
 		}
 		
-		synchronized (database) {
+		if (this.database.isThreadSafe()) {
 			this.database.deposit(iban, amount);
 		}
+		else {
+			synchronized (database) {
+				this.database.deposit(iban, amount);
+			}
+		}
 	}
 	
 	/**
@@ -576,17 +1403,22 @@ public class BankServer extends Thread {
 		if (this.bic.equals(bic)) {
 			return getLocalBalance(iban);
 		} else {
-			String trId = transactionTable.put(new Transaction(iban));
-			remoteRequestQueue.sendMessage(new BalanceRequestMessage(trId, iban));
+			Transaction trx = new Transaction(iban);
+			String trId = transactionTable.put(trx);
+			BalanceRequestMessage request = new BalanceRequestMessage(trId, iban);
+			remoteRequestQueue(request).sendMessage(request);
 
-			// Poll temporary queue for the result
+			// Poll temporary queue for the result until the transaction expires
 			Queue<BalanceResultMessage> tempQueue = new Queue<>(sqs, trId);
+			long deadline = trx.startTime + roundTrips.getTimeout(remoteBic);
+			long retryInterval = roundTrips.getRetryInterval(remoteBic);
 
-			int trExpirationTries = GET_BALANCE_EXPIRATION_TRIES;
-			while (trExpirationTries != 0) {
+			while (true) {
 				BalanceResultMessage balanceResponse = tempQueue.getMessage();
 
 				if (balanceResponse != null) {
+					roundTrips.sample(remoteBic, System.currentTimeMillis() - trx.startTime);
+					removeTransaction(trId);
 					try {
 						tempQueue.close();
 					} catch (IOException e) {
@@ -594,19 +1426,23 @@ public class BankServer extends Thread {
 					}
 
 					return balanceResponse.getBalance();
-				} else {
-					trExpirationTries -= 1;
 				}
 
-				Thread.sleep(GET_BALANCE_EXPIRATION_TRY_INTERVAL);
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					break;
+				}
+				Thread.sleep(Math.min(retryInterval, remaining));
 			}
 
+			roundTrips.backoff(remoteBic);
 			throw new TransactionExpiredException(trId, transactionTable.get(trId));
 		}
 	}
 	
 	/**
-	 * Gets the balance of a local account
+	 * Gets the balance of a local account.
+	 * Does not lock the database, so balance queries do not wait for running transfers.
 	 * 
 	 * @param iban account number
 	 * @return balance of the account
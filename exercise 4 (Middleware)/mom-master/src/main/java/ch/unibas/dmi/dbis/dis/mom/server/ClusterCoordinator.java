@@ -0,0 +1,189 @@
+package ch.unibas.dmi.dbis.dis.mom.server;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Splits the accounts of one bank among the nodes of a cluster, so that several {@link BankServer BankServers}
+ * can serve the same bank identifier. It is a local stand-in for a membership service, all nodes have to run in
+ * the same process.
+ * <br>
+ * The accounts are hashed into a fixed number of partitions, every partition has its own request queue.
+ * The partitions are assigned to the nodes by consistent hashing: every node is placed on a hash ring
+ * {@value #VIRTUAL_NODES} times and a partition belongs to the next node on the ring. When a node joins or leaves,
+ * only the partitions next to its places move. Each partition is owned by exactly one node at a time:
+ * the old owners of the moved partitions are told to stop consuming them ({@link Listener#revoked(Set)})
+ * before the new owners start ({@link Listener#assigned(Set)}).
+ */
+public class ClusterCoordinator {
+	public static final int DEFAULT_PARTITIONS = 16;
+	/**
+	 * Number of places of every node on the ring, which spread the partitions evenly.
+	 */
+	public static final int VIRTUAL_NODES = 64;
+
+	private final int partitions;
+	private final TreeMap<Integer, Integer> ring = new TreeMap<Integer, Integer>();
+	private final Map<Integer, Listener> members = new LinkedHashMap<Integer, Listener>();
+	private int[] owners;
+
+	/**
+	 * @param partitions number of partitions of the accounts
+	 */
+	public ClusterCoordinator(int partitions) {
+		if (partitions < 1) {
+			throw new IllegalArgumentException("There must be at least one partition");
+		}
+		this.partitions = partitions;
+		this.owners = new int[partitions];
+		Arrays.fill(this.owners, -1);
+	}
+
+	/**
+	 * Adds a node to the cluster and rebalances the partitions.
+	 *
+	 * @param node number of the node, which must be unique within the bank
+	 * @param listener gets the partitions of the node
+	 */
+	public synchronized void join(int node, Listener listener) {
+		if (members.containsKey(node)) {
+			throw new IllegalStateException("Node " + node + " already joined");
+		}
+		members.put(node, listener);
+		for (int i = 0; i < VIRTUAL_NODES; i++) {
+			ring.putIfAbsent(hash(node + "#" + i), node);
+		}
+		rebalance();
+	}
+
+	/**
+	 * Removes a node from the cluster and hands its partitions to the remaining nodes.
+	 * This method has no effect if the node is not a member.
+	 *
+	 * @param node number of the node
+	 */
+	public synchronized void leave(int node) {
+		if (!members.containsKey(node)) {
+			return;
+		}
+		ring.values().removeIf(n -> n == node);
+		rebalance();
+		members.remove(node);
+	}
+
+	/**
+	 * @return number of partitions of the accounts
+	 */
+	public int getPartitionCount() {
+		return partitions;
+	}
+
+	/**
+	 * @param iban account number
+	 * @return partition of the account
+	 */
+	public int partitionOf(String iban) {
+		return partitionOf(iban, partitions);
+	}
+
+	/**
+	 * @param key account number or other message group
+	 * @param partitions number of partitions
+	 * @return partition of the key
+	 */
+	public static int partitionOf(String key, int partitions) {
+		return Math.floorMod(hash(key), partitions);
+	}
+
+	/**
+	 * @param partition partition
+	 * @return node that owns the partition or -1 if the cluster is empty
+	 */
+	public synchronized int getOwner(int partition) {
+		return owners[partition];
+	}
+
+	/**
+	 * @param node number of the node
+	 * @return partitions that the node owns
+	 */
+	public synchronized Set<Integer> getPartitions(int node) {
+		Set<Integer> owned = new HashSet<Integer>();
+		for (int p = 0; p < partitions; p++) {
+			if (owners[p] == node) {
+				owned.add(p);
+			}
+		}
+		return owned;
+	}
+
+	private void rebalance() {
+		int[] next = new int[partitions];
+		for (int p = 0; p < partitions; p++) {
+			next[p] = ownerOnRing(p);
+		}
+
+		Map<Integer, Set<Integer>> revoked = new LinkedHashMap<Integer, Set<Integer>>();
+		Map<Integer, Set<Integer>> assigned = new LinkedHashMap<Integer, Set<Integer>>();
+		for (int p = 0; p < partitions; p++) {
+			if (owners[p] != next[p]) {
+				if (owners[p] >= 0) {
+					revoked.computeIfAbsent(owners[p], n -> new HashSet<Integer>()).add(p);
+				}
+				if (next[p] >= 0) {
+					assigned.computeIfAbsent(next[p], n -> new HashSet<Integer>()).add(p);
+				}
+			}
+		}
+
+		// Stop all old owners first, so that no partition is consumed twice
+		for (Entry<Integer, Set<Integer>> e : revoked.entrySet()) {
+			members.get(e.getKey()).revoked(e.getValue());
+		}
+		owners = next;
+		for (Entry<Integer, Set<Integer>> e : assigned.entrySet()) {
+			members.get(e.getKey()).assigned(e.getValue());
+		}
+	}
+
+	private int ownerOnRing(int partition) {
+		if (ring.isEmpty()) {
+			return -1;
+		}
+		Entry<Integer, Integer> next = ring.ceilingEntry(hash("partition#" + partition));
+		return next == null ? ring.firstEntry().getValue() : next.getValue();
+	}
+
+	/**
+	 * Spreads the hash code of a string over all bits, so that similar strings land far apart on the ring.
+	 */
+	private static int hash(String s) {
+		int h = s.hashCode() * 0x9E3779B9;
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		return h ^ h >>> 16;
+	}
+
+	/**
+	 * Gets told which partitions a node owns. The methods are called while the cluster is rebalanced,
+	 * {@link #revoked(Set)} must only return when the node stopped handling the messages of the partitions.
+	 */
+	public interface Listener {
+		/**
+		 * @param partitions partitions that the node does not own anymore
+		 */
+		void revoked(Set<Integer> partitions);
+
+		/**
+		 * @param partitions partitions that the node owns from now on
+		 */
+		void assigned(Set<Integer> partitions);
+	}
+}
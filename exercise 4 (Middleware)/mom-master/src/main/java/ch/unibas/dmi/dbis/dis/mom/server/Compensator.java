@@ -0,0 +1,299 @@
+package ch.unibas.dmi.dbis.dis.mom.server;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import ch.unibas.dmi.dbis.dis.mom.db.IDatabase;
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.queue.Queue;
+
+/**
+ * Collects failed and expired transfers and refunds them in batches.
+ * <br>
+ * {@link #flush()} groups the collected transactions by account and refunds them with one
+ * {@link IDatabase#depositAll(Map, BiConsumer)}, so an outage of the remote bank that lets thousands of transfers expire at once
+ * costs one batched database operation instead of one locked deposit per transfer.
+ * The database reports every refunded account, so if the batch fails partway, only the transactions of the other accounts
+ * are retried and no transaction is refunded twice.
+ * If a log file is given, the refunded transactions are appended to it with one write and forced to disk once (group commit),
+ * so every refund in the database can be traced back to its transaction.
+ * A log record consists of the time, the amount and the length-prefixed UTF-8 transaction id and iban.
+ * <br>
+ * Accounts that were deleted while their transfer was in flight are skipped with a warning.
+ * <br>
+ * A transfer may expire and be refunded although the remote bank deposits it later, e.g. because the request
+ * was delivered again. The refunded transactions are remembered for {@value #RETENTION} ms,
+ * so that {@link #reverse(String)} can take the refund back when such a late result arrives.
+ */
+public class Compensator implements Closeable {
+	/**
+	 * Time in ms that refunded transactions are remembered for {@link #reverse(String)}.
+	 * A deposit request is handled at the latest when it was delivered {@value Queue#DEFAULT_MAX_DELIVERIES} times
+	 * with a visibility timeout of {@value Queue#PREFETCH_VISIBILITY_TIMEOUT} s, after its transfer could take
+	 * up to {@link RoundTripEstimator#MAX_TIMEOUT} ms to expire.
+	 */
+	public static final long RETENTION = RoundTripEstimator.MAX_TIMEOUT
+			+ 1000L * Queue.DEFAULT_MAX_DELIVERIES * Queue.PREFETCH_VISIBILITY_TIMEOUT;
+	private static final int HEADER_SIZE = 8 + 8 + 2 + 2;
+
+	private final IDatabase database;
+	private final FileChannel log;
+	private final Map<String, Transaction> pending = new LinkedHashMap<String, Transaction>();
+	/**
+	 * Refunded transactions in the order of their refund, their start time is the time of the refund.
+	 */
+	private final Map<String, Transaction> refunded = new LinkedHashMap<String, Transaction>();
+
+	/**
+	 * Creates a compensator that does not log the refunds.
+	 *
+	 * @param database the database to refund to
+	 */
+	public Compensator(IDatabase database) {
+		this.database = database;
+		this.log = null;
+	}
+
+	/**
+	 * Opens the log for appending, it is created if it does not exist.
+	 *
+	 * @param database the database to refund to
+	 * @param log the compensation log
+	 * @throws IOException If the log cannot be opened
+	 */
+	public Compensator(IDatabase database, File log) throws IOException {
+		this.database = database;
+		this.log = FileChannel.open(log.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Collects a transaction for the next {@link #flush()}. Balance requests (amount 0) are ignored,
+	 * as well as a transaction that is already collected, so it is refunded only once.
+	 *
+	 * @param trId transaction id
+	 * @param trx the failed or expired transaction
+	 */
+	public synchronized void add(String trId, Transaction trx) {
+		if (trx.amount != 0) {
+			pending.putIfAbsent(trId, trx);
+		}
+	}
+
+	/**
+	 * Drops a collected transaction before it is refunded, because its deposit succeeded after all.
+	 *
+	 * @param trId transaction id
+	 * @return true, if the transaction was collected
+	 */
+	public synchronized boolean cancel(String trId) {
+		return pending.remove(trId) != null;
+	}
+
+	/**
+	 * @param trId transaction id
+	 * @return true, if the transaction was refunded within the last {@value #RETENTION} ms
+	 */
+	public synchronized boolean isRefunded(String trId) {
+		return refunded.containsKey(trId);
+	}
+
+	/**
+	 * Takes back the refund of a transaction whose deposit succeeded after it had been refunded.
+	 * The amount is withdrawn from the account again and logged as a negative refund.
+	 *
+	 * @param trId transaction id
+	 * @return the refunded transaction or null if it was not refunded within the last {@value #RETENTION} ms
+	 * @throws UnknownAccountException If the account was deleted since the refund
+	 * @throws AccountOverdrawException If the account has less than the refund, so it cannot be taken back
+	 */
+	public synchronized Transaction reverse(String trId) throws UnknownAccountException, AccountOverdrawException {
+		Transaction trx = refunded.remove(trId);
+		if (trx == null) {
+			return null;
+		}
+
+		if (database.isThreadSafe()) {
+			database.withdraw(trx.iban, trx.amount);
+		}
+		else {
+			synchronized (database) {
+				database.withdraw(trx.iban, trx.amount);
+			}
+		}
+		writeLog(Collections.singletonMap(trId, new Transaction(trx.iban, -trx.amount)));
+		return trx;
+	}
+
+	/**
+	 * @return number of collected transactions
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Refunds and logs all collected transactions. If the refund fails, the transactions of the accounts that were not
+	 * refunded stay collected and are retried by the next flush.
+	 *
+	 * @return ids of the transactions that were refunded or whose account does not exist anymore
+	 */
+	public synchronized Set<String> flush() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Transaction> itr = refunded.values().iterator(); itr.hasNext() && now - itr.next().startTime > RETENTION;) {
+			itr.remove();
+		}
+		if (pending.isEmpty()) {
+			return Collections.emptySet();
+		}
+		Map<String, Double> amounts = new HashMap<String, Double>();
+		for (Transaction trx : pending.values()) {
+			amounts.merge(trx.iban, trx.amount, Double::sum);
+		}
+
+		// The database may report the accounts from several threads
+		Map<String, Boolean> done = new ConcurrentHashMap<String, Boolean>();
+		try {
+			if (database.isThreadSafe()) {
+				database.depositAll(amounts, done::put);
+			}
+			else {
+				synchronized (database) {
+					database.depositAll(amounts, done::put);
+				}
+			}
+		} catch (RuntimeException e) {
+			System.err.println("Warning: could not refund " + (amounts.size() - done.size())
+					+ " accounts, retrying them with the next batch: " + e);
+		}
+
+		Set<String> ids = new LinkedHashSet<String>();
+		Map<String, Transaction> applied = new LinkedHashMap<String, Transaction>();
+		for (Iterator<Entry<String, Transaction>> itr = pending.entrySet().iterator(); itr.hasNext();) {
+			Entry<String, Transaction> e = itr.next();
+			Boolean exists = done.get(e.getValue().iban);
+			if (exists == null) {
+				continue;
+			}
+			itr.remove();
+			ids.add(e.getKey());
+			if (!exists) {
+				System.err.println("Warning: trying to compensate transaction " + e.getKey()
+						+ " on an unknown account: " + e.getValue().iban);
+				continue;
+			}
+			applied.put(e.getKey(), e.getValue());
+			Transaction trx = new Transaction(e.getValue().iban, e.getValue().amount);
+			trx.startTime = now;
+			refunded.put(e.getKey(), trx);
+		}
+		writeLog(applied);
+		return ids;
+	}
+
+	/**
+	 * Appends records to the log after their refunds were applied. The refunds cannot be retried,
+	 * so a log that cannot be written is only reported.
+	 */
+	private void writeLog(Map<String, Transaction> records) {
+		if (log == null || records.isEmpty()) {
+			return;
+		}
+		try {
+			appendLog(records);
+		} catch (IOException e) {
+			System.err.println("Error: could not log the refunds of " + records.size() + " transactions: " + e);
+		}
+	}
+
+	private void appendLog(Map<String, Transaction> records) throws IOException {
+		long time = System.currentTimeMillis();
+		List<byte[]> encoded = new ArrayList<byte[]>(2 * records.size());
+		int size = 0;
+		for (Entry<String, Transaction> e : records.entrySet()) {
+			byte[] id = e.getKey().getBytes(StandardCharsets.UTF_8);
+			byte[] iban = e.getValue().iban.getBytes(StandardCharsets.UTF_8);
+			encoded.add(id);
+			encoded.add(iban);
+			size += HEADER_SIZE + id.length + iban.length;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		int i = 0;
+		for (Transaction trx : records.values()) {
+			byte[] id = encoded.get(i++);
+			byte[] iban = encoded.get(i++);
+			buffer.putLong(time);
+			buffer.putDouble(trx.amount);
+			buffer.putShort((short) id.length);
+			buffer.put(id);
+			buffer.putShort((short) iban.length);
+			buffer.put(iban);
+		}
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			log.write(buffer);
+		}
+		log.force(false);
+	}
+
+	/**
+	 * Reads a compensation log, a record that was only partially written is ignored.
+	 *
+	 * @param file the compensation log
+	 * @param consumer receives the transaction id and the refunded transaction, its start time is the time of the refund.
+	 * 	A reversed refund has a negative amount, see {@link #reverse(String)}
+	 * @return number of records read
+	 * @throws IOException If the file cannot be read
+	 */
+	public static long read(File file, BiConsumer<String, Transaction> consumer) throws IOException {
+		long count = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				long time = in.readLong();
+				double amount = in.readDouble();
+				byte[] id = new byte[in.readUnsignedShort()];
+				in.readFully(id);
+				byte[] iban = new byte[in.readUnsignedShort()];
+				in.readFully(iban);
+
+				Transaction trx = new Transaction(new String(iban, StandardCharsets.UTF_8), amount);
+				trx.startTime = time;
+				consumer.accept(new String(id, StandardCharsets.UTF_8), trx);
+				count++;
+			}
+		} catch (EOFException e) {
+			// end of the log or a partial record
+		}
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (log != null) {
+			log.close();
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package ch.unibas.dmi.dbis.dis.mom.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import ch.unibas.dmi.dbis.dis.mom.db.TransactionIdGenerator;
+import ch.unibas.dmi.dbis.dis.mom.db.TransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementRequestMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementResultMessage;
+
+/**
+ * Nets the deposits of the transfers to one remote bank over a short window.
+ * <br>
+ * The transfers of a window are added with {@link #add(String, String, double)}. When the window closes,
+ * {@link #poll(long)} returns one {@link SettlementRequestMessage} with one line item per target account,
+ * which carries the sum of all transfers to that account. The transactions of every line are kept until
+ * the {@link SettlementResultMessage} arrives, {@link #complete(SettlementResultMessage)} then tells which transactions
+ * were deposited and which have to be compensated. So two messages are sent per window instead of two per transfer.
+ * <br>
+ * The window must be short compared to the timeout of the transfers, see {@link #MAX_WINDOW}.
+ */
+public class DepositNetting {
+	/**
+	 * Maximum window in ms, so that the transfers of a window are sent long before they expire.
+	 */
+	public static final long MAX_WINDOW = RoundTripEstimator.MIN_TIMEOUT / 2;
+
+	private final String prefix;
+	private final String remoteBic;
+	private final long window;
+	private final TransactionIdGenerator idGenerator;
+
+	private Map<String, Line> open = new LinkedHashMap<String, Line>();
+	private long openedAt;
+	private final Map<String, Settlement> pending = new HashMap<String, Settlement>();
+
+	/**
+	 * @param bic identifier of this bank, used for the settlement ids
+	 * @param remoteBic identifier of the remote bank
+	 * @param window time in ms that transfers are collected
+	 */
+	public DepositNetting(String bic, String remoteBic, long window) {
+		this(bic, TransactionTable.configuredNode(bic), remoteBic, window);
+	}
+
+	/**
+	 * @param bic identifier of this bank, used for the settlement ids
+	 * @param node number of this server among the servers of the bank, which is part of the settlement ids
+	 * @param remoteBic identifier of the remote bank
+	 * @param window time in ms that transfers are collected
+	 */
+	public DepositNetting(String bic, int node, String remoteBic, long window) {
+		if (window < 0 || window > MAX_WINDOW) {
+			throw new IllegalArgumentException("The window must be between 0 and " + MAX_WINDOW + " ms");
+		}
+		// Settlement ids are generated like transaction ids, so they are not reused by earlier runs of the bank server
+		this.prefix = bic + "_settlement_";
+		this.idGenerator = new TransactionIdGenerator(node);
+		this.remoteBic = remoteBic;
+		this.window = window;
+	}
+
+	/**
+	 * Adds the deposit of a transfer to the open window.
+	 *
+	 * @param trId transaction id
+	 * @param iban target account
+	 * @param amount amount to deposit
+	 */
+	public synchronized void add(String trId, String iban, double amount) {
+		if (open.isEmpty()) {
+			openedAt = System.currentTimeMillis();
+		}
+		Line line = open.get(iban);
+		if (line == null) {
+			line = new Line();
+			open.put(iban, line);
+		}
+		line.amount += amount;
+		line.trIds.add(trId);
+	}
+
+	/**
+	 * Closes the open window if it is due.
+	 *
+	 * @param now current time in ms
+	 * @return the settlement of the window or null if it is empty or not due yet
+	 */
+	public synchronized SettlementRequestMessage poll(long now) {
+		if (open.isEmpty() || now - openedAt < window) {
+			return null;
+		}
+
+		String settlementId = prefix + idGenerator.nextId();
+		Map<String, Double> amounts = new LinkedHashMap<String, Double>();
+		for (Entry<String, Line> e : open.entrySet()) {
+			amounts.put(e.getKey(), e.getValue().amount);
+		}
+		pending.put(settlementId, new Settlement(open, now));
+		open = new LinkedHashMap<String, Line>();
+		return new SettlementRequestMessage(settlementId, remoteBic, amounts);
+	}
+
+	/**
+	 * Resolves the transactions of an acknowledged settlement.
+	 *
+	 * @param result the acknowledgement
+	 * @return the transactions or null if the settlement is unknown
+	 */
+	public synchronized Outcome complete(SettlementResultMessage result) {
+		Settlement settlement = pending.remove(result.getTransactionId());
+		if (settlement == null) {
+			return null;
+		}
+
+		Outcome outcome = new Outcome();
+		for (Entry<String, Line> e : settlement.lines.entrySet()) {
+			List<String> trIds = result.hasSucceded(e.getKey()) ? outcome.deposited : outcome.failed;
+			trIds.addAll(e.getValue().trIds);
+		}
+		return outcome;
+	}
+
+	/**
+	 * Forgets settlements that were not acknowledged in time. Their transactions expired and were compensated long ago,
+	 * so {@code maxAge} has to cover results that arrive after that.
+	 *
+	 * @param maxAge time in ms after sending
+	 * @param now current time in ms
+	 * @return number of forgotten settlements
+	 */
+	public synchronized int prune(long maxAge, long now) {
+		int pruned = 0;
+		for (Iterator<Settlement> itr = pending.values().iterator(); itr.hasNext();) {
+			if (now - itr.next().sentAt > maxAge) {
+				itr.remove();
+				pruned++;
+			}
+		}
+		return pruned;
+	}
+
+	/**
+	 * @return number of sent settlements that were not acknowledged yet
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Transactions of an acknowledged settlement.
+	 */
+	public static class Outcome {
+		/**
+		 * Transactions whose deposit succeeded.
+		 */
+		public final List<String> deposited = new ArrayList<String>();
+		/**
+		 * Transactions whose deposit failed and that have to be compensated.
+		 */
+		public final List<String> failed = new ArrayList<String>();
+	}
+
+	/**
+	 * Netted deposits to one account.
+	 */
+	private static class Line {
+		double amount;
+		final List<String> trIds = new ArrayList<String>();
+	}
+
+	private static class Settlement {
+		final Map<String, Line> lines;
+		final long sentAt;
+
+		Settlement(Map<String, Line> lines, long sentAt) {
+			this.lines = lines;
+			this.sentAt = sentAt;
+		}
+	}
+}
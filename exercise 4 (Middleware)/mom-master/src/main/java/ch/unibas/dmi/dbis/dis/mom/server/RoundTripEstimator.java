@@ -0,0 +1,115 @@
+package ch.unibas.dmi.dbis.dis.mom.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the round-trip times of requests per remote bank and derives timeouts from them,
+ * like the retransmission timeout of TCP (RFC 6298).
+ * <br>
+ * The smoothed round-trip time and its variation are updated with every measured round trip.
+ * The timeout is the smoothed time plus four times the variation, bounded by
+ * {@value #MIN_TIMEOUT} and {@value #MAX_TIMEOUT} ms. Until the first round trip of a bank was measured,
+ * the timeout is {@value #INITIAL_TIMEOUT} ms. Every expired request doubles the timeout
+ * until the next round trip is measured, so an overloaded bank does not cause a series of false expirations.
+ */
+public class RoundTripEstimator {
+	public static final long INITIAL_TIMEOUT = 60000;
+	public static final long MIN_TIMEOUT = 1000;
+	public static final long MAX_TIMEOUT = 120000;
+	/**
+	 * Number of polls for a result within a timeout, see {@link #getRetryInterval(String)}.
+	 */
+	public static final int RETRIES = 10;
+	private static final long MIN_RETRY_INTERVAL = 50;
+	private static final double ALPHA = 1.0 / 8;
+	private static final double BETA = 1.0 / 4;
+	private static final int K = 4;
+
+	private final ConcurrentHashMap<String, Estimate> estimates = new ConcurrentHashMap<String, Estimate>();
+
+	/**
+	 * Adds a measured round trip.
+	 *
+	 * @param bic remote bank
+	 * @param roundTrip time in ms from sending the request to handling the result
+	 */
+	public void sample(String bic, long roundTrip) {
+		estimate(bic).sample(Math.max(0, roundTrip));
+	}
+
+	/**
+	 * Doubles the timeout of a bank after a request expired.
+	 *
+	 * @param bic remote bank
+	 */
+	public void backoff(String bic) {
+		estimate(bic).backoff();
+	}
+
+	/**
+	 * @param bic remote bank
+	 * @return time in ms after which a request to the bank expires
+	 */
+	public long getTimeout(String bic) {
+		Estimate estimate = estimates.get(bic);
+		return estimate == null ? INITIAL_TIMEOUT : estimate.getTimeout();
+	}
+
+	/**
+	 * @param bic remote bank
+	 * @return time in ms between two polls for a result, a {@value #RETRIES}th of the timeout
+	 */
+	public long getRetryInterval(String bic) {
+		return Math.max(MIN_RETRY_INTERVAL, getTimeout(bic) / RETRIES);
+	}
+
+	/**
+	 * @param bic remote bank
+	 * @return smoothed round-trip time in ms or -1 if no round trip was measured yet
+	 */
+	public double getSmoothedRoundTrip(String bic) {
+		Estimate estimate = estimates.get(bic);
+		return estimate == null ? -1 : estimate.getSmoothed();
+	}
+
+	private Estimate estimate(String bic) {
+		return estimates.computeIfAbsent(bic, b -> new Estimate());
+	}
+
+	/**
+	 * Round-trip statistics of one bank.
+	 */
+	private static class Estimate {
+		private double smoothed = -1;
+		private double variation;
+		private long timeout = INITIAL_TIMEOUT;
+
+		synchronized void sample(long roundTrip) {
+			if (smoothed < 0) {
+				smoothed = roundTrip;
+				variation = roundTrip / 2.0;
+			}
+			else {
+				variation = (1 - BETA) * variation + BETA * Math.abs(smoothed - roundTrip);
+				smoothed = (1 - ALPHA) * smoothed + ALPHA * roundTrip;
+			}
+			timeout = bound((long) Math.ceil(smoothed + K * variation));
+		}
+
+		synchronized void backoff() {
+			timeout = bound(2 * timeout);
+		}
+
+		synchronized long getTimeout() {
+			return timeout;
+		}
+
+		synchronized double getSmoothed() {
+			return smoothed;
+		}
+
+		private static long bound(long timeout) {
+			return Math.min(MAX_TIMEOUT, Math.max(MIN_TIMEOUT, timeout));
+		}
+	}
+}
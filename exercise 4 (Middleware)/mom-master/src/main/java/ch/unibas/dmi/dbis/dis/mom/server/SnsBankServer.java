@@ -2,21 +2,20 @@ package ch.unibas.dmi.dbis.dis.mom.server;
 
 import ch.unibas.dmi.dbis.dis.mom.exception.*;
 import ch.unibas.dmi.dbis.dis.mom.message.*;
+import ch.unibas.dmi.dbis.dis.mom.queue.AwsClients;
 import ch.unibas.dmi.dbis.dis.mom.queue.Queue;
 import ch.unibas.dmi.dbis.dis.mom.queue.QueueForSns;
 import ch.unibas.dmi.dbis.dis.mom.test.TestUtilities;
 import com.amazonaws.auth.AWSCredentials;
-import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.services.sns.AmazonSNS;
-import com.amazonaws.services.sns.AmazonSNSClientBuilder;
 import com.amazonaws.services.sns.model.CreateTopicRequest;
-import com.amazonaws.services.sns.model.CreateTopicResult;
 import com.amazonaws.services.sns.model.DeleteTopicRequest;
 import com.amazonaws.services.sns.util.Topics;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 // SNS coupled with SQS server
 // The only difference from BankServer is that SNS is used to deliver messages
@@ -29,8 +28,8 @@ public class SnsBankServer extends BankServer {
     Queue<ResultMessage> myResponseQueue;
     private boolean deleteTopicsAfterwards;
     private AmazonSNS sns;
-    private CreateTopicResult myTopic;
-    private CreateTopicResult remoteTopic;
+    private String myTopicArn;
+    private String remoteTopicArn;
 
     public SnsBankServer(String bic, String remoteBic) throws FileNotFoundException, IOException {
         this(bic, remoteBic, true);
@@ -91,18 +90,36 @@ public class SnsBankServer extends BankServer {
         System.out.println("Starting bank server with BIC '" + this.bic + "'.");
 
         while (true) {
-            // Check and handle new request
-            RequestMessage requestMessage = myRequestQueue.getMessage();
+            // Poll both queues at the same time
+            CompletableFuture<List<RequestMessage>> requests = myRequestQueue.receiveAsync();
+            CompletableFuture<List<ResultMessage>> results = myResponseQueue.receiveAsync();
 
-            if (requestMessage != null) {
-                handleRequest(requestMessage);
-                myRequestQueue.deleteMessage(requestMessage);
+            // Check and handle new requests, deletes run in the background
+            for (RequestMessage requestMessage : awaitMessages(requests)) {
+                try {
+                    handleRequest(requestMessage);
+                } catch (RuntimeException e) {
+                    // Let the request be delivered again instead of keeping it invisible
+                    myRequestQueue.releaseLease(requestMessage);
+                    throw e;
+                }
+                myRequestQueue.deleteAsync(requestMessage);
             }
 
             // Check and handle all results
-            List<ResultMessage> resultMessages = myResponseQueue.getMessages();
-            handleResults(resultMessages);
-            myResponseQueue.deleteMessages(resultMessages);
+            List<ResultMessage> resultMessages = awaitMessages(results);
+            try {
+                handleResults(resultMessages);
+            } catch (RuntimeException e) {
+                for (ResultMessage resultMessage : resultMessages) {
+                    myResponseQueue.releaseLease(resultMessage);
+                }
+                throw e;
+            }
+            myResponseQueue.deleteMessagesAsync(resultMessages);
+
+            // Send the deposits of the closed netting window before they can expire
+            sendSettlements();
 
             // Check for expired transactions
             checkAndCompensateExpiredTransactions();
@@ -116,6 +133,9 @@ public class SnsBankServer extends BankServer {
         }
 
         System.out.print("Stopping bank server");
+        myRequestQueue.stopPrefetching();
+        myResponseQueue.stopPrefetching();
+        closeStores();
 
         if (this.deleteQueuesAfterwards) {
             System.out.print(" and deleting our queues...");
@@ -133,44 +153,46 @@ public class SnsBankServer extends BankServer {
         System.out.println(" Done");
 
         if (deleteTopicsAfterwards) {
-            DeleteTopicRequest deleteTopicRequest = new DeleteTopicRequest(myTopic.getTopicArn());
+            resources.removeTopicArn(bic);
+            DeleteTopicRequest deleteTopicRequest = new DeleteTopicRequest(myTopicArn);
             sns.deleteTopic(deleteTopicRequest);
         }
     }
 
     private AmazonSNS createSNS(AWSCredentials awsCredentials) {
         System.out.print("Instantiating SNS client...");
-        AWSStaticCredentialsProvider awsStaticCredentialsProvider = new AWSStaticCredentialsProvider(awsCredentials);
-
-        AmazonSNSClientBuilder amazonSNSClientBuilder = AmazonSNSClientBuilder.standard().withCredentials(awsStaticCredentialsProvider);
-        amazonSNSClientBuilder.setRegion("eu-west-3");
-
+        // Shared with all other servers of this process
+        AmazonSNS sns = AwsClients.getSNS(awsCredentials);
         System.out.println(" Done!");
 
-        return amazonSNSClientBuilder.build();
+        return sns;
     }
 
+    // Both queues are subscribed at the same time
     private void initializeSubscriptions() {
-        String subReqArn = Topics.subscribeQueue(sns, sqs, myTopic.getTopicArn(), myRequestQueue.getUrl());
-        String subRespArn = Topics.subscribeQueue(sns, sqs, myTopic.getTopicArn(), myResponseQueue.getUrl());
+        CompletableFuture<Void> requests = CompletableFuture.runAsync(
+                () -> subscribe(myRequestQueue, REQUEST_ATTR));
+        CompletableFuture<Void> responses = CompletableFuture.runAsync(
+                () -> subscribe(myResponseQueue, RESPONSE_ATTR));
+        CompletableFuture.allOf(requests, responses).join();
+    }
 
-        SNSMessageFilterPolicy fp = new SNSMessageFilterPolicy();
-        fp.addAttribute(REQ_RESP_ATTR_NAME, REQUEST_ATTR);
-        fp.apply(sns, subReqArn);
+    private void subscribe(Queue<?> queue, String attr) {
+        String subArn = Topics.subscribeQueue(sns, sqs, myTopicArn, queue.getUrl());
 
-        SNSMessageFilterPolicy fp2 = new SNSMessageFilterPolicy();
-        fp2.addAttribute(REQ_RESP_ATTR_NAME, RESPONSE_ATTR);
-        fp2.apply(sns, subRespArn);
+        SNSMessageFilterPolicy fp = new SNSMessageFilterPolicy();
+        fp.addAttribute(REQ_RESP_ATTR_NAME, attr);
+        fp.apply(sns, subArn);
     }
 
+    // The ARNs of both topics are resolved at the same time, cached ones are not created again
     private void initializeTopics(boolean clearTopics) {
         System.out.print("Initializing topics...");
 
-        CreateTopicRequest myTopicRequest = new CreateTopicRequest(bic);
-        myTopic = sns.createTopic(myTopicRequest);
-
-        CreateTopicRequest remoteTopicRequest = new CreateTopicRequest(remoteBic);
-        remoteTopic = sns.createTopic(remoteTopicRequest);
+        CompletableFuture<String> myTopic = resolveTopicArn(bic);
+        CompletableFuture<String> remoteTopic = resolveTopicArn(remoteBic);
+        myTopicArn = myTopic.join();
+        remoteTopicArn = remoteTopic.join();
 
         System.out.println(" Done!");
 
@@ -179,50 +201,75 @@ public class SnsBankServer extends BankServer {
         }
     }
 
+    private CompletableFuture<String> resolveTopicArn(String topicName) {
+        String cached = resources.getTopicArn(topicName);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            String arn = sns.createTopic(new CreateTopicRequest(topicName)).getTopicArn();
+            resources.putTopicArn(topicName, arn);
+            return arn;
+        });
+    }
+
+    /**
+     * The queues stay standard queues even if {@value #QUEUE_FIFO_PROPERTY} is set,
+     * because standard SNS topics cannot deliver to FIFO queues.
+     */
     @Override
     void initializeQueues(boolean clearQueues) {
         System.out.print("Initializing queues...");
-        myRequestQueue = new QueueForSns<RequestMessage>(sqs, REQUEST_PREFIX + bic);
-        myResponseQueue = new QueueForSns<ResultMessage>(sqs, RESULT_PREFIX + bic);
-        remoteRequestQueue = new QueueForSns<RequestMessage>(sqs, REQUEST_PREFIX + remoteBic);
-        remoteResponseQueue = new QueueForSns<DepositResultMessage>(sqs, RESULT_PREFIX + remoteBic);
+        resources = createResourceCache();
+        resolveQueueUrls(REQUEST_PREFIX + bic, RESULT_PREFIX + bic, REQUEST_PREFIX + remoteBic, RESULT_PREFIX + remoteBic);
+        myRequestQueue = new QueueForSns<RequestMessage>(sqs, REQUEST_PREFIX + bic, resources);
+        myResponseQueue = new QueueForSns<ResultMessage>(sqs, RESULT_PREFIX + bic, resources);
+        remoteRequestQueue = new QueueForSns<RequestMessage>(sqs, REQUEST_PREFIX + remoteBic, resources);
+        remoteResponseQueue = new QueueForSns<ResultMessage>(sqs, RESULT_PREFIX + remoteBic, resources);
+        myRequestQueue.enableLeaseExtension(MESSAGE_VISIBILITY_TIMEOUT);
+        myResponseQueue.enableLeaseExtension(MESSAGE_VISIBILITY_TIMEOUT);
         System.out.println(" Done!");
 
         if (clearQueues) {
-            System.out.print("Deleting all remaining messages...");
-            myRequestQueue.deleteAllMessages();
-            myResponseQueue.deleteAllMessages();
+            System.out.print("Purging all remaining messages...");
+            purge(myRequestQueue, myResponseQueue);
             System.out.println(" Done!");
         }
+
+        // Only start prefetching now, so that we do not buffer messages that are going to be deleted
+        myRequestQueue.enablePrefetching(PREFETCH_CAPACITY);
+        myResponseQueue.enablePrefetching(PREFETCH_CAPACITY);
     }
 
     // HANDLING
     protected void handleResults(List<ResultMessage> resultMessages) {
         for (ResultMessage msg : resultMessages) {
-            if (msg instanceof DepositResultMessage) {
+            if (msg instanceof SettlementResultMessage) {
+                handleSettlementResult((SettlementResultMessage) msg);
+            } else if (msg instanceof DepositResultMessage) {
                 DepositResultMessage msg1 = (DepositResultMessage) msg;
 
                 String txId = msg.getTransactionId();
 
-                if (!transactionTable.containsId(txId)) {
-                    System.err.println("Warning: Received result of unknown transaction: " + txId
-                            + ", contents of table: " + transactionTable);
+                Transaction trx;
+                try {
+                    trx = transactionTable.get(txId);
+                } catch (UnknownTransactionException e) {
+                    handleLateResult(txId, msg1.hasSucceded());
                     continue;
                 }
+                roundTrips.sample(remoteBic, System.currentTimeMillis() - trx.startTime);
+                admission.increase(remoteBic);
 
-                // If deposit failed, compensate it
+                // If deposit failed, compensate it, the transaction is removed after the refund
                 if (!msg1.hasSucceded()) {
-                    try {
-                        compensate(transactionTable.get(txId));
-                    } catch (UnknownTransactionException e) {
-                        System.err.println("Warning: could not find account while trying to compensate a failed transfer...");
-                    }
-                }
-
-                try {
-                    transactionTable.remove(txId);
-                } catch (UnknownTransactionException e) {
-                    System.err.println("Warning: could not remove transaction id '" + txId + "' from table");
+                    compensator.add(txId, trx);
+                } else {
+                    // An expired transaction may still wait for its refund, because the last batch failed
+                    compensator.cancel(txId);
+                    removeTransaction(txId);
+                    admission.release(remoteBic);
                 }
             } else {
                 BalanceResultMessage msg1 = (BalanceResultMessage) msg;
@@ -241,6 +288,7 @@ public class SnsBankServer extends BankServer {
                 }
             }
         }
+        compensate();
     }
 
     @Override
@@ -265,7 +313,21 @@ public class SnsBankServer extends BankServer {
         SNSMessage msg = new SNSMessage(result.toString());
         msg.addAttribute(REQ_RESP_ATTR_NAME, RESPONSE_ATTR);
 
-        msg.publish(sns, remoteTopic.getTopicArn());
+        msg.publish(sns, remoteTopicArn);
+    }
+
+    @Override
+    protected void sendSettlementResult(SettlementResultMessage result) {
+        SNSMessage msg = new SNSMessage(result.toString());
+        msg.addAttribute(REQ_RESP_ATTR_NAME, RESPONSE_ATTR);
+        msg.publish(sns, remoteTopicArn);
+    }
+
+    @Override
+    protected void sendSettlement(SettlementRequestMessage settlement) {
+        SNSMessage msg = new SNSMessage(settlement.toString());
+        msg.addAttribute(REQ_RESP_ATTR_NAME, REQUEST_ATTR);
+        msg.publish(sns, remoteTopicArn);
     }
 
     @Override
@@ -283,7 +345,7 @@ public class SnsBankServer extends BankServer {
 
         SNSMessage msg = new SNSMessage(result.toString());
         msg.addAttribute(REQ_RESP_ATTR_NAME, RESPONSE_ATTR);
-        msg.publish(sns, remoteTopic.getTopicArn());
+        msg.publish(sns, remoteTopicArn);
     }
 
     @Override
@@ -296,18 +358,25 @@ public class SnsBankServer extends BankServer {
             throw new UnknownBicException(bic);
         }
 
-        // Local transfer, non existing iban
-        if (this.bic.equals(bic) && !this.database.listAccounts().contains(iban)) {
-            throw new UnknownAccountException(bic, iban);
-        }
-
         // Either local deposit or remote
         if (this.bic.equals(bic)) {
-            localDeposit(iban, amount);
+            boolean deposited;
+            if (this.database.isThreadSafe()) {
+                deposited = this.database.depositIfExists(iban, amount);
+            } else {
+                synchronized (database) {
+                    deposited = this.database.depositIfExists(iban, amount);
+                }
+            }
+
+            // Local transfer, non existing iban
+            if (!deposited) {
+                throw new UnknownAccountException(bic, iban);
+            }
         } else {
             SNSMessage msg = new SNSMessage(new DepositRequestMessage(trxId, bic, iban, amount).toString());
             msg.addAttribute(REQ_RESP_ATTR_NAME, REQUEST_ATTR);
-            msg.publish(sns, remoteTopic.getTopicArn());
+            msg.publish(sns, remoteTopicArn);
         }
     }
 
@@ -320,25 +389,34 @@ public class SnsBankServer extends BankServer {
         if (this.bic.equals(bic)) {
             return getLocalBalance(iban);
         } else {
-            String trId = transactionTable.put(new Transaction(iban));
+            Transaction trx = new Transaction(iban);
+            String trId = transactionTable.put(trx);
 
             SNSMessage msg = new SNSMessage(new BalanceRequestMessage(trId, iban).toString());
             msg.addAttribute(REQ_RESP_ATTR_NAME, REQUEST_ATTR);
-            msg.publish(sns, remoteTopic.getTopicArn());
+            msg.publish(sns, remoteTopicArn);
 
-            int trExpirationTries = GET_BALANCE_EXPIRATION_TRIES;
-            while (trExpirationTries != 0) {
+            // Poll for the result until the transaction expires
+            long deadline = trx.startTime + roundTrips.getTimeout(remoteBic);
+            long retryInterval = roundTrips.getRetryInterval(remoteBic);
+            while (true) {
 
                 if (transactionTable.containsId(trId) && transactionTable.get(trId).amount != 0.0) {
                     Transaction transaction = transactionTable.get(trId);
+                    roundTrips.sample(remoteBic, System.currentTimeMillis() - trx.startTime);
+                    // The balance is stored as amount, it must not be compensated when the transaction expires
+                    removeTransaction(trId);
                     return transaction.amount;
-                } else {
-                    trExpirationTries -= 1;
                 }
 
-                Thread.sleep(GET_BALANCE_EXPIRATION_TRY_INTERVAL);
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                Thread.sleep(Math.min(retryInterval, remaining));
             }
 
+            roundTrips.backoff(remoteBic);
             throw new TransactionExpiredException(trId, transactionTable.get(trId));
         }
     }
@@ -0,0 +1,77 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.AccountAudit;
+import ch.unibas.dmi.dbis.dis.mom.db.AccountSnapshot;
+import ch.unibas.dmi.dbis.dis.mom.db.ITransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.db.SimpleDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.SimpleTransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * JUnitTest that tests the reconciliation of accounts and in-flight transfers with {@link AccountAudit}.
+ */
+public class AccountAuditTest {
+	private static final String BIC = "accountAuditTest";
+	private static final int ACCOUNTS = 200000;
+	private static final double DELTA = 0.001;
+	private SimpleDatabase database;
+	private ITransactionTable transactionTable;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new SimpleDatabase(BIC);
+		transactionTable = new SimpleTransactionTable(BIC);
+		// Spans several partitions of the snapshot
+		for (int i = 0; i < ACCOUNTS; i++) {
+			database.addAccount("iban" + i, 0.1);
+		}
+	}
+
+	@Test
+	public void testConservedMoney() throws Exception {
+		database.withdraw("iban0", 0.05);
+		transactionTable.put(new Transaction("iban0", 0.05));
+		// Balance requests do not move money
+		transactionTable.put(new Transaction("iban1"));
+
+		AccountAudit.Report report = audit();
+		assertTrue(report.getDiscrepancies().toString(), report.isConsistent());
+		assertEquals(ACCOUNTS, report.getAccounts());
+		assertEquals(1, report.getInFlightCount());
+		assertEquals(ACCOUNTS * 0.1 - 0.05, report.getTotal(), DELTA);
+		assertEquals(ACCOUNTS * 0.1, report.getHoldings(), DELTA);
+		assertTrue(AccountAudit.checkConservation(ACCOUNTS * 0.1, DELTA, report).isEmpty());
+	}
+
+	@Test
+	public void testDiscrepancies() throws Exception {
+		database.addAccount("negative", -1);
+		transactionTable.put(new Transaction("unknown", 5));
+
+		AccountAudit.Report report = audit();
+		assertEquals(2, report.getDiscrepancyCount());
+		assertEquals(2, report.getDiscrepancies().size());
+		assertEquals(1, AccountAudit.checkConservation(ACCOUNTS * 0.1, DELTA, report).size());
+	}
+
+	@Test
+	public void testReportedDiscrepanciesAreBounded() throws Exception {
+		for (int i = 0; i < 2 * AccountAudit.MAX_REPORTED; i++) {
+			database.addAccount("negative" + i, -1);
+		}
+
+		AccountAudit.Report report = audit();
+		assertEquals(2 * AccountAudit.MAX_REPORTED, report.getDiscrepancyCount());
+		assertEquals(AccountAudit.MAX_REPORTED, report.getDiscrepancies().size());
+	}
+
+	private AccountAudit.Report audit() {
+		try (AccountSnapshot snapshot = database.snapshot()) {
+			return new AccountAudit().audit(snapshot, transactionTable);
+		}
+	}
+}
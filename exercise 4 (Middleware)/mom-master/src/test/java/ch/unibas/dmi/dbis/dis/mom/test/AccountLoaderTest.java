@@ -0,0 +1,91 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.AccountLoader;
+import ch.unibas.dmi.dbis.dis.mom.db.IDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.MappedDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.ShardedDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.SimpleDatabase;
+
+/**
+ * JUnitTest that tests the parallel bulk loading of accounts with {@link AccountLoader}.
+ */
+public class AccountLoaderTest {
+	private static final String BIC = "accountLoaderTest";
+	private static final int ACCOUNTS = 100000;
+	private static final double DELTA = 0.001;
+	private File csv;
+
+	@Before
+	public void setUp() throws Exception {
+		csv = File.createTempFile(BIC, ".csv");
+		try (BufferedWriter writer = new BufferedWriter(new FileWriter(csv))) {
+			writer.write("iban,balance\n");
+			writer.write("# comment\n");
+			for (int i = 0; i < ACCOUNTS; i++) {
+				writer.write("iban" + i + "," + i + ".5" + (i % 2 == 0 ? "\n" : "\r\n"));
+				if (i % 10000 == 0) {
+					writer.write("broken line\n\n");
+				}
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		csv.delete();
+	}
+
+	@Test
+	public void testLoadSimpleDatabase() throws Exception {
+		check(new SimpleDatabase(BIC));
+	}
+
+	@Test
+	public void testLoadShardedDatabase() throws Exception {
+		ShardedDatabase database = new ShardedDatabase(BIC, 4);
+		try {
+			check(database);
+		} finally {
+			database.close();
+		}
+	}
+
+	@Test
+	public void testLoadMappedDatabase() throws Exception {
+		File file = File.createTempFile(BIC, ".accounts");
+		file.delete();
+		MappedDatabase database = new MappedDatabase(BIC, file, 2 * ACCOUNTS);
+		try {
+			check(database);
+		} finally {
+			database.close();
+			file.delete();
+		}
+	}
+
+	private void check(IDatabase database) throws IOException, Exception {
+		database.addAccount("iban7", 1);
+
+		AccountLoader loader = new AccountLoader(database, 4);
+		loader.load(csv);
+		assertEquals(ACCOUNTS - 1, loader.getAdded());
+		assertEquals(1, loader.getSkipped());
+		// header and broken lines
+		assertEquals(1 + ACCOUNTS / 10000, loader.getMalformed());
+
+		assertEquals(ACCOUNTS, database.listAccounts().size());
+		assertEquals(1, database.getBalance("iban7"), DELTA);
+		assertEquals(0.5, database.getBalance("iban0"), DELTA);
+		assertEquals(12345.5, database.getBalance("iban12345"), DELTA);
+		assertEquals(ACCOUNTS - 0.5, database.getBalance("iban" + (ACCOUNTS - 1)), DELTA);
+	}
+}
@@ -0,0 +1,111 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.exception.InFlightLimitException;
+import ch.unibas.dmi.dbis.dis.mom.server.AdmissionControl;
+
+/**
+ * JUnitTest that tests the in-flight windows of {@link AdmissionControl}.
+ */
+public class AdmissionControlTest {
+	private static final String BIC = "remote";
+	private static final int LIMIT = 8;
+
+	@Test
+	public void testRejectWhenFull() throws Exception {
+		AdmissionControl admission = new AdmissionControl(LIMIT, 0);
+		for (int i = 0; i < LIMIT; i++) {
+			admission.acquire(BIC);
+		}
+		assertEquals(LIMIT, admission.getInFlight(BIC));
+		try {
+			admission.acquire(BIC);
+			fail("The window was full");
+		} catch (InFlightLimitException e) {
+			assertEquals(BIC, e.getBic());
+		}
+
+		// Other banks have their own window
+		admission.acquire("other");
+		admission.release(BIC);
+		admission.acquire(BIC);
+	}
+
+	@Test
+	public void testWaitForCredit() throws Exception {
+		AdmissionControl admission = new AdmissionControl(1, 10000);
+		admission.acquire(BIC);
+		Thread releaser = new Thread(() -> {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {}
+			admission.release(BIC);
+		});
+		releaser.start();
+
+		long start = System.currentTimeMillis();
+		admission.acquire(BIC);
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		assertEquals(1, admission.getInFlight(BIC));
+		releaser.join();
+	}
+
+	@Test
+	public void testWindowAdapts() throws Exception {
+		AdmissionControl admission = new AdmissionControl(LIMIT, 0);
+		admission.decrease(BIC);
+		assertEquals(LIMIT / 2, admission.getLimit(BIC));
+		for (int i = 0; i < 10; i++) {
+			admission.decrease(BIC);
+		}
+		assertEquals(AdmissionControl.MIN_LIMIT, admission.getLimit(BIC));
+
+		// One credit per window of answered transfers
+		admission.increase(BIC);
+		assertEquals(2, admission.getLimit(BIC));
+		for (int i = 0; i < 100; i++) {
+			admission.increase(BIC);
+		}
+		assertEquals(LIMIT, admission.getLimit(BIC));
+	}
+
+	@Test
+	public void testSlowStartAfterOutage() throws Exception {
+		AdmissionControl admission = new AdmissionControl(AdmissionControl.DEFAULT_LIMIT, 0);
+		// Every round of a long outage halves the window, but only the first one lowers the threshold
+		for (int i = 0; i < 20; i++) {
+			admission.decrease(BIC);
+		}
+		assertEquals(AdmissionControl.MIN_LIMIT, admission.getLimit(BIC));
+		int threshold = admission.getThreshold(BIC);
+		assertEquals(AdmissionControl.DEFAULT_LIMIT / 2, threshold);
+
+		// One credit per answered transfer up to the threshold
+		for (int i = AdmissionControl.MIN_LIMIT; i < threshold; i++) {
+			admission.increase(BIC);
+		}
+		assertEquals(threshold, admission.getLimit(BIC));
+		admission.increase(BIC);
+		assertEquals(threshold, admission.getLimit(BIC));
+	}
+
+	@Test
+	public void testRestore() throws Exception {
+		AdmissionControl admission = new AdmissionControl(LIMIT, 0);
+		admission.restore(BIC, LIMIT + 2);
+		assertEquals(LIMIT + 2, admission.getInFlight(BIC));
+		admission.release(BIC);
+		admission.release(BIC);
+		try {
+			admission.acquire(BIC);
+			fail("The restored transfers fill the window");
+		} catch (InFlightLimitException e) {
+			// expected
+		}
+		admission.release(BIC);
+		admission.acquire(BIC);
+	}
+}
@@ -2,6 +2,10 @@ package ch.unibas.dmi.dbis.dis.mom.test;
 
 import static org.junit.Assert.*;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -12,6 +16,8 @@ import ch.unibas.dmi.dbis.dis.mom.message.BalanceResultMessage;
 import ch.unibas.dmi.dbis.dis.mom.message.BankMessage;
 import ch.unibas.dmi.dbis.dis.mom.message.DepositRequestMessage;
 import ch.unibas.dmi.dbis.dis.mom.message.DepositResultMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementRequestMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementResultMessage;
 
 /**
  * This class tests the parsing functions of the {@link BankMessage} implementations.
@@ -91,4 +97,41 @@ public class BankMessageTest {
 			assertEquals("Success variable is wrong", success, parsed.hasSucceded());
 		}
 	}
+	
+	@Test
+	public void settlementRequestMessage() {
+		Map<String, Double> amounts = new LinkedHashMap<String, Double>();
+		amounts.put(IBAN, DOUBLE);
+		amounts.put(IBAN + 2, 0.5);
+		BankMessage parsedBankMessage = parse(new SettlementRequestMessage(TX_ID, BIC, amounts));
+		
+		assertTrue("Parsed message is wrong class", parsedBankMessage instanceof SettlementRequestMessage);
+		SettlementRequestMessage parsed = (SettlementRequestMessage) parsedBankMessage;
+		assertTransactionId(parsed);
+		assertEquals("bic is wrong", BIC, parsed.getBic());
+		assertEquals("line items are wrong", amounts, parsed.getAmounts());
+	}
+	
+	@Test
+	public void settlementResultMessage() {
+		BankMessage parsedBankMessage = parse(new SettlementResultMessage(TX_ID, Collections.singleton(IBAN)));
+		
+		assertTrue("Parsed message is wrong class", parsedBankMessage instanceof SettlementResultMessage);
+		SettlementResultMessage parsed = (SettlementResultMessage) parsedBankMessage;
+		assertTransactionId(parsed);
+		assertFalse("Failed line item is wrong", parsed.hasSucceded(IBAN));
+		assertTrue("Successful line item is wrong", parsed.hasSucceded(IBAN + 2));
+		
+		parsed = (SettlementResultMessage) parse(new SettlementResultMessage(TX_ID, Collections.<String>emptySet()));
+		assertTrue("No line item failed", parsed.getFailedIbans().isEmpty());
+	}
+	
+	@Test
+	public void testGroupId() {
+		assertEquals("Deposits are not grouped by account", IBAN, parse(new DepositRequestMessage(TX_ID, BIC, IBAN, DOUBLE)).getGroupId());
+		assertEquals("Balance requests are not grouped by account", IBAN, parse(new BalanceRequestMessage(TX_ID, IBAN)).getGroupId());
+		assertEquals("Settlements are not grouped by bank", BIC,
+				parse(new SettlementRequestMessage(TX_ID, BIC, Collections.singletonMap(IBAN, DOUBLE))).getGroupId());
+		assertEquals("Results are not grouped by transaction", TX_ID, parse(new DepositResultMessage(TX_ID, true)).getGroupId());
+	}
 }
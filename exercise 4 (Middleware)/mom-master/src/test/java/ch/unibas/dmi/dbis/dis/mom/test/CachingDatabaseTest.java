@@ -0,0 +1,166 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.AccountSnapshot;
+import ch.unibas.dmi.dbis.dis.mom.db.CachingDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.SimpleDatabase;
+
+/**
+ * JUnitTest that tests the write-behind and eviction of {@link CachingDatabase}.
+ */
+public class CachingDatabaseTest {
+	private static final String BIC = "cachingDatabaseTest";
+	private static final int CACHE_SIZE = 100;
+	private static final double DELTA = 0.001;
+	private SimpleDatabase store;
+	private CachingDatabase database;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new SimpleDatabase(BIC);
+		// Flush manually only
+		database = new CachingDatabase(store, CACHE_SIZE, Long.MAX_VALUE / 2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	public void testWriteBehind() throws Exception {
+		database.addAccount("test", 100);
+		assertEquals("Accounts must be added write-through", 100, store.getBalance("test"), DELTA);
+
+		for (int i = 0; i < 10; i++) {
+			database.deposit("test", 10);
+		}
+		database.withdraw("test", 50);
+		assertEquals(150, database.getBalance("test"), DELTA);
+		assertEquals("Changes must not be written before a flush", 100, store.getBalance("test"), DELTA);
+
+		database.flush();
+		assertEquals(150, store.getBalance("test"), DELTA);
+	}
+
+	@Test
+	public void testSnapshotContainsPendingChanges() throws Exception {
+		database.addAccount("test", 100);
+		database.deposit("test", 10);
+
+		AccountSnapshot snapshot = database.snapshot();
+		double[] balance = new double[1];
+		snapshot.forEach((iban, b) -> balance[0] = b);
+		snapshot.close();
+		assertEquals(110, balance[0], DELTA);
+		assertEquals(110, store.getBalance("test"), DELTA);
+	}
+
+	@Test
+	public void testScanKeepsHotAccounts() throws Exception {
+		for (int i = 0; i < 10 * CACHE_SIZE; i++) {
+			store.addAccount("cold" + i, i);
+		}
+		store.addAccount("hot", 0);
+		for (int i = 0; i < 10; i++) {
+			database.getBalance("hot");
+		}
+
+		// One access of many cold accounts must not displace the hot one
+		for (int i = 0; i < 10 * CACHE_SIZE; i++) {
+			assertEquals(i, database.getBalance("cold" + i), DELTA);
+		}
+		assertTrue(database.size() <= CACHE_SIZE);
+
+		store.deposit("hot", 1);
+		assertEquals("Hot account must still be cached", 0, database.getBalance("hot"), DELTA);
+	}
+
+	@Test
+	public void testPendingChangesAreNotEvicted() throws Exception {
+		for (int i = 0; i < 10 * CACHE_SIZE; i++) {
+			store.addAccount("test" + i, 0);
+		}
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			database.deposit("test" + i, 1);
+		}
+		assertEquals(CACHE_SIZE, database.size());
+		assertEquals("Changes must not be written before the cache is full", 0, store.getBalance("test0"), DELTA);
+
+		// The cache is full of pending changes, every further account flushes them first
+		for (int i = CACHE_SIZE; i < 10 * CACHE_SIZE; i++) {
+			database.deposit("test" + i, 1);
+			assertTrue("The cache grew to " + database.size(), database.size() <= CACHE_SIZE + 1);
+		}
+		assertEquals(1, store.getBalance("test0"), DELTA);
+
+		database.flush();
+		assertTrue(database.size() <= CACHE_SIZE);
+		for (int i = 0; i < 10 * CACHE_SIZE; i++) {
+			assertEquals(1, store.getBalance("test" + i), DELTA);
+			assertEquals(1, database.getBalance("test" + i), DELTA);
+		}
+	}
+
+	@Test
+	public void testPartiallyFailedFlush() throws Exception {
+		FailingStore failing = new FailingStore();
+		CachingDatabase cache = new CachingDatabase(failing, CACHE_SIZE, Long.MAX_VALUE / 2);
+		cache.addAccount("test1", 0);
+		cache.addAccount("test2", 0);
+		cache.deposit("test1", 10);
+		cache.deposit("test2", 20);
+
+		// The store applies the first account and fails
+		try {
+			cache.flush();
+			fail("The flush did not fail");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		cache.flush();
+		assertEquals("Every change must be written exactly once", 10, failing.getBalance("test1"), DELTA);
+		assertEquals(20, failing.getBalance("test2"), DELTA);
+		assertEquals(10, cache.getBalance("test1"), DELTA);
+		cache.close();
+	}
+
+	@Test
+	public void testDeleteDropsPendingChanges() throws Exception {
+		database.addAccount("test", 0);
+		database.deposit("test", 10);
+		database.deleteAccount("test");
+		database.flush();
+		assertFalse(store.containsAccount("test"));
+		assertFalse(database.containsAccount("test"));
+	}
+
+	/**
+	 * Store whose first batch fails after the first account.
+	 */
+	private static class FailingStore extends SimpleDatabase {
+		private boolean failed;
+
+		FailingStore() {
+			super(BIC);
+		}
+
+		@Override
+		public void depositAll(Map<String, Double> amounts, BiConsumer<String, Boolean> done) {
+			if (!failed) {
+				failed = true;
+				Map.Entry<String, Double> first = amounts.entrySet().iterator().next();
+				super.depositAll(Collections.singletonMap(first.getKey(), first.getValue()), done);
+				throw new IllegalStateException("Storage unavailable");
+			}
+			super.depositAll(amounts, done);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeCaptureDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeEvent;
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeEvent.Type;
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeLogWriter;
+import ch.unibas.dmi.dbis.dis.mom.db.ChangeRing;
+import ch.unibas.dmi.dbis.dis.mom.db.SimpleDatabase;
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+
+/**
+ * JUnitTest that tests the publishing of account changes by {@link ChangeCaptureDatabase} and {@link ChangeRing}.
+ */
+public class ChangeCaptureDatabaseTest {
+	private static final String BIC = "changeCaptureTest";
+	private static final double DELTA = 0.001;
+
+	@Test
+	public void testConcurrentPublishers() throws Exception {
+		final int publishers = 4;
+		final int events = 100000;
+		// Much smaller than the number of events, so publishers have to wait for the subscribers
+		ChangeRing ring = new ChangeRing(64);
+
+		long[] sums = new long[2];
+		long[] last = new long[] { -1, -1 };
+		boolean[] ordered = new boolean[] { true, true };
+		List<ChangeRing.Subscription> subscriptions = new ArrayList<ChangeRing.Subscription>();
+		for (int s = 0; s < 2; s++) {
+			final int subscriber = s;
+			subscriptions.add(ring.subscribe(batch -> {
+				for (ChangeEvent event : batch) {
+					ordered[subscriber] &= event.getSequence() == last[subscriber] + 1;
+					last[subscriber] = event.getSequence();
+					sums[subscriber] += (long) event.getAmount();
+				}
+			}, 16));
+		}
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < publishers; p++) {
+			Thread t = new Thread(() -> {
+				for (int i = 0; i < events; i++) {
+					ring.publish(Type.DEPOSIT, "iban", 1);
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		ring.close();
+
+		for (int s = 0; s < 2; s++) {
+			assertTrue(ordered[s]);
+			assertEquals(publishers * events - 1, subscriptions.get(s).getSequence());
+			assertEquals(publishers * events, sums[s]);
+		}
+	}
+
+	@Test
+	public void testChangeLog() throws Exception {
+		File file = File.createTempFile(BIC, ".changes");
+		try {
+			ChangeCaptureDatabase database = new ChangeCaptureDatabase(new SimpleDatabase(BIC));
+			database.getChanges().subscribe(new ChangeLogWriter(file, true));
+
+			database.addAccount("test", 10);
+			database.deposit("test", 5);
+			try {
+				database.withdraw("test", 100);
+				fail();
+			} catch (AccountOverdrawException e) {
+				// Failed changes are not published
+			}
+			assertFalse(database.depositIfExists("unknown", 1));
+			database.withdraw("test", 15);
+			database.deleteAccount("test");
+			database.close();
+
+			List<String> events = new ArrayList<String>();
+			assertEquals(4, ChangeLogWriter.read(file, event -> {
+				assertEquals(events.size(), event.getSequence());
+				assertEquals("test", event.getIban());
+				events.add(event.getType() + " " + event.getAmount());
+			}));
+			assertEquals(Type.ADD + " 10.0", events.get(0));
+			assertEquals(Type.DEPOSIT + " 5.0", events.get(1));
+			assertEquals(Type.WITHDRAW + " 15.0", events.get(2));
+			assertEquals(Type.DELETE + " 0.0", events.get(3));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testFailedBatchIsRetried() throws Exception {
+		ChangeRing ring = new ChangeRing(8);
+		int[] failures = new int[1];
+		List<Long> handled = new ArrayList<Long>();
+		ChangeRing.Subscription subscription = ring.subscribe(batch -> {
+			if (failures[0] < 2) {
+				failures[0]++;
+				throw new IllegalStateException("Listener is not ready");
+			}
+			for (ChangeEvent event : batch) {
+				handled.add(event.getSequence());
+			}
+		});
+
+		for (int i = 0; i < 20; i++) {
+			ring.publish(Type.DEPOSIT, "iban", 1);
+		}
+		ring.close();
+
+		assertNull(subscription.getFailure());
+		assertEquals(20, handled.size());
+		for (int i = 0; i < handled.size(); i++) {
+			assertEquals("Events were lost or handled twice", i, (long) handled.get(i));
+		}
+	}
+
+	@Test
+	public void testFailingListenerStopsSubscription() throws Exception {
+		ChangeRing ring = new ChangeRing(4);
+		IllegalStateException failure = new IllegalStateException("Disk full");
+		ChangeRing.Subscription subscription = ring.subscribe(batch -> {
+			throw failure;
+		});
+
+		// Publishers must not wait for the stopped subscriber once the ring is full
+		for (int i = 0; i < 100; i++) {
+			ring.publish(Type.DEPOSIT, "iban", 1);
+		}
+		ring.close();
+
+		assertSame(failure, subscription.getFailure());
+		assertEquals("The failed batch was skipped", -1, subscription.getSequence());
+	}
+
+	@Test
+	public void testPublishingWithoutSubscriber() throws Exception {
+		ChangeCaptureDatabase database = new ChangeCaptureDatabase(new SimpleDatabase(BIC), 4);
+		database.addAccount("test", 0);
+		// Publishing must not block if nobody listens
+		for (int i = 0; i < 100; i++) {
+			database.deposit("test", 1);
+		}
+		assertEquals(100, database.getBalance("test"), DELTA);
+		database.close();
+	}
+}
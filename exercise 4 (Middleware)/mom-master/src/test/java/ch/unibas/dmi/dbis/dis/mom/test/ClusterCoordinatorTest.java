@@ -0,0 +1,111 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.server.ClusterCoordinator;
+
+/**
+ * JUnitTest that tests the partition ownership of {@link ClusterCoordinator}.
+ */
+public class ClusterCoordinatorTest {
+	private static final int PARTITIONS = 64;
+
+	private ClusterCoordinator cluster;
+	private Map<Integer, Set<Integer>> owned;
+	private List<String> events;
+
+	@Before
+	public void setUp() {
+		cluster = new ClusterCoordinator(PARTITIONS);
+		owned = new HashMap<Integer, Set<Integer>>();
+		events = new ArrayList<String>();
+	}
+
+	private void join(int node) {
+		owned.put(node, new HashSet<Integer>());
+		cluster.join(node, new ClusterCoordinator.Listener() {
+			@Override
+			public void revoked(Set<Integer> partitions) {
+				events.add("revoked " + node);
+				assertTrue(owned.get(node).containsAll(partitions));
+				owned.get(node).removeAll(partitions);
+			}
+
+			@Override
+			public void assigned(Set<Integer> partitions) {
+				events.add("assigned " + node);
+				for (Set<Integer> other : owned.values()) {
+					for (int p : partitions) {
+						assertFalse("Partition " + p + " is owned twice", other.contains(p));
+					}
+				}
+				owned.get(node).addAll(partitions);
+			}
+		});
+	}
+
+	private void assertEveryPartitionOwnedOnce() {
+		int total = 0;
+		for (Set<Integer> partitions : owned.values()) {
+			total += partitions.size();
+		}
+		assertEquals(PARTITIONS, total);
+		for (int p = 0; p < PARTITIONS; p++) {
+			assertTrue(owned.get(cluster.getOwner(p)).contains(p));
+		}
+	}
+
+	@Test
+	public void testJoin() {
+		join(1);
+		assertEquals(PARTITIONS, owned.get(1).size());
+
+		join(2);
+		join(3);
+		assertEveryPartitionOwnedOnce();
+		for (int node = 1; node <= 3; node++) {
+			assertFalse("Node " + node + " owns no partition", owned.get(node).isEmpty());
+			assertEquals(owned.get(node), cluster.getPartitions(node));
+		}
+		// The old owners stop before the new owner starts
+		assertEquals("assigned 3", events.get(events.size() - 1));
+	}
+
+	@Test
+	public void testLeaveMovesOnlyItsPartitions() {
+		join(1);
+		join(2);
+		join(3);
+		Set<Integer> before1 = new HashSet<Integer>(owned.get(1));
+		Set<Integer> before3 = new HashSet<Integer>(owned.get(3));
+
+		cluster.leave(2);
+		assertTrue(owned.get(2).isEmpty());
+		owned.remove(2);
+		assertEveryPartitionOwnedOnce();
+		assertTrue(owned.get(1).containsAll(before1));
+		assertTrue(owned.get(3).containsAll(before3));
+
+		cluster.leave(1);
+		cluster.leave(3);
+		assertEquals(-1, cluster.getOwner(0));
+	}
+
+	@Test
+	public void testPartitionOf() {
+		for (int i = 0; i < 1000; i++) {
+			int partition = cluster.partitionOf("CH" + i);
+			assertTrue(partition >= 0 && partition < PARTITIONS);
+			assertEquals(partition, ClusterCoordinator.partitionOf("CH" + i, PARTITIONS));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.ShardedDatabase;
+import ch.unibas.dmi.dbis.dis.mom.server.Compensator;
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * JUnitTest that tests the batched refunds and the log of {@link Compensator}.
+ */
+public class CompensatorTest {
+	private static final String BIC = "compensatorTest";
+	private static final double DELTA = 0.001;
+	private ShardedDatabase database;
+	private File log;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new ShardedDatabase(BIC, 4);
+		for (int i = 0; i < 100; i++) {
+			database.addAccount("test" + i, 0);
+		}
+		log = File.createTempFile(BIC, ".log");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+		log.delete();
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		Compensator compensator = new Compensator(database, log);
+		for (int i = 0; i < 1000; i++) {
+			compensator.add(BIC + "_" + i, new Transaction("test" + (i % 100), 1));
+		}
+		// Added twice and balance request
+		compensator.add(BIC + "_0", new Transaction("test0", 1));
+		compensator.add("balance", new Transaction("test0"));
+		assertEquals(1000, compensator.size());
+
+		Set<String> refunded = compensator.flush();
+		assertEquals(1000, refunded.size());
+		assertTrue(refunded.contains(BIC + "_999"));
+		assertEquals(0, compensator.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(10, database.getBalance("test" + i), DELTA);
+		}
+		assertTrue(compensator.flush().isEmpty());
+		compensator.close();
+
+		Map<String, Double> logged = new HashMap<String, Double>();
+		long count = Compensator.read(log, (id, trx) -> logged.merge(trx.iban, trx.amount, Double::sum));
+		assertEquals(1000, count);
+		assertEquals(100, logged.size());
+		assertEquals(10, logged.get("test42"), DELTA);
+	}
+
+	@Test
+	public void testReverseLateDeposit() throws Exception {
+		Compensator compensator = new Compensator(database, log);
+		compensator.add("expired", new Transaction("test1", 5));
+		compensator.add("failed", new Transaction("test2", 7));
+		compensator.add("succeeded", new Transaction("test3", 9));
+		// The deposit succeeded before the refund
+		assertTrue(compensator.cancel("succeeded"));
+		assertEquals(2, compensator.flush().size());
+		assertEquals(0, database.getBalance("test3"), DELTA);
+		assertTrue(compensator.isRefunded("expired"));
+
+		// The deposit of the expired transfer succeeded after all
+		assertEquals(5, compensator.reverse("expired").amount, DELTA);
+		assertEquals(0, database.getBalance("test1"), DELTA);
+		assertNull("A refund must only be taken back once", compensator.reverse("expired"));
+		assertNull(compensator.reverse("unknown"));
+		assertEquals(7, database.getBalance("test2"), DELTA);
+		compensator.close();
+
+		Map<String, Double> logged = new HashMap<String, Double>();
+		Compensator.read(log, (id, trx) -> logged.merge(id, trx.amount, Double::sum));
+		assertEquals(0, logged.get("expired"), DELTA);
+		assertEquals(7, logged.get("failed"), DELTA);
+		assertFalse(logged.containsKey("succeeded"));
+	}
+
+	@Test
+	public void testUnknownAccount() throws Exception {
+		Compensator compensator = new Compensator(database);
+		compensator.add("1", new Transaction("deleted", 5));
+		compensator.add("2", new Transaction("test1", 5));
+		assertEquals(2, compensator.flush().size());
+		assertEquals(5, database.getBalance("test1"), DELTA);
+		assertFalse(database.containsAccount("deleted"));
+	}
+
+	@Test
+	public void testRetryAfterFailure() throws Exception {
+		FailingDatabase failing = new FailingDatabase();
+		failing.addAccount("test1", 0);
+		failing.addAccount("test2", 0);
+		Compensator compensator = new Compensator(failing, log);
+		compensator.add("1", new Transaction("test1", 5));
+		compensator.add("2", new Transaction("test2", 7));
+		compensator.add("3", new Transaction("test1", 1));
+
+		// Only the first account of the batch is refunded, the transactions of the other one stay collected
+		Set<String> refunded = compensator.flush();
+		assertEquals(1, failing.getApplied());
+		assertFalse(refunded.isEmpty());
+		assertEquals(3, refunded.size() + compensator.size());
+
+		refunded.addAll(compensator.flush());
+		assertEquals(3, refunded.size());
+		assertEquals("Every transaction must be refunded exactly once", 6, failing.getBalance("test1"), DELTA);
+		assertEquals(7, failing.getBalance("test2"), DELTA);
+		compensator.close();
+		failing.close();
+
+		Map<String, Double> logged = new HashMap<String, Double>();
+		assertEquals("Every refund must be logged exactly once", 3,
+				Compensator.read(log, (id, trx) -> logged.merge(id, trx.amount, Double::sum)));
+		assertEquals(5, logged.get("1"), DELTA);
+	}
+
+	/**
+	 * Database whose first batch fails after the first account.
+	 */
+	private static class FailingDatabase extends ShardedDatabase {
+		private boolean failed;
+		private int applied;
+
+		FailingDatabase() {
+			super(BIC, 1);
+		}
+
+		@Override
+		public void depositAll(Map<String, Double> amounts, BiConsumer<String, Boolean> done) {
+			if (!failed) {
+				failed = true;
+				Entry<String, Double> first = amounts.entrySet().iterator().next();
+				super.depositAll(Collections.singletonMap(first.getKey(), first.getValue()), done);
+				applied++;
+				throw new IllegalStateException("Storage unavailable");
+			}
+			super.depositAll(amounts, done);
+		}
+
+		int getApplied() {
+			return applied;
+		}
+	}
+}
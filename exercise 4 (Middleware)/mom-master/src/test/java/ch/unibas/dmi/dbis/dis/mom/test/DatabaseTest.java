@@ -2,13 +2,23 @@ package ch.unibas.dmi.dbis.dis.mom.test;
 
 import static org.junit.Assert.*;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.*;
 import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
+import ch.unibas.dmi.dbis.dis.mom.db.AccountSnapshot;
 import ch.unibas.dmi.dbis.dis.mom.db.IDatabase;
 import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
 import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
@@ -16,13 +26,14 @@ import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
 import ch.unibas.dmi.dbis.dis.mom.server.BankServer;
 
 /**
- * JUnitTest that tests the functionality of the given implementation of {@link IDatabase}
+ * JUnitTest that tests the functionality of every implementation of {@link IDatabase}
  * provided by {@link BankServer#createDatabase(String, com.amazonaws.auth.AWSCredentials) createDatabase}
- * from {@link BankServer}.
+ * from {@link BankServer}, see {@link #implementations()}.
  * This test does also check the persistence of the database implementation.
  * 
  * @author Lukas Beck, HS2012
  */
+@RunWith(Parameterized.class)
 public class DatabaseTest {
 	private static final int SLEEP_TIME = 125;
 	private static final int TIMEOUT = 10*1000;
@@ -32,23 +43,38 @@ public class DatabaseTest {
 	private static final double BALANCE1 = 543.21;
 	private static final double BALANCE2 = 123.45;
 	private static final String UNKNOWN = "unknown_account_iban";
+	private static final String CACHE_SIZE = "100";
 	private static IDatabase database;
 	
+	private final String type;
+	private final String cacheSize;
+	
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
 	
-	@BeforeClass
-	public static void setUpBeforeClass() throws Exception {
-		database = getDatabase();
+	/**
+	 * @return the value of {@value BankServer#DATABASE_PROPERTY} and of {@value BankServer#DATABASE_CACHE_PROPERTY}
+	 * 	for every implementation
+	 */
+	@Parameters(name = "{0} cache={1}")
+	public static Collection<Object[]> implementations() {
+		return Arrays.asList(new Object[][] {
+			{ "simple", null },
+			{ "mapped", null },
+			{ "sharded", null },
+			{ "jdbc", null },
+			{ "simple", CACHE_SIZE },
+		});
 	}
-
-	@AfterClass
-	public static void tearDownAfterClass() throws Exception {
-		
+	
+	public DatabaseTest(String type, String cacheSize) {
+		this.type = type;
+		this.cacheSize = cacheSize;
 	}
 
 	@Before
 	public void setUp() throws Exception {
+		database = getDatabase();
 		blockingAddAccount(IBAN1, BALANCE1);
 		blockingAddAccount(IBAN2, BALANCE2);
 	}
@@ -58,11 +84,26 @@ public class DatabaseTest {
 		deleteAllAccounts();
 		Set<String> accounts = database.listAccounts();
 		assertEquals("After trying to delete all accounts, there are still accounts available:\n"+accounts, 0, accounts.size());
+		if (database instanceof Closeable) {
+			((Closeable) database).close();
+		}
+		// Files of the mapped and the jdbc database
+		new File(BIC + ".accounts").delete();
+		new File(BIC + ".mv.db").delete();
+		new File(BIC + ".trace.db").delete();
 	}
 
-	private static IDatabase getDatabase() throws FileNotFoundException, IOException {
-		//return new SimpleDatabase(BIC);
-		return BankServer.createDatabase(BIC, BankServer.createCredentials());
+	private IDatabase getDatabase() throws FileNotFoundException, IOException {
+		System.setProperty(BankServer.DATABASE_PROPERTY, type);
+		if (cacheSize != null) {
+			System.setProperty(BankServer.DATABASE_CACHE_PROPERTY, cacheSize);
+		}
+		try {
+			return BankServer.createDatabase(BIC, BankServer.createCredentials());
+		} finally {
+			System.clearProperty(BankServer.DATABASE_PROPERTY);
+			System.clearProperty(BankServer.DATABASE_CACHE_PROPERTY);
+		}
 	}
 	
 	private static void deleteAllAccounts() throws UnknownAccountException, InterruptedException {
@@ -71,7 +112,7 @@ public class DatabaseTest {
 			for (String id : list) {
 				blockingDeleteAccount(id);
 			}
-			Thread.sleep(1000);
+			Thread.sleep(SLEEP_TIME);
 		}
 	}
 	
@@ -171,6 +212,74 @@ public class DatabaseTest {
 		database.deposit(UNKNOWN, 1);
 	}
 	
+	@Test
+	public void testContainsAccount() {
+		assertTrue("containsAccount did not find account " + IBAN1, database.containsAccount(IBAN1));
+		assertFalse("containsAccount found an unknown account", database.containsAccount(UNKNOWN));
+	}
+	
+	@Test
+	public void testDepositIfExists() throws UnknownAccountException {
+		assertTrue("depositIfExists failed for account: " + IBAN1, database.depositIfExists(IBAN1, 100));
+		TestUtilities.assertEquals("depositIfExists deposited a wrong amount on account: " + IBAN1, BALANCE1 + 100, database.getBalance(IBAN1));
+		
+		assertFalse("depositIfExists succeeded on an unknown account", database.depositIfExists(UNKNOWN, 100));
+		assertFalse("depositIfExists created an unknown account", database.containsAccount(UNKNOWN));
+	}
+
+	@Test
+	public void testTransfer() throws UnknownAccountException, AccountOverdrawException {
+		database.transfer(IBAN1, IBAN2, 200);
+		TestUtilities.assertEquals("Transfer failed for account: " + IBAN1, BALANCE1 - 200, database.getBalance(IBAN1));
+		TestUtilities.assertEquals("Transfer failed for account: " + IBAN2, BALANCE2 + 200, database.getBalance(IBAN2));
+
+		database.transfer(IBAN1, IBAN1, 100);
+		TestUtilities.assertEquals("Transfer to the same account changed its balance", BALANCE1 - 200, database.getBalance(IBAN1));
+	}
+
+	@Test
+	public void testTransferUnknownAccount() throws UnknownAccountException, AccountOverdrawException {
+		try {
+			database.transfer(IBAN1, UNKNOWN, 100);
+			fail("Transfer to an unknown account succeeded");
+		} catch (UnknownAccountException e) {
+			// expected
+		}
+		TestUtilities.assertEquals("Failed transfer changed account: " + IBAN1, BALANCE1, database.getBalance(IBAN1));
+
+		TestUtilities.expectUnknownAccountException(this.thrown, UNKNOWN, BIC);
+		database.transfer(UNKNOWN, IBAN1, 100);
+	}
+
+	@Test
+	public void testTransferAccountOverdraw() throws UnknownAccountException, AccountOverdrawException {
+		try {
+			database.transfer(IBAN2, IBAN1, BALANCE2 + 1);
+			fail("Transfer overdrew account: " + IBAN2);
+		} catch (AccountOverdrawException e) {
+			// expected
+		}
+		TestUtilities.assertEquals("Failed transfer changed account: " + IBAN1, BALANCE1, database.getBalance(IBAN1));
+		TestUtilities.assertEquals("Failed transfer changed account: " + IBAN2, BALANCE2, database.getBalance(IBAN2));
+	}
+
+	@Test
+	public void testSnapshot() throws UnknownAccountException, AccountOverdrawException {
+		AccountSnapshot snapshot = database.snapshot();
+		try {
+			database.deposit(IBAN1, 100);
+			database.withdraw(IBAN2, 100);
+			
+			Map<String, Double> balances = new HashMap<String, Double>();
+			snapshot.forEach((iban, balance) -> balances.put(iban, balance));
+			assertEquals("snapshot contains wrong accounts", database.listAccounts(), balances.keySet());
+			TestUtilities.assertEquals("snapshot saw a later deposit", BALANCE1, balances.get(IBAN1));
+			TestUtilities.assertEquals("snapshot saw a later withdraw", BALANCE2, balances.get(IBAN2));
+		} finally {
+			snapshot.close();
+		}
+	}
+	
 	@Test
 	public void testAddAccount() throws KnownAccountException, UnknownAccountException, InterruptedException {
 		String iban = "iban42";
@@ -0,0 +1,73 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementRequestMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.SettlementResultMessage;
+import ch.unibas.dmi.dbis.dis.mom.server.DepositNetting;
+
+/**
+ * JUnitTest that tests the windows and the line items of {@link DepositNetting}.
+ */
+public class DepositNettingTest {
+	private static final String BIC = "local";
+	private static final String REMOTE_BIC = "remote";
+	private static final long WINDOW = 100;
+	private static final double DELTA = 0.001;
+	private DepositNetting netting;
+
+	@Before
+	public void setUp() throws Exception {
+		netting = new DepositNetting(BIC, REMOTE_BIC, WINDOW);
+	}
+
+	@Test
+	public void testNetting() {
+		long now = System.currentTimeMillis();
+		assertNull("Empty window", netting.poll(now + WINDOW));
+		netting.add("1", "a", 10);
+		netting.add("2", "b", 20);
+		netting.add("3", "a", 5);
+		assertNull("Window is not due yet", netting.poll(now));
+
+		SettlementRequestMessage settlement = netting.poll(now + WINDOW + 1000);
+		assertEquals(REMOTE_BIC, settlement.getBic());
+		assertEquals(2, settlement.getAmounts().size());
+		assertEquals(15, settlement.getAmounts().get("a"), DELTA);
+		assertEquals(20, settlement.getAmounts().get("b"), DELTA);
+		assertNull("The window was closed", netting.poll(now + WINDOW + 1000));
+		assertEquals(1, netting.getPendingCount());
+
+		SettlementResultMessage result = new SettlementResultMessage(settlement.getTransactionId(), Collections.singleton("a"));
+		DepositNetting.Outcome outcome = netting.complete(result);
+		assertEquals(Arrays.asList("2"), outcome.deposited);
+		assertEquals(new HashSet<String>(Arrays.asList("1", "3")), new HashSet<String>(outcome.failed));
+		assertNull("The settlement was completed", netting.complete(result));
+		assertEquals(0, netting.getPendingCount());
+	}
+
+	@Test
+	public void testPrune() {
+		long now = System.currentTimeMillis();
+		netting.add("1", "a", 10);
+		SettlementRequestMessage first = netting.poll(now + WINDOW);
+		netting.add("2", "a", 10);
+		SettlementRequestMessage second = netting.poll(now + 2 * WINDOW);
+		assertNotEquals(first.getTransactionId(), second.getTransactionId());
+
+		assertEquals(1, netting.prune(WINDOW / 2, now + 2 * WINDOW));
+		assertNull(netting.complete(new SettlementResultMessage(first.getTransactionId(), Collections.<String>emptySet())));
+		assertNotNull(netting.complete(new SettlementResultMessage(second.getTransactionId(), Collections.<String>emptySet())));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWindowTooLong() {
+		new DepositNetting(BIC, REMOTE_BIC, DepositNetting.MAX_WINDOW + 1);
+	}
+}
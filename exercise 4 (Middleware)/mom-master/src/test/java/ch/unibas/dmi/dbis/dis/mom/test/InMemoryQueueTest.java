@@ -0,0 +1,202 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.message.BalanceRequestMessage;
+import ch.unibas.dmi.dbis.dis.mom.message.BankMessage;
+import ch.unibas.dmi.dbis.dis.mom.queue.Queue;
+import ch.unibas.dmi.dbis.dis.mom.queue.ResourceCache;
+import ch.unibas.dmi.dbis.dis.mom.queue.SqsDeadLetterStore;
+
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+
+/**
+ * JUnitTest that tests {@link Queue} against {@link InMemorySQS}: the asynchronous operations,
+ * the quarantine of poison messages, prefetching, the release of leases and queues that were deleted by their owner.
+ * {@link QueueTest} runs the basic operations against SQS itself.
+ */
+public class InMemoryQueueTest {
+	private static final String NAME = "queue";
+
+	private InMemorySQS sqs;
+	private Queue<BankMessage> queue;
+
+	@Before
+	public void setUp() {
+		sqs = new InMemorySQS();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		queue.close();
+	}
+
+	private static BankMessage message(int i) {
+		return new BalanceRequestMessage("tx" + i, "iban" + i);
+	}
+
+	@Test
+	public void testAsyncOperations() {
+		InMemorySQS.Async async = sqs.async();
+		queue = new Queue<BankMessage>(async, NAME);
+
+		queue.sendAsync(message(1)).join();
+		queue.sendAsync(message(2)).join();
+		List<BankMessage> received = queue.receiveAsync().join();
+		assertEquals(2, received.size());
+		assertEquals("tx1", received.get(0).getTransactionId());
+
+		queue.deleteMessagesAsync(received).join();
+		assertTrue(sqs.getBodies(queue.getUrl()).isEmpty());
+		assertEquals(2, queue.getMetrics().getSent());
+		assertEquals(2, queue.getMetrics().getDeleted());
+		assertEquals("Every operation went through the asynchronous client", 5, async.getAsyncRequests());
+	}
+
+	@Test
+	public void testSyncFallback() {
+		queue = new Queue<BankMessage>(sqs, NAME);
+
+		assertTrue("Without an asynchronous client, the futures are already completed",
+				queue.sendAsync(message(1)).isDone());
+		List<BankMessage> received = queue.receiveAsync().join();
+		assertEquals(1, received.size());
+		queue.deleteAsync(received.get(0)).join();
+		assertTrue(sqs.getBodies(queue.getUrl()).isEmpty());
+	}
+
+	@Test
+	public void testAsyncErrors() {
+		queue = new Queue<BankMessage>(sqs.async(), NAME);
+		String url = queue.getUrl();
+		sqs.deleteQueue(new DeleteQueueRequest(url));
+
+		try {
+			queue.receiveAsync().join();
+			fail("The receive from a deleted queue succeeded");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof QueueDoesNotExistException);
+		}
+		sqs.createQueue(new CreateQueueRequest(NAME));
+	}
+
+	@Test
+	public void testSendToDeletedQueueWithFullWindow() throws Exception {
+		// The client answers after the handlers of the futures are attached
+		InMemorySQS.Async async = sqs.async();
+		async.setDelay(200);
+		queue = new Queue<BankMessage>(async, NAME);
+		queue.setMaxInFlight(1);
+		sqs.deleteQueue(new DeleteQueueRequest(queue.getUrl()));
+
+		// The retry needs the permit of the failed send
+		queue.sendAsync(message(1)).get(5, TimeUnit.SECONDS);
+		assertEquals(1, sqs.getBodies(queue.getUrl()).size());
+		assertEquals(1, queue.getMetrics().getSent());
+	}
+	
+	@Test
+	public void testCachedQueueIsCreatedAgain() {
+		ResourceCache resources = new ResourceCache();
+		new Queue<BankMessage>(sqs, NAME, false, resources);
+		queue = new Queue<BankMessage>(sqs.async(), NAME, false, resources);
+		assertEquals("The URL was taken from the cache", 1, sqs.getCreateRequests());
+
+		// The owner of the queue deletes it, e.g. because its bank shut down
+		sqs.deleteQueue(new DeleteQueueRequest(queue.getUrl()));
+		queue.sendMessage(message(1));
+		assertEquals(2, sqs.getCreateRequests());
+		assertEquals(1, sqs.getBodies(queue.getUrl()).size());
+		assertEquals(queue.getUrl(), resources.getQueueUrl(NAME));
+
+		sqs.deleteQueue(new DeleteQueueRequest(queue.getUrl()));
+		queue.sendAsync(message(2)).join();
+		assertEquals(3, sqs.getCreateRequests());
+		assertEquals(1, sqs.getBodies(queue.getUrl()).size());
+	}
+
+	@Test
+	public void testPoisonMessageIsQuarantined() {
+		// Redeliver every message that is not deleted right away
+		sqs.setDefaultVisibilityTimeout(0);
+		queue = new Queue<BankMessage>(sqs, NAME);
+		queue.setDeadLetterPolicy(new SqsDeadLetterStore(sqs), 2);
+		sqs.sendMessage(new SendMessageRequest(queue.getUrl(), "not a bank message"));
+
+		// The poison message is skipped and left for redelivery
+		assertNull(queue.getMessage());
+		assertEquals(1, queue.getMetrics().getMalformed());
+		assertEquals(0, queue.getMetrics().getQuarantined());
+		assertEquals(1, sqs.getBodies(queue.getUrl()).size());
+
+		// It is moved on its second delivery
+		assertNull(queue.getMessage());
+		assertEquals(2, queue.getMetrics().getMalformed());
+		assertEquals(1, queue.getMetrics().getQuarantined());
+		assertTrue(sqs.getBodies(queue.getUrl()).isEmpty());
+		String deadLetterUrl = sqs.createQueue(new CreateQueueRequest(SqsDeadLetterStore.PREFIX + NAME)).getQueueUrl();
+		assertEquals(Arrays.asList("not a bank message"), sqs.getBodies(deadLetterUrl));
+	}
+
+	@Test
+	public void testPoisonMessageAmongOthers() {
+		sqs.setDefaultVisibilityTimeout(0);
+		queue = new Queue<BankMessage>(sqs, NAME);
+		queue.sendMessage(message(1));
+		sqs.sendMessage(new SendMessageRequest(queue.getUrl(), "not a bank message"));
+		queue.sendMessage(message(2));
+
+		List<BankMessage> received = queue.receiveAsync().join();
+		assertEquals(Arrays.asList("tx1", "tx2"), transactionIds(received));
+		queue.deleteMessages(received);
+		assertEquals(Arrays.asList("not a bank message"), sqs.getBodies(queue.getUrl()));
+	}
+
+	private static List<String> transactionIds(List<BankMessage> msgs) {
+		String[] ids = new String[msgs.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = msgs.get(i).getTransactionId();
+		}
+		return Arrays.asList(ids);
+	}
+
+	@Test
+	public void testPrefetchDropsExpiredMessages() throws Exception {
+		queue = new Queue<BankMessage>(sqs, NAME);
+		queue.sendMessage(message(1));
+		queue.enablePrefetching(20, 1);
+
+		// The first delivery is buffered and expires, the fetcher buffers the redelivery of the message
+		Thread.sleep(1500);
+		List<BankMessage> received = queue.getMessages();
+		assertEquals(1, received.size());
+		queue.deleteMessage(received.get(0));
+		assertTrue("The receipt handle of an expired delivery was returned", sqs.getBodies(queue.getUrl()).isEmpty());
+	}
+
+	@Test
+	public void testReleasedLeaseIsDeliveredAgain() throws Exception {
+		queue = new Queue<BankMessage>(sqs, NAME);
+		queue.enableLeaseExtension(3);
+		queue.sendMessage(message(1));
+		queue.sendMessage(message(2));
+		BankMessage failed = queue.getMessage();
+		assertNotNull(queue.getMessage());
+
+		// The handler of the first message failed
+		queue.releaseLease(failed);
+		Thread.sleep(3500);
+		List<BankMessage> again = queue.getMessages();
+		assertEquals(Arrays.asList(failed.getTransactionId()), transactionIds(again));
+	}
+}
@@ -0,0 +1,341 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.AbstractAmazonSQSAsync;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageResult;
+import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteQueueResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.PurgeQueueResult;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+/**
+ * In-memory stand-in for SQS, so that the queues can be tested without AWS.
+ * It keeps the visibility timeout, the receive count and the receipt handle of every message like SQS does,
+ * but delivers the messages of a queue in the order they were sent.
+ * <br>
+ * This class only implements the synchronous operations, {@link #async()} returns an asynchronous client
+ * that runs them in a background thread.
+ */
+public class InMemorySQS extends AbstractAmazonSQS {
+	private static final String URL_PREFIX = "https://sqs.test/";
+	private static final int DEFAULT_VISIBILITY_TIMEOUT = 30;
+	private static final int MAX_BATCH_SIZE = 10;
+
+	private final Map<String, List<Stored>> queues = new LinkedHashMap<String, List<Stored>>();
+	private final List<Integer> visibilityBatches = new ArrayList<Integer>();
+	private final AtomicInteger createRequests = new AtomicInteger();
+	private int defaultVisibilityTimeout = DEFAULT_VISIBILITY_TIMEOUT;
+	private int nextId;
+
+	private static class Stored {
+		final String id;
+		final String body;
+		String receiptHandle;
+		int receiveCount;
+		long invisibleUntil;
+
+		Stored(String id, String body) {
+			this.id = id;
+			this.body = body;
+		}
+	}
+
+	@Override
+	public synchronized CreateQueueResult createQueue(CreateQueueRequest request) {
+		createRequests.incrementAndGet();
+		String url = URL_PREFIX + request.getQueueName();
+		queues.putIfAbsent(url, new ArrayList<Stored>());
+		return new CreateQueueResult().withQueueUrl(url);
+	}
+
+	@Override
+	public synchronized DeleteQueueResult deleteQueue(DeleteQueueRequest request) {
+		queue(request.getQueueUrl());
+		queues.remove(request.getQueueUrl());
+		return new DeleteQueueResult();
+	}
+
+	@Override
+	public synchronized SendMessageResult sendMessage(SendMessageRequest request) {
+		String id = "m" + nextId++;
+		queue(request.getQueueUrl()).add(new Stored(id, request.getMessageBody()));
+		notifyAll();
+		return new SendMessageResult().withMessageId(id);
+	}
+
+	@Override
+	public synchronized ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+		int max = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+		int visibilityTimeout = request.getVisibilityTimeout() == null ? defaultVisibilityTimeout : request.getVisibilityTimeout();
+		long waitUntil = System.currentTimeMillis()
+				+ (request.getWaitTimeSeconds() == null ? 0 : request.getWaitTimeSeconds() * 1000L);
+
+		List<Message> received = new ArrayList<Message>();
+		while (true) {
+			long now = System.currentTimeMillis();
+			for (Stored s : queue(request.getQueueUrl())) {
+				if (received.size() < max && s.invisibleUntil <= now) {
+					s.receiveCount++;
+					s.receiptHandle = s.id + "#" + s.receiveCount;
+					s.invisibleUntil = now + visibilityTimeout * 1000L;
+					received.add(new Message().withMessageId(s.id).withBody(s.body).withReceiptHandle(s.receiptHandle)
+							.addAttributesEntry("ApproximateReceiveCount", String.valueOf(s.receiveCount)));
+				}
+			}
+			if (!received.isEmpty() || now >= waitUntil) {
+				return new ReceiveMessageResult().withMessages(received);
+			}
+
+			try {
+				// Messages also become visible again without a notification
+				wait(Math.min(50, waitUntil - now));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return new ReceiveMessageResult().withMessages(received);
+			}
+		}
+	}
+
+	@Override
+	public synchronized DeleteMessageResult deleteMessage(DeleteMessageRequest request) {
+		queue(request.getQueueUrl()).removeIf(s -> request.getReceiptHandle().equals(s.receiptHandle));
+		return new DeleteMessageResult();
+	}
+
+	@Override
+	public synchronized PurgeQueueResult purgeQueue(PurgeQueueRequest request) {
+		queue(request.getQueueUrl()).clear();
+		return new PurgeQueueResult();
+	}
+
+	@Override
+	public synchronized ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+		if (request.getEntries().size() > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("Too many entries in batch request");
+		}
+
+		visibilityBatches.add(request.getEntries().size());
+		long now = System.currentTimeMillis();
+		ChangeMessageVisibilityBatchResult result = new ChangeMessageVisibilityBatchResult();
+		for (ChangeMessageVisibilityBatchRequestEntry entry : request.getEntries()) {
+			Stored stored = null;
+			for (Stored s : queue(request.getQueueUrl())) {
+				if (entry.getReceiptHandle().equals(s.receiptHandle)) {
+					stored = s;
+				}
+			}
+
+			if (stored == null) {
+				result.withFailed(new BatchResultErrorEntry().withId(entry.getId()).withCode("ReceiptHandleIsInvalid"));
+			}
+			else {
+				stored.invisibleUntil = now + entry.getVisibilityTimeout() * 1000L;
+				result.withSuccessful(new ChangeMessageVisibilityBatchResultEntry().withId(entry.getId()));
+			}
+		}
+		return result;
+	}
+
+	private List<Stored> queue(String url) {
+		List<Stored> queue = queues.get(url);
+		if (queue == null) {
+			throw new QueueDoesNotExistException("The specified queue does not exist: " + url);
+		}
+		return queue;
+	}
+
+	/**
+	 * @param url url of a queue
+	 * @return bodies of the messages in the queue, including the invisible ones
+	 */
+	public synchronized List<String> getBodies(String url) {
+		List<String> bodies = new ArrayList<String>();
+		for (Stored s : queue(url)) {
+			bodies.add(s.body);
+		}
+		return bodies;
+	}
+
+	/**
+	 * @param url url of a queue
+	 * @return true, if the queue exists
+	 */
+	public synchronized boolean exists(String url) {
+		return queues.containsKey(url);
+	}
+
+	/**
+	 * @param visibilityTimeout visibility timeout in seconds of receives that do not set one
+	 */
+	public synchronized void setDefaultVisibilityTimeout(int visibilityTimeout) {
+		this.defaultVisibilityTimeout = visibilityTimeout;
+	}
+
+	/**
+	 * @return sizes of the visibility change batches received so far
+	 */
+	public synchronized List<Integer> getVisibilityBatches() {
+		return new ArrayList<Integer>(visibilityBatches);
+	}
+
+	/**
+	 * @return number of create queue requests received so far
+	 */
+	public int getCreateRequests() {
+		return createRequests.get();
+	}
+
+	/**
+	 * @return an asynchronous client of the same queues
+	 */
+	public Async async() {
+		return new Async();
+	}
+
+	/**
+	 * Asynchronous client that runs the operations of its {@link InMemorySQS} in a background thread.
+	 */
+	public class Async extends AbstractAmazonSQSAsync {
+		private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "in-memory sqs");
+			t.setDaemon(true);
+			return t;
+		});
+		private final AtomicInteger asyncRequests = new AtomicInteger();
+		private volatile long delay;
+
+		/**
+		 * @return number of asynchronous requests received so far
+		 */
+		public int getAsyncRequests() {
+			return asyncRequests.get();
+		}
+
+		/**
+		 * Lets every following asynchronous request wait before it runs, like a request to SQS over the network.
+		 * 
+		 * @param delay time in ms
+		 */
+		public void setDelay(long delay) {
+			this.delay = delay;
+		}
+
+		private <R extends AmazonWebServiceRequest, S> Future<S> submit(R request, AsyncHandler<R, S> handler,
+				Function<R, S> call) {
+			asyncRequests.incrementAndGet();
+			long delay = this.delay;
+			return CompletableFuture.supplyAsync(() -> {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				try {
+					S result = call.apply(request);
+					handler.onSuccess(request, result);
+					return result;
+				} catch (RuntimeException e) {
+					handler.onError(e);
+					throw e;
+				}
+			}, executor);
+		}
+
+		@Override
+		public CreateQueueResult createQueue(CreateQueueRequest request) {
+			return InMemorySQS.this.createQueue(request);
+		}
+
+		@Override
+		public DeleteQueueResult deleteQueue(DeleteQueueRequest request) {
+			return InMemorySQS.this.deleteQueue(request);
+		}
+
+		@Override
+		public SendMessageResult sendMessage(SendMessageRequest request) {
+			return InMemorySQS.this.sendMessage(request);
+		}
+
+		@Override
+		public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+			return InMemorySQS.this.receiveMessage(request);
+		}
+
+		@Override
+		public DeleteMessageResult deleteMessage(DeleteMessageRequest request) {
+			return InMemorySQS.this.deleteMessage(request);
+		}
+
+		@Override
+		public PurgeQueueResult purgeQueue(PurgeQueueRequest request) {
+			return InMemorySQS.this.purgeQueue(request);
+		}
+
+		@Override
+		public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+			return InMemorySQS.this.changeMessageVisibilityBatch(request);
+		}
+
+		@Override
+		public Future<CreateQueueResult> createQueueAsync(CreateQueueRequest request,
+				AsyncHandler<CreateQueueRequest, CreateQueueResult> handler) {
+			return submit(request, handler, this::createQueue);
+		}
+
+		@Override
+		public Future<SendMessageResult> sendMessageAsync(SendMessageRequest request,
+				AsyncHandler<SendMessageRequest, SendMessageResult> handler) {
+			return submit(request, handler, this::sendMessage);
+		}
+
+		@Override
+		public Future<ReceiveMessageResult> receiveMessageAsync(ReceiveMessageRequest request,
+				AsyncHandler<ReceiveMessageRequest, ReceiveMessageResult> handler) {
+			return submit(request, handler, this::receiveMessage);
+		}
+
+		@Override
+		public Future<DeleteMessageResult> deleteMessageAsync(DeleteMessageRequest request,
+				AsyncHandler<DeleteMessageRequest, DeleteMessageResult> handler) {
+			return submit(request, handler, this::deleteMessage);
+		}
+
+		@Override
+		public Future<PurgeQueueResult> purgeQueueAsync(PurgeQueueRequest request,
+				AsyncHandler<PurgeQueueRequest, PurgeQueueResult> handler) {
+			return submit(request, handler, this::purgeQueue);
+		}
+
+		@Override
+		public void shutdown() {
+			executor.shutdownNow();
+		}
+	}
+}
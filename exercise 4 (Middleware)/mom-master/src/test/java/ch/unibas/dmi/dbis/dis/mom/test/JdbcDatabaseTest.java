@@ -0,0 +1,141 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.*;
+import org.junit.rules.ExpectedException;
+
+import ch.unibas.dmi.dbis.dis.mom.db.AccountSnapshot;
+import ch.unibas.dmi.dbis.dis.mom.db.JdbcDatabase;
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * JUnitTest that tests the statements of {@link JdbcDatabase} against an in-memory H2 database:
+ * the mapping of constraint violations, the conditional withdraw, the batches and the transfer in one transaction.
+ */
+public class JdbcDatabaseTest {
+	private static final String BIC = "jdbcDatabaseTest";
+	private static final double DELTA = 0.001;
+	private static int databases;
+	private JdbcDatabase database;
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		// A new in-memory database per test, it lives as long as the pool keeps a connection open
+		database = new JdbcDatabase(BIC, "jdbc:h2:mem:" + BIC + databases++);
+		database.addAccount("test1", 100);
+		database.addAccount("test2", 50);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	public void testDuplicateAccount() throws Exception {
+		thrown.expect(KnownAccountException.class);
+		thrown.expectMessage("test1");
+		database.addAccount("test1", 1);
+	}
+
+	@Test
+	public void testConditionalWithdraw() throws Exception {
+		database.withdraw("test1", 100);
+		assertEquals(0, database.getBalance("test1"), DELTA);
+		try {
+			database.withdraw("test2", 50.01);
+			fail("The account was overdrawn");
+		} catch (AccountOverdrawException e) {
+			assertEquals(50, database.getBalance("test2"), DELTA);
+		}
+
+		thrown.expect(UnknownAccountException.class);
+		database.withdraw("unknown", 1);
+	}
+
+	@Test
+	public void testDepositAll() throws Exception {
+		Map<String, Double> amounts = new LinkedHashMap<String, Double>();
+		amounts.put("test1", 10.0);
+		amounts.put("unknown", 5.0);
+		amounts.put("test2", -20.0);
+		Map<String, Boolean> done = new HashMap<String, Boolean>();
+		database.depositAll(amounts, done::put);
+
+		assertEquals(110, database.getBalance("test1"), DELTA);
+		assertEquals(30, database.getBalance("test2"), DELTA);
+		assertFalse(database.containsAccount("unknown"));
+		assertEquals(3, done.size());
+		assertTrue(done.get("test1"));
+		assertFalse(done.get("unknown"));
+	}
+
+	@Test
+	public void testAddAccounts() throws Exception {
+		String[] ibans = { "test1", "test3", "test4" };
+		double[] balances = { 1, 3, 4 };
+		assertEquals("Existing accounts must be skipped", 2, database.addAccounts(ibans, balances, 3));
+		assertEquals(100, database.getBalance("test1"), DELTA);
+		assertEquals(4, database.getBalance("test4"), DELTA);
+		assertEquals(4, database.listAccounts().size());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Map<String, Double> balances = new HashMap<String, Double>();
+		try (AccountSnapshot snapshot = database.snapshot()) {
+			database.deposit("test1", 1);
+			snapshot.forEach(balances::put);
+		}
+		assertEquals(2, balances.size());
+		assertEquals(100, balances.get("test1"), DELTA);
+		assertEquals(50, balances.get("test2"), DELTA);
+	}
+
+	@Test
+	public void testTransfer() throws Exception {
+		// Both orders of the ibans, which decide the order of the updates
+		database.transfer("test1", "test2", 30);
+		database.transfer("test2", "test1", 10);
+		assertEquals(80, database.getBalance("test1"), DELTA);
+		assertEquals(70, database.getBalance("test2"), DELTA);
+
+		try {
+			database.transfer("test2", "test1", 71);
+			fail("The account was overdrawn");
+		} catch (AccountOverdrawException e) {
+			// The deposit on test1 ran first and must be rolled back
+			assertEquals(80, database.getBalance("test1"), DELTA);
+		}
+		try {
+			database.transfer("test1", "unknown", 10);
+			fail("The transfer to an unknown account succeeded");
+		} catch (UnknownAccountException e) {
+			assertEquals(80, database.getBalance("test1"), DELTA);
+		}
+
+		thrown.expect(UnknownAccountException.class);
+		database.transfer("unknown", "test1", 1);
+	}
+
+	@Test
+	public void testReusedStatements() throws Exception {
+		// More calls than pooled connections, every connection runs its prepared statements again
+		for (int i = 0; i < 100; i++) {
+			database.deposit("test1", 1);
+			database.withdraw("test2", 0.5);
+		}
+		assertEquals(200, database.getBalance("test1"), DELTA);
+		assertEquals(0, database.getBalance("test2"), DELTA);
+	}
+}
@@ -0,0 +1,67 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.JdbcDatabase;
+import ch.unibas.dmi.dbis.dis.mom.db.JdbcTransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.exception.TransactionExistsException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownTransactionException;
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * JUnitTest that tests {@link JdbcTransactionTable} against an in-memory H2 database,
+ * which it shares with the {@link JdbcDatabase} of the bank.
+ */
+public class JdbcTransactionTableTest {
+	private static final String BIC = "jdbcTransactionTableTest";
+	private static final String URL = "jdbc:h2:mem:" + BIC;
+	private JdbcDatabase database;
+	private JdbcTransactionTable table;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new JdbcDatabase(BIC, URL);
+		table = new JdbcTransactionTable(BIC, URL);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		table.close();
+		database.close();
+	}
+
+	@Test
+	public void testDuplicateId() throws Exception {
+		Transaction tx = new Transaction("iban", 5);
+		table.put("id", tx);
+		try {
+			table.put("id", new Transaction("other", 1));
+			fail("The id was inserted twice");
+		} catch (TransactionExistsException e) {
+			assertEquals("The exception must carry the stored transaction", tx, e.getTransaction());
+		}
+		table.remove("id");
+	}
+
+	@Test
+	public void testSharedDatabase() throws Exception {
+		database.addAccount("iban", 100);
+		String id = table.put(new Transaction("iban", 5));
+		assertTrue(table.containsId(id));
+		assertTrue(database.containsAccount("iban"));
+
+		// A new table finds the transactions of the previous one
+		table.close();
+		table = new JdbcTransactionTable(BIC, URL);
+		assertEquals(5, table.get(id).amount, 0.001);
+		table.remove(id);
+		try {
+			table.remove(id);
+			fail("The transaction was removed twice");
+		} catch (UnknownTransactionException e) {
+			assertTrue(table.list().isEmpty());
+		}
+	}
+}
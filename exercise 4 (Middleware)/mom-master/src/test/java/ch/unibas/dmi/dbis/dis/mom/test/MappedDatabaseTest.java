@@ -0,0 +1,248 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+import org.junit.rules.ExpectedException;
+
+import ch.unibas.dmi.dbis.dis.mom.db.AccountSnapshot;
+import ch.unibas.dmi.dbis.dis.mom.db.MappedDatabase;
+import ch.unibas.dmi.dbis.dis.mom.exception.KnownAccountException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * JUnitTest that tests the file handling of {@link MappedDatabase}:
+ * accounts survive reopening the file, deleted slots are reused or purged and the capacity is enforced.
+ */
+public class MappedDatabaseTest {
+	private static final String BIC = "mappedDatabaseTest";
+	private static final double DELTA = 0.001;
+	private File file;
+	private MappedDatabase database;
+
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile(BIC, ".accounts");
+		file.delete();
+		database = new MappedDatabase(BIC, file, 16);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+		file.delete();
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		database.addAccount("test1", 100);
+		database.addAccount("test2", 200);
+		database.deposit("test1", 23.5);
+		database.withdraw("test2", 50);
+		database.deleteAccount("test2");
+		database.addAccount("test3", 300);
+		database.close();
+
+		database = new MappedDatabase(BIC, file, 1024);
+		assertEquals("Capacity must be read from the existing file", 16, database.getCapacity());
+		assertEquals(123.5, database.getBalance("test1"), DELTA);
+		assertEquals(300, database.getBalance("test3"), DELTA);
+		assertFalse(database.containsAccount("test2"));
+
+		Set<String> expected = new HashSet<String>();
+		expected.add("test1");
+		expected.add("test3");
+		assertEquals(expected, database.listAccounts());
+	}
+
+	@Test
+	public void testReuseDeletedSlots() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			database.addAccount("test" + i, i);
+			database.deleteAccount("test" + i);
+		}
+		assertEquals(0, database.listAccounts().size());
+
+		database.addAccount("test", 1);
+		thrown.expect(KnownAccountException.class);
+		database.addAccount("test", 2);
+	}
+
+	@Test
+	public void testTombstonesArePurged() throws Exception {
+		for (int i = 0; i < 8; i++) {
+			database.addAccount("keep" + i, i);
+		}
+		// Every deleted account leaves a tombstone between the others
+		for (int round = 0; round < 200; round++) {
+			database.addAccount("churn" + round, round);
+			database.deleteAccount("churn" + round);
+			assertTrue("Tombstones and accounts exceed the load factor", 8 + database.getTombstones() <= 12);
+		}
+
+		assertFalse(database.containsAccount("churn0"));
+		assertEquals(8, database.listAccounts().size());
+		database.close();
+		database = new MappedDatabase(BIC, file, 16);
+		for (int i = 0; i < 8; i++) {
+			assertEquals(i, database.getBalance("keep" + i), DELTA);
+		}
+		assertTrue(database.getTombstones() <= 4);
+	}
+
+	@Test
+	public void testConcurrentReadsWhilePurging() throws Exception {
+		database.addAccount("test", 100);
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 10000; i++) {
+					database.addAccount("churn" + i, 0);
+					database.deleteAccount("churn" + i);
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		writer.start();
+
+		// Moving the account while purging must not make it disappear for a reader
+		while (writer.isAlive()) {
+			assertEquals(100, database.getBalance("test"), DELTA);
+		}
+		writer.join();
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		// 75% of 16 slots
+		for (int i = 0; i < 12; i++) {
+			database.addAccount("test" + i, i);
+		}
+		for (int i = 0; i < 12; i++) {
+			assertEquals(i, database.getBalance("test" + i), DELTA);
+		}
+
+		thrown.expect(IllegalStateException.class);
+		database.addAccount("full", 0);
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		database.addAccount("test", 100);
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0; i < 100000; i++) {
+					database.deposit("test", 1);
+					database.withdraw("test", 1);
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		writer.start();
+
+		while (writer.isAlive()) {
+			double balance = database.getBalance("test");
+			assertTrue("Read an inconsistent balance " + balance, balance == 100 || balance == 101);
+		}
+		writer.join();
+		assertEquals(100, database.getBalance("test"), DELTA);
+	}
+
+	@Test
+	public void testSnapshotDuringWrites() throws Exception {
+		database.close();
+		file.delete();
+		database = new MappedDatabase(BIC, file, 1 << 14);
+		for (int i = 0; i < 1000; i++) {
+			database.addAccount("test" + i, 100);
+		}
+
+		AccountSnapshot snapshot = database.snapshot();
+		Thread writer = new Thread(() -> {
+			try {
+				// Transfers between the accounts, which keep the total constant
+				for (int i = 0; i < 100000; i++) {
+					database.withdraw("test" + (i % 1000), 1);
+					database.deposit("test" + ((i * 7) % 1000), 1);
+				}
+				database.addAccount("new", 1000);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		writer.start();
+
+		double[] total = new double[1];
+		int[] count = new int[1];
+		for (int p = snapshot.getPartitionCount() - 1; p >= 0; p--) {
+			snapshot.forEach(p, (iban, balance) -> {
+				total[0] += balance;
+				count[0]++;
+			});
+		}
+		writer.join();
+		snapshot.close();
+
+		assertEquals(1000, snapshot.size());
+		assertEquals(1000, count[0]);
+		assertEquals(100000, total[0], DELTA);
+
+		thrown.expect(IllegalStateException.class);
+		snapshot.forEach(0, (iban, balance) -> {});
+	}
+
+	@Test
+	public void testOppositeTransfers() throws Exception {
+		database.addAccount("test1", 100000);
+		database.addAccount("test2", 100000);
+
+		// Both directions at once must neither deadlock nor lose money
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			String from = t % 2 == 0 ? "test1" : "test2";
+			String to = t % 2 == 0 ? "test2" : "test1";
+			threads[t] = new Thread(() -> {
+				try {
+					for (int i = 0; i < 10000; i++) {
+						database.transfer(from, to, 1);
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(100000, database.getBalance("test1"), DELTA);
+		assertEquals(100000, database.getBalance("test2"), DELTA);
+	}
+
+	@Test
+	public void testIbanTooLong() throws Exception {
+		StringBuilder iban = new StringBuilder();
+		for (int i = 0; i <= MappedDatabase.MAX_IBAN_LENGTH; i++) {
+			iban.append('x');
+		}
+
+		thrown.expect(IllegalArgumentException.class);
+		database.addAccount(iban.toString(), 0);
+	}
+
+	@Test
+	public void testUnknownAccount() throws Exception {
+		assertFalse(database.depositIfExists("unknown", 1));
+		thrown.expect(UnknownAccountException.class);
+		database.getBalance("unknown");
+	}
+}
@@ -0,0 +1,71 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.queue.ResourceCache;
+
+/**
+ * JUnitTest that tests {@link ResourceCache}.
+ */
+public class ResourceCacheTest {
+	private static final String URL = "https://sqs.eu-central-1.amazonaws.com/123/request_bic";
+	private static final String ARN = "arn:aws:sns:eu-west-3:123:bic";
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("resources", ".properties");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private Properties load() throws Exception {
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		return properties;
+	}
+
+	@Test
+	public void testWrittenToFile() throws Exception {
+		ResourceCache cache = ResourceCache.open(file);
+		assertNull(cache.getQueueUrl("request_bic"));
+		assertFalse("The file is only created on the first change", file.exists());
+
+		cache.putQueueUrl("request_bic", URL);
+		cache.putTopicArn("bic", ARN);
+		assertEquals(URL, cache.getQueueUrl("request_bic"));
+		assertEquals(ARN, cache.getTopicArn("bic"));
+		assertNull("Queues and topics do not share names", cache.getTopicArn("request_bic"));
+		assertTrue(load().containsValue(URL));
+		assertTrue(load().containsValue(ARN));
+		assertSame("Servers of a process share the cache", cache, ResourceCache.open(file));
+
+		cache.removeQueueUrl("request_bic");
+		assertNull(cache.getQueueUrl("request_bic"));
+		assertFalse(load().containsValue(URL));
+		assertTrue(load().containsValue(ARN));
+	}
+
+	@Test
+	public void testInMemory() {
+		ResourceCache cache = new ResourceCache();
+		cache.putQueueUrl("request_bic", URL);
+		assertEquals(URL, cache.getQueueUrl("request_bic"));
+		cache.removeQueueUrl("request_bic");
+		assertNull(cache.getQueueUrl("request_bic"));
+	}
+}
@@ -0,0 +1,67 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.server.RoundTripEstimator;
+
+/**
+ * JUnitTest that tests the timeouts derived by {@link RoundTripEstimator}.
+ */
+public class RoundTripEstimatorTest {
+	private static final String BIC = "remote";
+	private RoundTripEstimator estimator;
+
+	@Before
+	public void setUp() throws Exception {
+		estimator = new RoundTripEstimator();
+	}
+
+	@Test
+	public void testInitialTimeout() {
+		assertEquals(RoundTripEstimator.INITIAL_TIMEOUT, estimator.getTimeout(BIC));
+		assertEquals(RoundTripEstimator.INITIAL_TIMEOUT / RoundTripEstimator.RETRIES, estimator.getRetryInterval(BIC));
+	}
+
+	@Test
+	public void testTimeoutFollowsRoundTrips() {
+		for (int i = 0; i < 100; i++) {
+			estimator.sample(BIC, 2000 + (i % 2) * 200);
+		}
+		long timeout = estimator.getTimeout(BIC);
+		assertTrue("Timeout " + timeout + " must cover the round trips", timeout > 2200);
+		assertTrue("Timeout " + timeout + " must be close to the round trips", timeout < 3000);
+
+		// Slower bank
+		for (int i = 0; i < 100; i++) {
+			estimator.sample(BIC, 10000);
+		}
+		assertTrue(estimator.getTimeout(BIC) > 10000);
+		assertEquals("Other banks are not affected", RoundTripEstimator.INITIAL_TIMEOUT, estimator.getTimeout("other"));
+	}
+
+	@Test
+	public void testBounds() {
+		for (int i = 0; i < 10; i++) {
+			estimator.sample(BIC, 1);
+		}
+		assertEquals(RoundTripEstimator.MIN_TIMEOUT, estimator.getTimeout(BIC));
+	}
+
+	@Test
+	public void testBackoff() {
+		estimator.sample(BIC, 2000);
+		long timeout = estimator.getTimeout(BIC);
+		estimator.backoff(BIC);
+		assertEquals(2 * timeout, estimator.getTimeout(BIC));
+		for (int i = 0; i < 20; i++) {
+			estimator.backoff(BIC);
+		}
+		assertEquals(RoundTripEstimator.MAX_TIMEOUT, estimator.getTimeout(BIC));
+
+		// The next round trip resets the timeout
+		estimator.sample(BIC, 2000);
+		assertTrue(estimator.getTimeout(BIC) < RoundTripEstimator.MAX_TIMEOUT);
+	}
+}
@@ -0,0 +1,140 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.AccountSnapshot;
+import ch.unibas.dmi.dbis.dis.mom.db.ShardedDatabase;
+import ch.unibas.dmi.dbis.dis.mom.exception.AccountOverdrawException;
+import ch.unibas.dmi.dbis.dis.mom.exception.UnknownAccountException;
+
+/**
+ * JUnitTest that tests the concurrency of {@link ShardedDatabase}.
+ */
+public class ShardedDatabaseTest {
+	private static final String BIC = "shardedDatabaseTest";
+	private static final int ACCOUNTS = 16;
+	private static final int THREADS = 8;
+	private static final int DEPOSITS = 10000;
+	private static final double DELTA = 0.001;
+	private ShardedDatabase database;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new ShardedDatabase(BIC, 4);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			database.addAccount("test" + i, 0);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	public void testConcurrentDeposits() throws Exception {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < DEPOSITS; i++) {
+					database.depositAsync("test" + (i % ACCOUNTS), 1);
+				}
+				// Commands of a shard are executed in order, so waiting for the last one of each account suffices
+				for (int i = 0; i < ACCOUNTS; i++) {
+					database.depositAsync("test" + i, 0).join();
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		double total = 0;
+		for (int i = 0; i < ACCOUNTS; i++) {
+			total += database.getBalance("test" + i);
+		}
+		assertEquals(THREADS * DEPOSITS, total, DELTA);
+	}
+
+	@Test
+	public void testAsyncFailures() throws Exception {
+		assertFalse(database.depositAsync("unknown", 1).join());
+		try {
+			database.withdrawAsync("test0", 1).join();
+			fail("Withdrawing from an empty account must fail");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof AccountOverdrawException);
+		}
+	}
+
+	@Test
+	public void testTransfersBetweenShards() throws Exception {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			database.deposit("test" + i, 1000);
+		}
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < THREADS; t++) {
+			int offset = t + 1;
+			Thread thread = new Thread(() -> {
+				try {
+					// Opposite directions between the same shards at the same time
+					for (int i = 0; i < DEPOSITS / 10; i++) {
+						database.transfer("test" + (i % ACCOUNTS), "test" + ((i + offset) % ACCOUNTS), 1);
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		// No snapshot must see a transfer that was withdrawn but not deposited yet
+		while (threads.get(0).isAlive()) {
+			double[] total = new double[1];
+			try (AccountSnapshot snapshot = database.snapshot()) {
+				snapshot.forEach((iban, balance) -> total[0] += balance);
+			}
+			assertEquals(ACCOUNTS * 1000, total[0], DELTA);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		String other = null;
+		for (int i = 1; other == null; i++) {
+			if (database.shardOf("unknown" + i) != database.shardOf("test0")) {
+				other = "unknown" + i;
+			}
+		}
+		double balance = database.getBalance("test0");
+		try {
+			database.transfer("test0", other, 1);
+			fail("The transfer to an unknown account succeeded");
+		} catch (UnknownAccountException e) {
+			assertEquals(balance, database.getBalance("test0"), DELTA);
+		}
+	}
+
+	@Test
+	public void testCallbackOnOwnerThread() throws Exception {
+		// A callback running on the owner thread may use the synchronous methods of its own shard
+		double balance = database.depositAsync("test1", 5).thenApply(ok -> {
+			try {
+				return database.getBalance("test1");
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}).join();
+		assertEquals(5, balance, DELTA);
+		assertEquals(ACCOUNTS, database.listAccounts().size());
+	}
+}
@@ -0,0 +1,69 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.SlabTransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * JUnitTest that tests the slot reuse and the id index of {@link SlabTransactionTable}.
+ */
+public class SlabTransactionTableTest {
+	private static final String BIC = "slabTest";
+	private static final int TRANSACTIONS = 10 * SlabTransactionTable.SLAB_SIZE;
+
+	@Test
+	public void testSlotsAreReused() throws Exception {
+		SlabTransactionTable table = new SlabTransactionTable(BIC);
+		List<String> ids = new ArrayList<String>();
+		for (int i = 0; i < TRANSACTIONS; i++) {
+			ids.add(table.put(new Transaction("iban" + i, i)));
+		}
+		assertEquals(TRANSACTIONS, table.size());
+		int capacity = table.capacity();
+
+		// Remove in random order, then fill up again
+		Random random = new Random(42);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < TRANSACTIONS / 2; i++) {
+				int index = random.nextInt(ids.size());
+				String id = ids.set(index, ids.get(ids.size() - 1));
+				ids.remove(ids.size() - 1);
+				table.remove(id);
+				assertFalse(table.containsId(id));
+			}
+			for (int i = 0; i < TRANSACTIONS / 2; i++) {
+				ids.add(table.put(new Transaction("iban", 1)));
+			}
+		}
+
+		assertEquals("No slab must be added for a constant number of transactions", capacity, table.capacity());
+		assertEquals(TRANSACTIONS, table.list().size());
+		for (String id : ids) {
+			assertTrue(table.containsId(id));
+		}
+	}
+
+	@Test
+	public void testExplicitIds() throws Exception {
+		SlabTransactionTable table = new SlabTransactionTable(BIC);
+		Transaction tx = new Transaction("iban", 5);
+		// Not the canonical form of a generated id
+		table.put(BIC + "_007", tx);
+		table.put("other_7", tx);
+		table.put(BIC + "_7", tx);
+
+		assertEquals(3, table.list().size());
+		assertEquals(tx, table.get(BIC + "_007"));
+		table.remove(BIC + "_7");
+		assertTrue(table.containsId(BIC + "_007"));
+		assertTrue(table.containsId("other_7"));
+		assertFalse(table.containsId(BIC + "_7"));
+	}
+}
@@ -0,0 +1,78 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.db.SimpleTransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.db.TransactionIdGenerator;
+import ch.unibas.dmi.dbis.dis.mom.db.TransactionTable;
+import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
+
+/**
+ * JUnitTest that tests the uniqueness of ids generated by {@link TransactionIdGenerator}.
+ */
+public class TransactionIdGeneratorTest {
+	private static final int IDS = 100000;
+
+	@Test
+	public void testIdsIncrease() {
+		TransactionIdGenerator generator = new TransactionIdGenerator(7);
+		long before = System.currentTimeMillis();
+		long previous = -1;
+		// Far more than fit into one millisecond
+		for (int i = 0; i < IDS; i++) {
+			long id = generator.nextId();
+			assertTrue(id > previous);
+			assertEquals(7, TransactionIdGenerator.getNode(id));
+			previous = id;
+		}
+		assertTrue(TransactionIdGenerator.getTime(previous) >= before);
+	}
+
+	@Test
+	public void testConcurrentNodes() throws Exception {
+		TransactionIdGenerator[] generators = { new TransactionIdGenerator(1), new TransactionIdGenerator(2) };
+		List<long[]> results = new ArrayList<long[]>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			TransactionIdGenerator generator = generators[t % 2];
+			long[] ids = new long[IDS];
+			results.add(ids);
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < IDS; i++) {
+					ids[i] = generator.nextId();
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Set<Long> unique = new HashSet<Long>();
+		for (long[] ids : results) {
+			for (long id : ids) {
+				assertTrue("Duplicate id " + id, unique.add(id));
+			}
+		}
+	}
+
+	@Test
+	public void testParseTransactionId() {
+		TransactionTable table = new SimpleTransactionTable("test_bank");
+		String id = table.put(new Transaction("iban", 1));
+		assertTrue(id.startsWith("test_bank_"));
+		assertEquals(Long.parseLong(id.substring("test_bank_".length())), TransactionTable.parseTransactionId(id));
+
+		assertEquals(-1, TransactionTable.parseTransactionId("some old id"));
+		assertEquals(-1, TransactionTable.parseTransactionId("bank_"));
+		assertEquals(-1, TransactionTable.parseTransactionId("bank_-5"));
+	}
+}
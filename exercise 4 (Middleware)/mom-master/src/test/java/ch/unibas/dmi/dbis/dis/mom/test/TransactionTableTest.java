@@ -2,9 +2,13 @@ package ch.unibas.dmi.dbis.dis.mom.test;
 
 import static org.junit.Assert.*;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +18,9 @@ import java.util.Set;
 
 import org.junit.*;
 import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 
 import ch.unibas.dmi.dbis.dis.mom.db.ITransactionTable;
 import ch.unibas.dmi.dbis.dis.mom.exception.TransactionExistsException;
@@ -22,13 +29,14 @@ import ch.unibas.dmi.dbis.dis.mom.server.BankServer;
 import ch.unibas.dmi.dbis.dis.mom.server.Transaction;
 
 /**
- * JUnitTest that tests the functionality of the given implementation of {@link ITransactionTable}
+ * JUnitTest that tests the functionality of every implementation of {@link ITransactionTable}
  * provided by {@link BankServer#createTransactionTable(String, com.amazonaws.auth.AWSCredentials) createTransactionTable}
- * from {@link BankServer}.
+ * from {@link BankServer}, see {@link #implementations()}.
  * This test does also check the persistence of the implementation.
  * 
  * @author Lukas Beck, HS2012
  */
+@RunWith(Parameterized.class)
 public class TransactionTableTest {	
 	private static final Transaction TX = new Transaction("iban", 1234);
 	private static final String BIC = "transactionTest";
@@ -37,32 +45,51 @@ public class TransactionTableTest {
 	
 	private static ITransactionTable txTable;
 	
+	private final String type;
+	
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
 	
-	@BeforeClass
-	public static void setUpBeforeClass() throws Exception {
-		txTable = getTransactionTable();
-		deleteAllTransactions();
+	/**
+	 * @return the value of {@value BankServer#TRANSACTION_TABLE_PROPERTY} for every implementation
+	 */
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> implementations() {
+		return Arrays.asList(new Object[][] {
+			{ "simple" },
+			{ "slab" },
+			{ "jdbc" },
+		});
 	}
-
-	@AfterClass
-	public static void tearDownAfterClass() throws Exception {
-		
+	
+	public TransactionTableTest(String type) {
+		this.type = type;
 	}
 
 	@Before
 	public void setUp() throws Exception {
+		txTable = getTransactionTable();
+		deleteAllTransactions();
 	}
 
 	@After
 	public void tearDown() throws Exception {
 		deleteAllTransactions();
+		if (txTable instanceof Closeable) {
+			((Closeable) txTable).close();
+		}
+		// Files of the jdbc table
+		new File(BIC + ".mv.db").delete();
+		new File(BIC + ".trace.db").delete();
 	}
 	
-	public static ITransactionTable getTransactionTable() throws FileNotFoundException, IOException {
-		//return new SimpleTransactionTable(BIC);
-		return BankServer.createTransactionTable(BIC, BankServer.createCredentials());
+	public ITransactionTable getTransactionTable() throws FileNotFoundException, IOException {
+		System.setProperty(BankServer.TRANSACTION_TABLE_PROPERTY, type);
+		try {
+			return BankServer.createTransactionTable(BIC, BankServer.createCredentials());
+		} finally {
+			System.clearProperty(BankServer.TRANSACTION_TABLE_PROPERTY);
+		}
 	}
 	
 	public static void deleteAllTransactions() throws UnknownTransactionException {
@@ -186,6 +213,23 @@ public class TransactionTableTest {
 		assertEquals("Listed and inserted transactions are not the same", transactions.entrySet(), inserted);
 	}
 		
+	@Test
+	public void testListStartedBefore() throws TransactionExistsException {
+		Transaction old = new Transaction("old iban", 1);
+		old.startTime -= TIMEOUT;
+		Transaction recent = new Transaction("recent iban", 2);
+		blockingPut("old id", old);
+		blockingPut("recent id", recent);
+		String generated = blockingPut(old);
+		
+		Map<String, Transaction> expired = new HashMap<String, Transaction>();
+		expired.put("old id", old);
+		expired.put(generated, old);
+		assertEquals("Only the transactions started before the time are listed", expired.entrySet(),
+				txTable.listStartedBefore(recent.startTime - TIMEOUT / 2));
+		assertTrue(txTable.listStartedBefore(old.startTime).isEmpty());
+	}
+	
 	@Test
 	@Ignore("Bonus points")
 	public void testPersistence() throws TransactionExistsException, InterruptedException, FileNotFoundException, IOException, UnknownTransactionException {
@@ -0,0 +1,88 @@
+package ch.unibas.dmi.dbis.dis.mom.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+
+import ch.unibas.dmi.dbis.dis.mom.queue.VisibilityLeaseManager;
+
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+
+/**
+ * JUnitTest that tests the batched heartbeat of {@link VisibilityLeaseManager} against {@link InMemorySQS}.
+ */
+public class VisibilityLeaseManagerTest {
+	private static final int VISIBILITY_TIMEOUT = 3;
+	/**
+	 * Time until the first heartbeat ran, which is due after a third of the visibility timeout.
+	 */
+	private static final long HEARTBEAT = VISIBILITY_TIMEOUT * 1000 / 3 + 500;
+
+	private InMemorySQS sqs;
+	private String url;
+	private VisibilityLeaseManager leases;
+
+	@Before
+	public void setUp() {
+		sqs = new InMemorySQS();
+		url = sqs.createQueue(new CreateQueueRequest("leases")).getQueueUrl();
+		leases = new VisibilityLeaseManager(sqs, url, VISIBILITY_TIMEOUT);
+	}
+
+	@After
+	public void tearDown() {
+		leases.close();
+	}
+
+	private List<Message> receive(int count) {
+		for (int i = 0; i < count; i++) {
+			sqs.sendMessage(new SendMessageRequest(url, "message " + i));
+		}
+		return sqs.receiveMessage(new ReceiveMessageRequest(url)
+				.withMaxNumberOfMessages(count).withVisibilityTimeout(VISIBILITY_TIMEOUT)).getMessages();
+	}
+
+	@Test
+	public void testBatches() throws Exception {
+		for (Message m : receive(25)) {
+			leases.acquire(m.getReceiptHandle());
+		}
+		assertEquals(25, leases.size());
+
+		Thread.sleep(HEARTBEAT);
+		assertEquals("SQS accepts at most ten entries per batch", Arrays.asList(10, 10, 5), sqs.getVisibilityBatches());
+		assertEquals(25, leases.size());
+	}
+
+	@Test
+	public void testKeepsMessagesInvisible() throws Exception {
+		List<Message> received = receive(2);
+		leases.acquire(received.get(0).getReceiptHandle());
+		leases.acquire(received.get(1).getReceiptHandle());
+		leases.release(received.get(1).getReceiptHandle());
+		assertEquals(1, leases.size());
+
+		Thread.sleep(VISIBILITY_TIMEOUT * 1000 + 500);
+		List<Message> again = sqs.receiveMessage(new ReceiveMessageRequest(url).withMaxNumberOfMessages(10)).getMessages();
+		assertEquals("Only the released message is delivered again", 1, again.size());
+		assertEquals(received.get(1).getMessageId(), again.get(0).getMessageId());
+	}
+
+	@Test
+	public void testRejectedLeasesAreDropped() throws Exception {
+		leases.acquire("unknown receipt handle");
+		for (Message m : receive(3)) {
+			leases.acquire(m.getReceiptHandle());
+		}
+
+		Thread.sleep(HEARTBEAT);
+		assertEquals(Arrays.asList(4), sqs.getVisibilityBatches());
+		assertEquals(3, leases.size());
+	}
+}